@@ -6,16 +6,30 @@ package emengjzs.emengdb.api;
 
 import emengjzs.emengdb.util.byt.Slice;
 
+import java.io.Closeable;
+
 /**
  * Created by emengjzs on 2016/12/22.
  */
-public interface EmengDB {
+public interface EmengDB extends Closeable {
 
 
     Slice get(Slice key);
 
+    /**
+     * Read the key in the snapshot of the options, or the last writes if no snapshot is set.
+     */
+    Slice get(ReadOptions readOptions, Slice key);
+
     void put(Slice key, Slice value);
 
     void del(Slice key);
 
+    /**
+     * Take a snapshot of the db, it must be released by releaseSnapshot() after used.
+     */
+    Snapshot getSnapshot();
+
+    void releaseSnapshot(Snapshot snapshot);
+
 }
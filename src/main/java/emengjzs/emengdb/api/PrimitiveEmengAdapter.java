@@ -8,6 +8,7 @@ import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import emengjzs.emengdb.util.byt.Slice;
 
+import java.io.IOException;
 import java.util.function.Function;
 
 /**
@@ -70,6 +71,11 @@ public class PrimitiveEmengAdapter implements EmengDB {
         return db.get(key);
     }
 
+    @Override
+    public Slice get(ReadOptions readOptions, Slice key) {
+        return db.get(readOptions, key);
+    }
+
     @Override
     public void put(Slice key, Slice value) {
         db.put(key, value);
@@ -79,4 +85,19 @@ public class PrimitiveEmengAdapter implements EmengDB {
     public void del(Slice key) {
         db.del(key);
     }
+
+    @Override
+    public Snapshot getSnapshot() {
+        return db.getSnapshot();
+    }
+
+    @Override
+    public void releaseSnapshot(Snapshot snapshot) {
+        db.releaseSnapshot(snapshot);
+    }
+
+    @Override
+    public void close() throws IOException {
+        db.close();
+    }
 }
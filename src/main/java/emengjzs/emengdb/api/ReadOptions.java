@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.api;
+
+/**
+ * Options of a single read.
+ */
+public class ReadOptions {
+
+    // null means reading the last visible writes
+    private Snapshot snapshot;
+
+
+    public ReadOptions() {
+    }
+
+    public ReadOptions(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @param snapshot the snapshot to read, it must not be released, or
+     *                 null to read the writes done before the read.
+     */
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+}
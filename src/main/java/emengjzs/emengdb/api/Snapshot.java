@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.api;
+
+/**
+ * A consistent view of the db at a point, got by EmengDB.getSnapshot().
+ * The reads with it see the writes done before it is taken only, and the
+ * versions of the keys it sees are kept by the compactions until it is
+ * released, so it must be released after used.
+ */
+public interface Snapshot {
+
+    /**
+     * @return the last sequence number the snapshot sees.
+     */
+    long getSequence();
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hand out memory from big off-heap chunks, so millions of small entries
+ * are a few objects to the GC. The memory is never freed one by one, the
+ * whole arena is dropped with the memtable.
+ *
+ * An address is the index of the chunk in the high 32 bits and the offset
+ * in the chunk in the low 32 bits. Allocation is a getAndAdd in the current
+ * chunk, a lock is only taken to switch to a new chunk.
+ *
+ * The chunks are shared by all the threads, so only the absolute get / put
+ * methods of the buffer are used, or a duplicate of it.
+ *
+ * The chunks count in -XX:MaxDirectMemorySize, and are freed when the
+ * buffers are collected.
+ */
+class Arena {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    private static final int MAX_CHUNKS = 1 << 16;
+
+    private final int chunkSize;
+
+    private final AtomicReferenceArray<ByteBuffer> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    private final AtomicInteger chunkCount = new AtomicInteger();
+
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    private volatile Chunk current;
+
+    Arena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    Arena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.current = new Chunk(chunkSize);
+    }
+
+    /**
+     * @return the address of size bytes, which never cross two chunks.
+     */
+    long allocate(int size) {
+        // a big one takes a chunk of its own, not to waste the rest of the current chunk
+        if (size > chunkSize >> 2) {
+            return address(new Chunk(size).index, 0);
+        }
+        while (true) {
+            Chunk chunk = current;
+            int offset = chunk.top.getAndAdd(size);
+            if (offset <= chunkSize - size) {
+                return address(chunk.index, offset);
+            }
+            synchronized (this) {
+                if (current == chunk) {
+                    current = new Chunk(chunkSize);
+                }
+            }
+        }
+    }
+
+    ByteBuffer buffer(long address) {
+        return chunks.get((int) (address >>> 32));
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    private static long address(int chunkIndex, int offset) {
+        return ((long) chunkIndex << 32) | offset;
+    }
+
+    /**
+     * @return the bytes of the chunks allocated.
+     */
+    long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+
+    private class Chunk {
+        final int index;
+        final AtomicInteger top = new AtomicInteger();
+
+        Chunk(int size) {
+            index = chunkCount.getAndIncrement();
+            Preconditions.checkState(index < MAX_CHUNKS, "Too many chunks in the arena");
+            chunks.set(index, ByteBuffer.allocateDirect(size));
+            memoryUsage.addAndGet(size);
+        }
+    }
+}
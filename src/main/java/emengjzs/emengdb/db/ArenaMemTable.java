@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free skip list whose keys and values are kept in an off-heap Arena,
+ * and whose towers (the next pointers of each level) are kept in big
+ * AtomicLongArray chunks, so there is no object for an entry.
+ *
+ * A node is the index of its tower: slot 0 holds the address of the entry
+ * in the arena, slot 1 + i holds the next node on level i. The entry is
+ * written before the node is linked by a CAS, so a reader reaching a node
+ * always sees the whole entry.
+ *
+ * An entry in the arena:
+ * +-----------------------+---------------+----------------+---------+
+ * |  internal key.length  |  value.length |  internal key  |  value  |
+ * +-----------------------+---------------+----------------+---------+
+ *            4                    4         see InternalKeyCoder
+ */
+public class ArenaMemTable extends MemTable {
+
+    static final int MAX_HEIGHT = 12;
+
+    private static final int BRANCHING = 4;
+
+    private static final int TOWER_CHUNK_SHIFT = 16;
+    private static final int TOWER_CHUNK_SIZE = 1 << TOWER_CHUNK_SHIFT;
+    private static final int TOWER_CHUNK_MASK = TOWER_CHUNK_SIZE - 1;
+    private static final int MAX_TOWER_CHUNKS = 1 << 15;
+
+    // the head is the first tower, so no node points to 0
+    private static final long HEAD = 0;
+    private static final long NIL = 0;
+
+    private static final int ENTRY_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+    private final Arena arena;
+
+    private final AtomicReferenceArray<AtomicLongArray> towers = new AtomicReferenceArray<>(MAX_TOWER_CHUNKS);
+
+    private final AtomicLong towerTop = new AtomicLong();
+
+    private final AtomicInteger maxHeight = new AtomicInteger(1);
+
+    public ArenaMemTable(InternalKeyComparator cmp) {
+        this(cmp, Arena.DEFAULT_CHUNK_SIZE);
+    }
+
+    public ArenaMemTable(InternalKeyComparator cmp, int arenaChunkSize) {
+        super(cmp);
+        arena = new Arena(arenaChunkSize);
+        allocateTower(MAX_HEIGHT);
+    }
+
+
+    @Override
+    public void add(long seq, ValueType type, byte[] key, byte[] value) {
+        byte[] internalKey = internalKeyCoder.encode(seq, type, key);
+        long address = arena.allocate(ENTRY_HEADER_SIZE + internalKey.length + value.length);
+        ByteBuffer entry = arena.buffer(address).duplicate();
+        entry.position(Arena.offset(address));
+        entry.putInt(internalKey.length).putInt(value.length).put(internalKey).put(value);
+        memorySizeThreshold.increase(internalKey.length + value.length);
+
+        int height = randomHeight();
+        long node = allocateTower(height);
+        tower(node).set(towerSlot(node), address);
+
+        int max = maxHeight.get();
+        while (height > max && ! maxHeight.compareAndSet(max, height)) {
+            max = maxHeight.get();
+        }
+
+        Slice userKey = Slice.from(key);
+        long seqAndType = seq << 8 | type.toByte();
+        long[] prevs = new long[MAX_HEIGHT];
+        findGreaterOrEqual(userKey, seqAndType, prevs);
+
+        for (int level = 0; level < height; level ++) {
+            long prev = prevs[level];
+            while (true) {
+                // another node may be linked after prev since it was found
+                long next = nextNode(prev, level);
+                int cmp = -1;
+                while (next != NIL && (cmp = compare(next, userKey, seqAndType)) < 0) {
+                    prev = next;
+                    next = nextNode(prev, level);
+                }
+                // a sequence number is allocated to a single record, checked
+                // at level 0 before the node is linked anywhere
+                Preconditions.checkState(cmp != 0, "Duplicate entry of sequence %s", seq);
+                setNext(node, level, next);
+                if (casNext(prev, level, next, node)) {
+                    break;
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public MemTableGetResult get(LookupKey lookupKey) {
+        Slice userKey = lookupKey.getUserKey();
+        long node = findGreaterOrEqual(userKey, lookupKey.getSeqFlag(), null);
+        if (node != NIL) {
+            long address = entryAddress(node);
+            ByteBuffer buffer = arena.buffer(address);
+            int offset = Arena.offset(address) + ENTRY_HEADER_SIZE;
+            int keyLength = buffer.getInt(offset);
+            if (userKeyComparator.compare(
+                    Slice.from(buffer, offset + Integer.BYTES, keyLength), userKey) == 0) {
+                byte valueType = (byte) buffer.getLong(offset + Integer.BYTES + keyLength);
+                return toGetResult(valueType, readValue(address));
+            }
+        }
+        return new MemTableGetResult(MemTableGetResult.NOT_FOUND);
+    }
+
+
+    @Override
+    public ListIterator<Entry<InternalKey, Slice>> getIterator() {
+        return new ArenaIterator();
+    }
+
+    /**
+     * The chunks of the arena and the towers allocated.
+     */
+    @Override
+    public long getMemoryUsage() {
+        return arena.getMemoryUsage() + towerTop.get() * Long.BYTES;
+    }
+
+
+    /**
+     * @param prevs if not null, filled with the last node before the key on each level.
+     * @return the first node not less than the key, or NIL.
+     */
+    private long findGreaterOrEqual(Slice userKey, long seqAndType, long[] prevs) {
+        long node = HEAD;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            long next = nextNode(node, level);
+            if (next != NIL && compare(next, userKey, seqAndType) < 0) {
+                node = next;
+            }
+            else {
+                if (prevs != null) {
+                    prevs[level] = node;
+                }
+                if (level == 0) {
+                    return next;
+                }
+                level --;
+            }
+        }
+    }
+
+    /**
+     * @return the last node less than the key, or HEAD.
+     */
+    private long findLessThan(Slice userKey, long seqAndType) {
+        long node = HEAD;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            long next = nextNode(node, level);
+            if (next != NIL && compare(next, userKey, seqAndType) < 0) {
+                node = next;
+            }
+            else if (level == 0) {
+                return node;
+            }
+            else {
+                level --;
+            }
+        }
+    }
+
+    /**
+     * Compare the entry of the node with the key as InternalKeyComparator does,
+     * the user key is compared in place in the arena.
+     */
+    private int compare(long node, Slice userKey, long seqAndType) {
+        long address = entryAddress(node);
+        ByteBuffer buffer = arena.buffer(address);
+        int offset = Arena.offset(address) + ENTRY_HEADER_SIZE;
+        int keyLength = buffer.getInt(offset);
+        int res = userKeyComparator.compare(Slice.from(buffer, offset + Integer.BYTES, keyLength), userKey);
+        if (res == 0) {
+            // seq and type descending
+            return Long.compareUnsigned(seqAndType, buffer.getLong(offset + Integer.BYTES + keyLength));
+        }
+        return res;
+    }
+
+    private int randomHeight() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height ++;
+        }
+        return height;
+    }
+
+
+    /**
+     * @return a tower of the height, which never crosses two chunks.
+     */
+    private long allocateTower(int height) {
+        int size = 1 + height;
+        while (true) {
+            long node = towerTop.getAndAdd(size);
+            int chunkIndex = (int) (node >>> TOWER_CHUNK_SHIFT);
+            if (chunkIndex != (int) ((node + size - 1) >>> TOWER_CHUNK_SHIFT)) {
+                // skip the tail of the chunk
+                continue;
+            }
+            if (towers.get(chunkIndex) == null) {
+                towers.compareAndSet(chunkIndex, null, new AtomicLongArray(TOWER_CHUNK_SIZE));
+            }
+            return node;
+        }
+    }
+
+    private AtomicLongArray tower(long node) {
+        return towers.get((int) (node >>> TOWER_CHUNK_SHIFT));
+    }
+
+    private static int towerSlot(long node) {
+        return (int) (node & TOWER_CHUNK_MASK);
+    }
+
+    private long entryAddress(long node) {
+        return tower(node).get(towerSlot(node));
+    }
+
+    private long nextNode(long node, int level) {
+        return tower(node).get(towerSlot(node) + 1 + level);
+    }
+
+    private void setNext(long node, int level, long next) {
+        tower(node).set(towerSlot(node) + 1 + level, next);
+    }
+
+    private boolean casNext(long node, int level, long expect, long update) {
+        return tower(node).compareAndSet(towerSlot(node) + 1 + level, expect, update);
+    }
+
+    private byte[] readInternalKey(long address) {
+        ByteBuffer entry = arena.buffer(address).duplicate();
+        entry.position(Arena.offset(address));
+        byte[] internalKey = new byte[entry.getInt()];
+        entry.position(entry.position() + Integer.BYTES);
+        entry.get(internalKey);
+        return internalKey;
+    }
+
+    private byte[] readValue(long address) {
+        ByteBuffer entry = arena.buffer(address).duplicate();
+        entry.position(Arena.offset(address));
+        int keyLength = entry.getInt();
+        byte[] value = new byte[entry.getInt()];
+        entry.position(entry.position() + keyLength);
+        entry.get(value);
+        return value;
+    }
+
+
+    /**
+     * Behaves like the iterator of SkipListMemTable, previous() looks up
+     * the entry before the one returned by the last next().
+     * The keys and values are copied out of the arena.
+     */
+    private class ArenaIterator implements ListIterator<Entry<InternalKey, Slice>> {
+
+        private long node = HEAD;
+
+        @Override
+        public boolean hasNext() {
+            return nextNode(node, 0) != NIL;
+        }
+
+        @Override
+        public Entry<InternalKey, Slice> next() {
+            long next = nextNode(node, 0);
+            if (next == NIL) {
+                throw new NoSuchElementException();
+            }
+            node = next;
+            return entry(node);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return node != HEAD && lower(node) != HEAD;
+        }
+
+        @Override
+        public Entry<InternalKey, Slice> previous() {
+            if (node == HEAD) {
+                return null;
+            }
+            long lower = lower(node);
+            return lower == HEAD ? null : entry(lower);
+        }
+
+        private long lower(long node) {
+            DecodeInternalKey key = new DecodeInternalKey(readInternalKey(entryAddress(node)), internalKeyCoder);
+            return findLessThan(key.getUserKey(), key.getSeqFlag());
+        }
+
+        private Entry<InternalKey, Slice> entry(long node) {
+            long address = entryAddress(node);
+            return new AbstractMap.SimpleImmutableEntry<>(
+                    new DecodeInternalKey(readInternalKey(address), internalKeyCoder),
+                    Slice.from(readValue(address)));
+        }
+
+        @Override
+        public int nextIndex() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int previousIndex() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(Entry<InternalKey, Slice> internalKeySliceEntry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Entry<InternalKey, Slice> internalKeySliceEntry) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
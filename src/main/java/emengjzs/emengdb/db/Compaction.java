@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compaction picked from a Version, the input files are merged into new
+ * files of the output level, and the inputs are deleted.
+ *
+ * The inputs are in the order of their data, the newer first, which is the
+ * order the merging iterator takes them.
+ */
+public class Compaction {
+
+    private final Version inputVersion;
+    private final List<VersionEdit.LevelFile> inputs;
+    private final int outputLevel;
+
+    Compaction(Version inputVersion, List<VersionEdit.LevelFile> inputs, int outputLevel) {
+        this.inputVersion = inputVersion;
+        this.inputs = Collections.unmodifiableList(inputs);
+        this.outputLevel = outputLevel;
+    }
+
+    public Version getInputVersion() {
+        return inputVersion;
+    }
+
+    public List<VersionEdit.LevelFile> getInputs() {
+        return inputs;
+    }
+
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public long getInputBytes() {
+        long bytes = 0;
+        for (VersionEdit.LevelFile input : inputs) {
+            bytes += input.getFile().getFileSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return true if no file below the output level may have the user key,
+     * so a tombstone of it can be dropped.
+     */
+    boolean isBaseLevelForKey(Slice userKey) {
+        return inputVersion.isBaseLevelForKey(userKey, outputLevel);
+    }
+
+    /**
+     * Delete the inputs and add the outputs.
+     */
+    VersionEdit toEdit(List<FileMetaData> outputs) {
+        VersionEdit edit = new VersionEdit();
+        for (VersionEdit.LevelFile input : inputs) {
+            edit.deleteFile(input.getLevel(), input.getFile().getNumber());
+        }
+        for (FileMetaData output : outputs) {
+            edit.addFile(outputLevel, output);
+        }
+        return edit;
+    }
+
+    @Override
+    public String toString() {
+        return "Compaction{inputs=" + inputs + ", outputLevel=" + outputLevel + '}';
+    }
+}
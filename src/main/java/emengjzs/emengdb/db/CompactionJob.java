@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import emengjzs.emengdb.table.FilterPolicy;
+import emengjzs.emengdb.table.MergingIterator;
+import emengjzs.emengdb.table.TableBuilder;
+import emengjzs.emengdb.table.TableReader;
+import emengjzs.emengdb.util.Bits;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import emengjzs.emengdb.util.io.RateLimitedWritableFile;
+import emengjzs.emengdb.util.io.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Run a compaction: merge the input tables by a MergingIterator over the
+ * table keys, and write the entries kept into new tables of the output
+ * level, each about targetFileSize.
+ *
+ * For a user key, the entries are met from the newest. A reader sees the
+ * newest entry not newer than the sequence number it reads with, which is
+ * a live snapshot or the last visible one, so the sequence numbers split
+ * the entries into stripes, and only the newest entry of each stripe is
+ * kept. A tombstone in the oldest stripe is dropped too if no level below
+ * the output may have the key, as there is nothing left for it to hide.
+ *
+ * An output table is only cut between two user keys, so the versions of a
+ * user key are never split into two files of a level.
+ *
+ * A large compaction is split into subcompactions by ranges of user keys,
+ * which run at the same time, each writes tables of its own, and all the
+ * outputs are installed by one VersionEdit.
+ */
+class CompactionJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactionJob.class);
+
+    // the table property of the level of a table written by a compaction,
+    // the properties are only read to recover a db without a MANIFEST
+    static final String LEVEL_PROPERTY = "db.level";
+    // the table property of the numbers of the inputs of the compaction
+    // writing the table, 8 bytes each, for the tables left by a crash
+    static final String COMPACTION_INPUTS_PROPERTY = "db.compaction.inputs";
+
+    private final Compaction compaction;
+    // ascending, the last one is the last visible sequence number
+    private final List<Long> snapshots;
+    private final Options options;
+    private final TableCache tableCache;
+    private final TableKeyComparator cmp;
+    private final FilterPolicy filterPolicy;
+    private final AtomicLong nextFileNumber;
+    private final ExecutorService subcompactionExecutor;
+    private final RateLimiter rateLimiter;
+    private final BooleanSupplier cancelled;
+
+    // set once the job is done
+    private long entriesDropped;
+
+    /**
+     * @param snapshots the sequence numbers a reader may read with in
+     *                  ascending order, the last visible one at the end.
+     * @param subcompactionExecutor runs the subcompactions, null to run the
+     *                              whole compaction in the calling thread.
+     * @param rateLimiter paces the outputs written, at the low priority.
+     * @param cancelled checked between the entries, true to give up the compaction.
+     */
+    CompactionJob(Compaction compaction, List<Long> snapshots, Options options, TableCache tableCache,
+                  TableKeyComparator cmp, FilterPolicy filterPolicy, AtomicLong nextFileNumber,
+                  ExecutorService subcompactionExecutor, RateLimiter rateLimiter, BooleanSupplier cancelled) {
+        this.compaction = compaction;
+        this.snapshots = snapshots;
+        this.options = options;
+        this.tableCache = tableCache;
+        this.cmp = cmp;
+        this.filterPolicy = filterPolicy;
+        this.nextFileNumber = nextFileNumber;
+        this.subcompactionExecutor = subcompactionExecutor;
+        this.rateLimiter = rateLimiter;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * The outputs are synced before it returns, the inputs are not touched.
+     * The outputs of all the subcompactions are deleted if any of them
+     * fails or is cancelled.
+     *
+     * @return the tables written in the order of their keys, or null if cancelled.
+     */
+    List<FileMetaData> run() throws IOException {
+        List<TableCache.Handle> handles = new ArrayList<>();
+        List<Subcompaction> subcompactions = new ArrayList<>();
+        try {
+            for (VersionEdit.LevelFile input : compaction.getInputs()) {
+                handles.add(tableCache.get(input.getFile().getNumber()));
+            }
+            Slice start = null;
+            for (Slice boundary : splitKeyRange(handles)) {
+                subcompactions.add(new Subcompaction(start, boundary));
+                start = boundary;
+            }
+            subcompactions.add(new Subcompaction(start, null));
+
+            if (! runAll(subcompactions, handles)) {
+                subcompactions.forEach(Subcompaction::deleteOutputs);
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            subcompactions.forEach(Subcompaction::deleteOutputs);
+            throw e;
+        } finally {
+            handles.forEach(TableCache.Handle::release);
+        }
+
+        List<FileMetaData> outputs = new ArrayList<>();
+        long entriesRead = 0;
+        for (Subcompaction subcompaction : subcompactions) {
+            outputs.addAll(subcompaction.outputs);
+            entriesRead += subcompaction.entriesRead;
+            entriesDropped += subcompaction.entriesDropped;
+        }
+        LOGGER.info("Compact {} entries of {} files into {} files of level {} by {} subcompactions, {} entries dropped",
+                entriesRead, compaction.getInputs().size(), outputs.size(),
+                compaction.getOutputLevel(), subcompactions.size(), entriesDropped);
+        return outputs;
+    }
+
+    /**
+     * @return the entries dropped by the job, as they are shadowed or deleted.
+     */
+    long getEntriesDropped() {
+        return entriesDropped;
+    }
+
+    /**
+     * Split the key range of the inputs into at most maxSubcompactions parts
+     * of about the same data, by the keys of the index blocks of the inputs,
+     * each is the end of a data block. The boundaries are user keys, so the
+     * versions of a user key go to the same part, and the outputs of the
+     * parts never overlap.
+     *
+     * @return the user keys between the parts, ascending, empty for no split.
+     */
+    private List<Slice> splitKeyRange(List<TableCache.Handle> handles) {
+        int parts = options.getMaxSubcompactions();
+        if (subcompactionExecutor == null || parts <= 1) {
+            return Collections.emptyList();
+        }
+        Comparator<Slice> userComparator = cmp.getUserComparator();
+        List<Slice> keys = new ArrayList<>();
+        for (TableCache.Handle handle : handles) {
+            for (Slice indexKey : handle.getReader().getIndexKeys()) {
+                keys.add(TableKeyComparator.userKey(indexKey));
+            }
+        }
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        keys.sort(userComparator);
+        List<Slice> boundaries = new ArrayList<>();
+        for (int i = 1; i < parts; i ++) {
+            Slice key = keys.get((int) ((long) keys.size() * i / parts));
+            if (boundaries.isEmpty() || userComparator.compare(boundaries.get(boundaries.size() - 1), key) < 0) {
+                boundaries.add(key);
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * Run the subcompactions in the executor and wait for all of them, the
+     * calling thread takes the first one.
+     *
+     * @return false if any one is cancelled.
+     */
+    private boolean runAll(List<Subcompaction> subcompactions, List<TableCache.Handle> handles) throws IOException {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Subcompaction subcompaction : subcompactions.subList(1, subcompactions.size())) {
+            futures.add(subcompactionExecutor.submit(() -> subcompaction.run(handles)));
+        }
+        boolean completed;
+        Throwable error = null;
+        try {
+            completed = subcompactions.get(0).run(handles);
+        } catch (IOException | RuntimeException e) {
+            completed = false;
+            error = e;
+        }
+        // wait for all, their outputs are deleted only after they stop
+        for (Future<Boolean> future : futures) {
+            try {
+                completed &= Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                completed = false;
+                error = error == null ? e.getCause() : error;
+            }
+        }
+        if (error != null) {
+            Throwables.throwIfInstanceOf(error, IOException.class);
+            Throwables.throwIfUnchecked(error);
+            throw new IOException(error);
+        }
+        return completed;
+    }
+
+    private Slice encodeInputs() {
+        List<VersionEdit.LevelFile> inputs = compaction.getInputs();
+        byte[] numbers = new byte[inputs.size() * Long.BYTES];
+        for (int i = 0; i < inputs.size(); i ++) {
+            Bits.putLong(numbers, i * Long.BYTES, inputs.get(i).getFile().getNumber());
+        }
+        return Slice.from(numbers);
+    }
+
+    /**
+     * @return the numbers of the inputs of the compaction writing the table.
+     */
+    static List<Long> decodeInputs(Slice value) {
+        List<Long> numbers = new ArrayList<>();
+        if (value != null) {
+            byte[] bytes = value.toBytes();
+            for (int offset = 0; offset + Long.BYTES <= bytes.length; offset += Long.BYTES) {
+                numbers.add(Bits.getLong(bytes, offset));
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * @return the index of the oldest snapshot seeing the sequence number,
+     * the entries of a user key in the same stripe are seen by the same readers.
+     */
+    private int stripeOf(long seq) {
+        int index = Collections.binarySearch(snapshots, seq);
+        // not found, the insertion point is the first one larger
+        return index >= 0 ? index : -index - 1;
+    }
+
+
+    /**
+     * Merge the entries of a range of user keys [start, end) into tables of
+     * their own, a null bound for no bound.
+     */
+    private class Subcompaction {
+        private final Slice start;
+        private final Slice end;
+
+        private final List<FileMetaData> outputs = new ArrayList<>();
+        private TableBuilder builder;
+        private long outputNumber;
+        private Slice outputSmallest;
+        private Slice outputLargest;
+        private long outputMaxSeq;
+
+        private long entriesRead;
+        private long entriesDropped;
+
+        Subcompaction(Slice start, Slice end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return false if cancelled.
+         */
+        boolean run(List<TableCache.Handle> handles) throws IOException {
+            List<TableReader.TableIterator> iterators = new ArrayList<>();
+            List<VersionEdit.LevelFile> inputs = compaction.getInputs();
+            for (int i = 0; i < inputs.size(); i ++) {
+                if (overlaps(inputs.get(i).getFile())) {
+                    TableReader.TableIterator itr = handles.get(i).getReader().iterator();
+                    if (start != null) {
+                        // the first table key of the user key
+                        itr.seek(TableKeyComparator.encode(start, -1L));
+                    }
+                    iterators.add(itr);
+                }
+            }
+            try (MergingIterator merged = new MergingIterator(iterators, cmp)) {
+                return merge(merged);
+            }
+        }
+
+        private boolean overlaps(FileMetaData file) {
+            Comparator<Slice> userComparator = cmp.getUserComparator();
+            return (start == null || userComparator.compare(TableKeyComparator.userKey(file.getLargest()), start) >= 0)
+                    && (end == null || userComparator.compare(TableKeyComparator.userKey(file.getSmallest()), end) < 0);
+        }
+
+        private boolean merge(MergingIterator merged) throws IOException {
+            Comparator<Slice> userComparator = cmp.getUserComparator();
+            Slice currentUserKey = null;
+            int lastStripeForKey = -1;
+            while (merged.hasNext()) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
+                }
+                Entry<Slice, Slice> entry = merged.next();
+                Slice userKey = TableKeyComparator.userKey(entry.getKey());
+                if (end != null && userComparator.compare(userKey, end) >= 0) {
+                    break;
+                }
+                entriesRead ++;
+                long seqAndType = TableKeyComparator.seqAndType(entry.getKey());
+                long seq = seqAndType >>> 8;
+
+                if (currentUserKey == null || userComparator.compare(userKey, currentUserKey) != 0) {
+                    currentUserKey = userKey;
+                    lastStripeForKey = -1;
+                    if (builder != null && builder.getFileSize() >= options.getTargetFileSize()) {
+                        finishOutput();
+                    }
+                }
+
+                int stripe = stripeOf(seq);
+                boolean drop = false;
+                if (stripe == lastStripeForKey) {
+                    // shadowed by a newer entry which every reader seeing it sees
+                    drop = true;
+                }
+                else if (ValueType.DELETE.equals((byte) seqAndType) && stripe == 0
+                        && compaction.isBaseLevelForKey(userKey)) {
+                    drop = true;
+                }
+                lastStripeForKey = stripe;
+
+                if (drop) {
+                    entriesDropped ++;
+                }
+                else {
+                    add(entry, seq);
+                }
+            }
+            finishOutput();
+            return true;
+        }
+
+        private void add(Entry<Slice, Slice> entry, long seq) throws IOException {
+            if (builder == null) {
+                outputNumber = nextFileNumber.getAndIncrement();
+                builder = new TableBuilder(new BufferedWritableFile(new RateLimitedWritableFile(
+                        new DiskWritableFile(FileName.tableFileName(options.getDbPath(), outputNumber)),
+                        rateLimiter, RateLimiter.Priority.LOW)), cmp,
+                        options.getBlockSize(), options.getBlockRestartInterval(), filterPolicy);
+                outputSmallest = entry.getKey();
+                outputMaxSeq = 0;
+            }
+            builder.add(entry.getKey(), entry.getValue());
+            outputLargest = entry.getKey();
+            outputMaxSeq = Math.max(outputMaxSeq, seq);
+        }
+
+        private void finishOutput() throws IOException {
+            if (builder == null) {
+                return;
+            }
+            builder.setProperty(EmengdbImpt.MAX_SEQUENCE_PROPERTY, outputMaxSeq);
+            builder.setProperty(LEVEL_PROPERTY, compaction.getOutputLevel());
+            builder.setProperty(COMPACTION_INPUTS_PROPERTY, encodeInputs());
+            long fileSize = builder.finish();
+            builder = null;
+            outputs.add(new FileMetaData(outputNumber, fileSize, outputSmallest, outputLargest));
+        }
+
+        /**
+         * A failure is only logged, not to hide the one of the compaction,
+         * the files left are never referenced.
+         */
+        private void deleteOutputs() {
+            try {
+                if (builder != null) {
+                    builder.abandon();
+                    builder = null;
+                    Files.deleteIfExists(Paths.get(FileName.tableFileName(options.getDbPath(), outputNumber)));
+                }
+                for (FileMetaData output : outputs) {
+                    Files.deleteIfExists(Paths.get(FileName.tableFileName(options.getDbPath(), output.getNumber())));
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Fail to delete the outputs of the compaction: {}", e.toString());
+            }
+            outputs.clear();
+        }
+    }
+}
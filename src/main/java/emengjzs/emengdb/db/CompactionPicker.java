@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+/**
+ * Decide which files to compact next, the compactions picked are run one
+ * by one by the compaction thread, so pickCompaction is called by the
+ * compaction thread only, needsCompaction may be called by any thread.
+ */
+public abstract class CompactionPicker {
+
+    protected final Options options;
+
+    protected CompactionPicker(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * @return the compaction to run next, or null if the version needs none.
+     */
+    public abstract Compaction pickCompaction(Version version);
+
+    /**
+     * @return true if pickCompaction would pick one, without changing any state.
+     */
+    public abstract boolean needsCompaction(Version version);
+
+    /**
+     * @return about the bytes to be rewritten by the compactions before
+     * the version needs none, for the writes to be slowed down if the
+     * compactions fall behind.
+     */
+    public abstract long estimatePendingCompactionBytes(Version version);
+}
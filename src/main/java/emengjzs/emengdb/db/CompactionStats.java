@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bytes of the table files written by the flushes and the compactions,
+ * the logs are not counted.
+ */
+public class CompactionStats {
+
+    private final LongAdder flushBytes = new LongAdder();
+    private final LongAdder compactionBytesRead = new LongAdder();
+    private final LongAdder compactionBytesWritten = new LongAdder();
+    private final LongAdder compactionCount = new LongAdder();
+    private final LongAdder compactionEntriesDropped = new LongAdder();
+
+    void addFlush(long bytes) {
+        flushBytes.add(bytes);
+    }
+
+    void addCompaction(long bytesRead, long bytesWritten, long entriesDropped) {
+        compactionBytesRead.add(bytesRead);
+        compactionBytesWritten.add(bytesWritten);
+        compactionCount.increment();
+        compactionEntriesDropped.add(entriesDropped);
+    }
+
+    public long getFlushBytes() {
+        return flushBytes.sum();
+    }
+
+    public long getCompactionBytesRead() {
+        return compactionBytesRead.sum();
+    }
+
+    public long getCompactionBytesWritten() {
+        return compactionBytesWritten.sum();
+    }
+
+    public long getCompactionCount() {
+        return compactionCount.sum();
+    }
+
+    /**
+     * @return the entries the compactions drop, as they are shadowed by the
+     * newer ones of their keys, or are tombstones with nothing to hide.
+     */
+    public long getCompactionEntriesDropped() {
+        return compactionEntriesDropped.sum();
+    }
+
+    /**
+     * @return the bytes of the tables written for a byte flushed, 1 if
+     * nothing is compacted, 0 if nothing is flushed.
+     */
+    public double getWriteAmplification() {
+        long flushed = getFlushBytes();
+        return flushed == 0 ? 0 : (double) (flushed + getCompactionBytesWritten()) / flushed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompactionStats{flushBytes=%d, compactionBytesRead=%d, compactionBytesWritten=%d, "
+                        + "compactions=%d, entriesDropped=%d, writeAmplification=%.2f}", getFlushBytes(),
+                getCompactionBytesRead(), getCompactionBytesWritten(), getCompactionCount(),
+                getCompactionEntriesDropped(), getWriteAmplification());
+    }
+}
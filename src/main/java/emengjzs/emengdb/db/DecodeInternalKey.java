@@ -39,7 +39,7 @@ public class DecodeInternalKey implements InternalKey {
 
     @Override
     public ValueType getValueType() {
-        return ValueType.of( (int) (seqAndType | 0x000F));
+        return ValueType.of( (int) (seqAndType & 0xFF));
     }
 
     @Override
@@ -1,166 +1,1086 @@
-/*
- * Copyright (c) 2016. emengjzs. All rights reserved.
- */
-
-package emengjzs.emengdb.db;
-
-import com.google.common.base.Preconditions;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
-import emengjzs.emengdb.api.EmengDB;
-import emengjzs.emengdb.log.LogWriter;
-import emengjzs.emengdb.util.byt.Slice;
-import emengjzs.emengdb.util.io.MmapWriterableFile;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.IOException;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-/**
- * Created by emengjzs on 2016/12/25.
- */
-public class EmengdbImpt implements EmengDB {
-    // debug logger
-    private static Logger LOGGER = LoggerFactory.getLogger(EmengdbImpt.class);
-
-    private static int MAX_GROUP_SIZE = 1 << 20; // 2MB
-
-    private MemTable table;
-    private LogWriter logWriter;
-
-    private Queue<WriteTask> writersQueue;
-    private Lock writeTaskMutex;
-    private Condition readyForWriteTask;
-    private ByteArrayDataOutput tempGroupWriteBatch;
-
-    public EmengdbImpt() throws IOException {
-        table = new MemTable(new InternalKeyComparator());
-        writersQueue = new ConcurrentLinkedQueue<>();
-        writeTaskMutex = new ReentrantLock();
-        readyForWriteTask = writeTaskMutex.newCondition();
-        tempGroupWriteBatch = ByteStreams.newDataOutput();
-        logWriter = new LogWriter(new MmapWriterableFile("emengdb.log", 0));
-    }
-
-    @Override
-    public Slice get(Slice key) {
-        return table.get(new LookupKey(key, table.getSeqNum())).value;
-    }
-
-    @Override
-    public void put(Slice key, Slice value) {
-        put(key, ValueType.VALUE, value.toBytes());
-    }
-
-    @Override
-    public void del(Slice key) {
-        put(key, ValueType.DELETE, new byte[0]);
-    }
-
-
-    private void put(Slice key, ValueType type, byte[] value) {
-        long seqBase = table.getSeqNum(), seqNum = seqBase;
-
-        table.add(seqNum ++, type, key.toBytes(), value);
-
-        table.addSeqNum(seqNum - seqBase);
-    }
-
-    public OperationResult write(WriteBatch writeBatch) {
-        Preconditions.checkNotNull(writeBatch);
-        WriteTask writeTask = new WriteTask(writeBatch);
-        writersQueue.offer(writeTask);
-        try {
-            writeTaskMutex.lock();
-            // while the task is not done by others and not on the first
-            while ( (!writeTask.done) && writersQueue.peek() != writeTask) {
-                readyForWriteTask.await();
-            }
-            if (writeTask.done) {
-                return writeTask.result;
-            }
-            else {
-                Preconditions.checkArgument(writeTask == writersQueue.poll());
-                // Preconditions.checkArgument(tempGroupWriteBatch.getDataCount() == 0
-                //   , "tempGroupWriteBatch should be empty between each write!");
-                for (Iterator<WriteTask> itr = writersQueue.iterator();
-                     (! writeTask.isOverMaxSize()) && itr.hasNext(); ){
-                    WriteTask task = itr.next();
-                    // tempGroupWriteBatch.add(task.writeBatch);
-                }
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            LOGGER.error("Write Thread should not be interrupted!");
-            LOGGER.error("Data: " + writeTask.writeBatch.contents.toString());
-        } finally {
-            writeTaskMutex.unlock();
-        }
-
-        // temporally unlock the mutex
-        // doWrite(tempGroupWriteBatch);
-        return null;
-    }
-
-    private void appendWriteBatch(WriteBatch writeBatch) {
-
-    }
-
-
-    private void doWrite(WriteBatch writeBatch) {
-
-    }
-
-    /**
-     * Encode as:
-     * +----------+----------+---------------+------------+---------------+--------------+-----
-     * |   seq    |   count  |   key1.length | key1.value | value2.length | value2.value | ...
-     * +----------+----------+---------------+------------+---------------+--------------+-----
-     * |    8     |     4    |       4       | key1.length|       4       | value2.length|
-     * -----------------------------------------------------------------------------------
-     *
-     * @param writeBatch the contents to be encoded
-     * @return Slice byte array;
-     */
-    private Slice encodeWriteBatch(WriteBatch writeBatch) {
-        tempGroupWriteBatch.writeLong(table.getSeqNum());
-        tempGroupWriteBatch.writeInt(writeBatch.getDataCount());
-        writeBatch.contents.forEach(kv -> {
-            tempGroupWriteBatch.writeInt(kv.getKey().length);
-            tempGroupWriteBatch.write(kv.getKey());
-            tempGroupWriteBatch.writeInt(kv.getValue().length);
-            tempGroupWriteBatch.write(kv.getValue());
-        });
-        // return new Slice(tempGroupWriteBatch.toByteArray());
-        return null;
-    }
-
-    class WriteTask {
-
-
-
-        final WriteBatch writeBatch;
-        boolean done;
-        OperationResult result;
-        WriteTask(WriteBatch writeBatch) {
-            this.writeBatch = writeBatch;
-            this.done = false;
-        }
-
-        boolean isOverMaxSize() {
-            return writeBatch.getDataSize() > MAX_GROUP_SIZE || writeBatch.getDataSize() < 0;
-        }
-
-    }
-
-    class OperationResult {
-
-    }
-
-}
+/*
+ * Copyright (c) 2016. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import emengjzs.emengdb.api.EmengDB;
+import emengjzs.emengdb.api.ReadOptions;
+import emengjzs.emengdb.api.Snapshot;
+import emengjzs.emengdb.log.LogFileException;
+import emengjzs.emengdb.log.LogReader;
+import emengjzs.emengdb.log.LogWriter;
+import emengjzs.emengdb.log.MmapLogReader;
+import emengjzs.emengdb.log.ParallelLogReader;
+import emengjzs.emengdb.table.BlockCache;
+import emengjzs.emengdb.table.BloomFilterPolicy;
+import emengjzs.emengdb.table.FilterPolicy;
+import emengjzs.emengdb.table.LruBlockCache;
+import emengjzs.emengdb.table.OffHeapBlockCache;
+import emengjzs.emengdb.table.TableBuilder;
+import emengjzs.emengdb.table.TableFormatException;
+import emengjzs.emengdb.table.TableProperties;
+import emengjzs.emengdb.table.TableReader;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import emengjzs.emengdb.util.io.MmapWriterableFile;
+import emengjzs.emengdb.util.io.RateLimitedWritableFile;
+import emengjzs.emengdb.util.io.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by emengjzs on 2016/12/25.
+ */
+public class EmengdbImpt implements EmengDB {
+    // debug logger
+    private static Logger LOGGER = LoggerFactory.getLogger(EmengdbImpt.class);
+
+    private static int MAX_GROUP_SIZE = 1 << 20; // 1MB
+
+    private static final WriteOptions DEFAULT_WRITE_OPTIONS = new WriteOptions();
+    private static final ReadOptions DEFAULT_READ_OPTIONS = new ReadOptions();
+
+    // the table property of the largest sequence number in the table
+    static final String MAX_SEQUENCE_PROPERTY = "db.max.sequence";
+
+    private final Options options;
+
+    // written by the leader of a write group only, immutableTables is set
+    // before table when switching, and read after it, so a reader never misses
+    // the memtable switched out.
+    private volatile MemTable table;
+    // the full memtables waiting to be flushed, the newest first
+    private volatile List<MemTable> immutableTables = Collections.emptyList();
+    // the table files by level. A flushed table is added to level 0 before
+    // its memtable is removed from immutableTables, and readers read
+    // immutableTables first, so the data is never missed.
+    private final VersionSet versionSet;
+    // about the bytes the compactions have to rewrite for the current version
+    private volatile long pendingCompactionBytes;
+    // guard the updates of immutableTables and pendingCompactionBytes
+    private final Lock memTableLock = new ReentrantLock();
+    // signalled when a flush or a compaction is installed, for the writes stopped
+    private final Condition backgroundWorkDone = memTableLock.newCondition();
+    private final TableKeyComparator tableKeyComparator = new TableKeyComparator(Slice::compareTo);
+    // null if the tables have no filter
+    private final FilterPolicy filterPolicy;
+    // null if the blocks are not cached
+    private final BlockCache blockCache;
+    private final TableCache tableCache;
+    private final CompactionPicker compactionPicker;
+    private final CompactionStats compactionStats = new CompactionStats();
+    // paces the table files written, the flushes go before the compactions
+    private final RateLimiter rateLimiter;
+    private final WriteController writeController;
+    private final SequenceNumber sequence = new SequenceNumber();
+    private final SnapshotList snapshots = new SnapshotList(sequence);
+    private volatile LogWriter logWriter;
+    private final AtomicLong nextFileNumber = new AtomicLong(1);
+
+    // flushes the immutable memtables one by one
+    private final ExecutorService flushExecutor;
+    // runs the compactions one by one
+    private final ExecutorService compactionExecutor;
+    // runs the subcompactions of a compaction, null if a compaction is not split
+    private final ExecutorService subcompactionExecutor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // for Options.SyncPolicy.INTERVAL
+    private ScheduledExecutorService logSyncService;
+    private volatile boolean logDirty;
+    // the syncs of the log for the writes, by the writes or the interval syncer
+    private final AtomicLong logSyncs = new AtomicLong();
+
+    private Queue<WriteTask> writersQueue;
+    private Lock writeTaskMutex;
+    private Condition readyForWriteTask;
+    private WriteBatch tempGroupWriteBatch;
+    private WriteBatchCoder writeBatchCoder;
+
+    public EmengdbImpt() throws IOException {
+        this(new Options());
+    }
+
+    public EmengdbImpt(Options options) throws IOException {
+        this.options = options;
+        filterPolicy = options.getFilterBitsPerKey() > 0 ?
+                new InternalFilterPolicy(new BloomFilterPolicy(options.getFilterBitsPerKey())) : null;
+        if (options.getBlockCacheSize() <= 0) {
+            blockCache = null;
+        }
+        else if (options.isOffHeapBlockCache()) {
+            blockCache = new OffHeapBlockCache(options.getBlockCacheSize());
+        }
+        else {
+            blockCache = new LruBlockCache(options.getBlockCacheSize());
+        }
+        tableCache = new TableCache(options.getDbPath(), options.getMaxOpenFiles(),
+                tableKeyComparator, filterPolicy, blockCache);
+        compactionPicker = options.getCompactionStyle() == Options.CompactionStyle.UNIVERSAL ?
+                new UniversalCompactionPicker(options) : new LeveledCompactionPicker(options, tableKeyComparator);
+        versionSet = new VersionSet(options.getDbPath(), tableKeyComparator, nextFileNumber, sequence);
+        rateLimiter = new RateLimiter(options.getRateLimitBytesPerSecond());
+        writeController = new WriteController(options);
+        writersQueue = new ConcurrentLinkedQueue<>();
+        writeTaskMutex = new ReentrantLock();
+        readyForWriteTask = writeTaskMutex.newCondition();
+        tempGroupWriteBatch = new WriteBatch();
+        writeBatchCoder = new WriteBatchCoder();
+        flushExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("emengdb-flush").setDaemon(true).build());
+        compactionExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("emengdb-compaction").setDaemon(true).build());
+        // the compaction thread runs a subcompaction itself
+        subcompactionExecutor = options.getMaxSubcompactions() <= 1 ? null : Executors.newFixedThreadPool(
+                options.getMaxSubcompactions() - 1,
+                new ThreadFactoryBuilder().setNameFormat("emengdb-subcompaction-%d").setDaemon(true).build());
+        recover();
+        if (! immutableTables.isEmpty()) {
+            flushExecutor.execute(this::flushImmutableTables);
+        }
+        maybeScheduleCompaction();
+
+        if (options.getSyncPolicy() == Options.SyncPolicy.INTERVAL) {
+            logSyncService = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("emengdb-log-sync").setDaemon(true).build());
+            logSyncService.scheduleWithFixedDelay(this::syncLogIfDirty,
+                    options.getSyncIntervalMillis(), options.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private MemTable newMemTable(long logNumber) {
+        MemTable memTable = options.isArenaMemTable() ?
+                new ArenaMemTable(new InternalKeyComparator()) : new SkipListMemTable(new InternalKeyComparator());
+        memTable.setMemorySizeThreshold(new AtomicIntegerThresholdMarker(options.getMemTableSize()));
+        memTable.setLogNumber(logNumber);
+        return memTable;
+    }
+
+    /**
+     * Replay the MANIFEST for the table files, no table file is opened,
+     * then replay the logs not flushed in the order of their numbers, each
+     * into a memtable of its own. The memtables of the old logs become
+     * immutable, and the writes go on appending the last log. At last a new
+     * MANIFEST is started with the version recovered.
+     *
+     * The table files not in the MANIFEST are left by a flush or a
+     * compaction not finished, and deleted.
+     */
+    private void recover() throws IOException {
+        File dbDir = new File(options.getDbPath());
+        if (! dbDir.isDirectory() && ! dbDir.mkdirs()) {
+            throw new IOException("Fail to create the db directory " + dbDir);
+        }
+        if (! versionSet.recover()) {
+            recoverTablesByScan();
+        }
+        for (long number : FileName.listNumbers(options.getDbPath(), FileName.TABLE_SUFFIX)) {
+            versionSet.markFileNumberUsed(number);
+            if (! versionSet.isLive(number)) {
+                LOGGER.warn("Delete the table {} not in the MANIFEST", number);
+                Files.deleteIfExists(Paths.get(FileName.tableFileName(options.getDbPath(), number)));
+            }
+        }
+        long flushedLogNumber = versionSet.getLogNumber();
+        long logEndOffset = 0;
+        for (long number : FileName.listNumbers(options.getDbPath(), FileName.LOG_SUFFIX)) {
+            versionSet.markFileNumberUsed(number);
+            if (number < flushedLogNumber) {
+                // flushed, but not deleted before a crash
+                Files.deleteIfExists(Paths.get(FileName.logFileName(options.getDbPath(), number)));
+                continue;
+            }
+            if (table != null && ! table.isEmpty()) {
+                addImmutableTable(table);
+            }
+            table = newMemTable(number);
+            logEndOffset = recoverLog(FileName.logFileName(options.getDbPath(), number));
+        }
+        if (table == null) {
+            table = newMemTable(nextFileNumber.getAndIncrement());
+        }
+        String logFileName = FileName.logFileName(options.getDbPath(), table.getLogNumber());
+        logWriter = new LogWriter(new MmapWriterableFile(logFileName, logEndOffset), logEndOffset);
+
+        List<MemTable> tables = immutableTables;
+        versionSet.createManifest(tables.isEmpty() ?
+                table.getLogNumber() : tables.get(tables.size() - 1).getLogNumber());
+        updatePendingCompactionBytes();
+    }
+
+    /**
+     * For a db written before the MANIFEST, open all the table files to
+     * find out the version, then the version is kept in the MANIFEST.
+     *
+     * A table without a valid footer is one not finished by a flush or a
+     * compaction, which is deleted, the log of the flush is still there,
+     * and the inputs of the compaction too.
+     *
+     * The level, the range of the keys and the largest sequence number of a
+     * table are read from its properties, as the logs of them are gone.
+     *
+     * A compaction deletes its inputs only after all its outputs are
+     * written, so if a crash leaves both the inputs and the outputs, the
+     * outputs are deleted if all the inputs are there, the compaction is
+     * run again later, otherwise the inputs left are deleted.
+     */
+    private void recoverTablesByScan() throws IOException {
+        Map<Long, RecoveredTable> tables = new TreeMap<>();
+        for (long number : FileName.listNumbers(options.getDbPath(), FileName.TABLE_SUFFIX)) {
+            versionSet.markFileNumberUsed(number);
+            String fileName = FileName.tableFileName(options.getDbPath(), number);
+            TableCache.Handle handle;
+            try {
+                handle = tableCache.get(number);
+            } catch (TableFormatException e) {
+                LOGGER.warn("Delete the unfinished table {}: {}", fileName, e.getMessage());
+                Files.deleteIfExists(Paths.get(fileName));
+                continue;
+            }
+            try {
+                TableReader reader = handle.getReader();
+                TableProperties properties = reader.getProperties();
+                tables.put(number, new RecoveredTable(
+                        new FileMetaData(number, reader.getFileSize(),
+                                properties.getSmallestKey(), properties.getLargestKey()),
+                        (int) properties.getLong(CompactionJob.LEVEL_PROPERTY),
+                        properties.getLong(MAX_SEQUENCE_PROPERTY),
+                        CompactionJob.decodeInputs(properties.get(CompactionJob.COMPACTION_INPUTS_PROPERTY))));
+            } finally {
+                handle.release();
+            }
+        }
+
+        Set<Long> obsolete = new TreeSet<>();
+        for (RecoveredTable table : tables.values()) {
+            if (! table.compactionInputs.isEmpty()) {
+                if (tables.keySet().containsAll(table.compactionInputs)) {
+                    obsolete.add(table.file.getNumber());
+                }
+                else {
+                    obsolete.addAll(table.compactionInputs);
+                }
+            }
+        }
+        VersionEdit edit = new VersionEdit();
+        for (RecoveredTable table : tables.values()) {
+            long number = table.file.getNumber();
+            if (obsolete.contains(number)) {
+                LOGGER.warn("Delete the table {} left by an unfinished compaction", number);
+                tableCache.evict(number);
+                Files.deleteIfExists(Paths.get(FileName.tableFileName(options.getDbPath(), number)));
+            }
+            else {
+                sequence.advanceTo(table.maxSequence);
+                edit.addFile(table.level, table.file);
+            }
+        }
+        if (! edit.isEmpty()) {
+            Version version = versionSet.logAndApply(edit);
+            LOGGER.info("Recover {} table files without a MANIFEST: {}", edit.getNewFiles().size(), version);
+        }
+    }
+
+    /**
+     * Replay the write batches in the log into the memtable.
+     * The replay stops at the first broken data, the rest of the log
+     * is regarded as a torn tail and will be overwritten by the new writes.
+     *
+     * @return the offset to continue appending the log
+     */
+    private long recoverLog(String fileName) throws IOException {
+        if (! new File(fileName).exists()) {
+            return 0;
+        }
+        if (options.getRecoveryThreads() > 1
+                && new File(fileName).length() >= 2 * ParallelLogReader.MIN_SEGMENT_SIZE) {
+            return recoverLogInParallel(fileName);
+        }
+        int count = 0;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             LogReader reader = options.isMmapLogRead() ?
+                     new MmapLogReader(file, 0) : new LogReader(file, 0)) {
+            try {
+                Slice data;
+                while ((data = reader.readNextData()) != null) {
+                    replayWriteBatch(writeBatchCoder.decode(data));
+                    count ++;
+                }
+            } catch (LogFileException | IllegalArgumentException e) {
+                LOGGER.warn("Broken data in log {} after offset {}, drop the tail: {}",
+                        fileName, reader.getLastDataEndOffset(), e.toString());
+            }
+            LOGGER.info("Recover {} write batches from log {}", count, fileName);
+            return reader.getLastDataEndOffset();
+        }
+    }
+
+    /**
+     * Same as the sequential one, but the log is read and decoded by several
+     * threads, the write batches are still applied in the order of the log.
+     */
+    private long recoverLogInParallel(String fileName) throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            ParallelLogReader reader = new ParallelLogReader(
+                    file, options.getRecoveryThreads(), options.isMmapLogRead());
+            try {
+                // the coder holds no state, safe to be shared by the workers
+                reader.replay(writeBatchCoder::decode, writeBatch -> {
+                    replayWriteBatch(writeBatch);
+                    count.incrementAndGet();
+                });
+            } catch (LogFileException | IllegalArgumentException e) {
+                LOGGER.warn("Broken data in log {} after offset {}, drop the tail: {}",
+                        fileName, reader.getLastDataEndOffset(), e.toString());
+            }
+            LOGGER.info("Recover {} write batches from log {} with {} threads",
+                    count.get(), fileName, options.getRecoveryThreads());
+            return reader.getLastDataEndOffset();
+        }
+    }
+
+    private void replayWriteBatch(WriteBatch writeBatch) {
+        appendWriteBatch(writeBatch);
+        sequence.advanceTo(writeBatch.seq + writeBatch.getDataCount() - 1);
+    }
+
+    @Override
+    public Slice get(Slice key) {
+        return get(DEFAULT_READ_OPTIONS, key);
+    }
+
+    /**
+     * Look up the active memtable, then the immutable ones from the newest,
+     * then the table files level by level, the first one having the key answers.
+     * The entries newer than the snapshot of the options are skipped, or the
+     * ones not visible yet if no snapshot is set. A read without a snapshot
+     * holds one of its own for the lookup, or a compaction finishing meanwhile
+     * could drop the version it sees for a newer one it does not.
+     *
+     * @throws UncheckedIOException if fail to read a table file.
+     */
+    @Override
+    public Slice get(ReadOptions readOptions, Slice key) {
+        Snapshot snapshot = readOptions.getSnapshot();
+        if (snapshot != null) {
+            return get(new LookupKey(key, snapshot.getSequence()));
+        }
+        snapshot = snapshots.acquire();
+        try {
+            return get(new LookupKey(key, snapshot.getSequence()));
+        } finally {
+            snapshots.release(snapshot);
+        }
+    }
+
+    private Slice get(LookupKey lookupKey) {
+        MemTableGetResult result = table.get(lookupKey);
+        if (result.status != MemTableGetResult.NOT_FOUND) {
+            return result.value;
+        }
+        for (MemTable immutableTable : immutableTables) {
+            result = immutableTable.get(lookupKey);
+            if (result.status != MemTableGetResult.NOT_FOUND) {
+                return result.value;
+            }
+        }
+        // the files of the version are kept until it is released
+        Version current = versionSet.pin();
+        try {
+            return current.get(lookupKey, tableCache).value;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fail to read the tables", e);
+        } finally {
+            current.unref();
+        }
+    }
+
+    /**
+     * The versions the snapshot sees are kept by the compactions until it
+     * is released, no write is blocked or copied for it.
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        return snapshots.acquire();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the snapshot is not taken from
+     * the db, or is released already.
+     */
+    @Override
+    public void releaseSnapshot(Snapshot snapshot) {
+        snapshots.release(snapshot);
+    }
+
+    @Override
+    public void put(Slice key, Slice value) {
+        put(key, ValueType.VALUE, value.toBytes());
+    }
+
+    @Override
+    public void del(Slice key) {
+        put(key, ValueType.DELETE, new byte[0]);
+    }
+
+
+    private void put(Slice key, ValueType type, byte[] value) {
+        WriteBatch writeBatch = new WriteBatch();
+        writeBatch.add(type, key.toBytes(), value);
+        OperationResult result = write(writeBatch);
+        if (! result.isSuccess()) {
+            throw new RuntimeException(result.getError());
+        }
+    }
+
+    public OperationResult write(WriteBatch writeBatch) {
+        return write(DEFAULT_WRITE_OPTIONS, writeBatch);
+    }
+
+    public OperationResult write(WriteOptions writeOptions, WriteBatch writeBatch) {
+        Preconditions.checkNotNull(writeBatch);
+        WriteTask writeTask = new WriteTask(writeBatch, writeOptions.isSync(options.getSyncPolicy()));
+        writeTaskMutex.lock();
+        try {
+            writersQueue.offer(writeTask);
+            // while the task is not done by others and not on the first
+            while ( (!writeTask.done) && writersQueue.peek() != writeTask) {
+                readyForWriteTask.awaitUninterruptibly();
+            }
+            if (writeTask.done) {
+                return writeTask.result;
+            }
+
+            // the task is the leader now, it stays on the head of the queue
+            // until the whole group is written so that no other leader comes up.
+            WriteTask lastTask = buildWriteGroup(writeTask);
+            WriteBatch groupWriteBatch = lastTask == writeTask ? writeBatch : tempGroupWriteBatch;
+            boolean sync = isGroupSync(writersQueue, lastTask);
+
+            // temporally unlock the mutex, followers only queue up during the write
+            OperationResult result;
+            writeTaskMutex.unlock();
+            try {
+                result = doWrite(groupWriteBatch, sync);
+            } finally {
+                writeTaskMutex.lock();
+            }
+            tempGroupWriteBatch.clear();
+
+            // hand the result to every task of the group and wake them up,
+            // the head of the queue after the group becomes the next leader.
+            WriteTask task;
+            do {
+                task = writersQueue.poll();
+                task.result = result;
+                task.done = true;
+            } while (task != lastTask);
+            readyForWriteTask.signalAll();
+            return result;
+        } finally {
+            writeTaskMutex.unlock();
+        }
+    }
+
+    /**
+     * Merge the batches of the group led by the leader into
+     * tempGroupWriteBatch if there are more than one.
+     * Need to hold the writeTaskMutex.
+     *
+     * @param leader the task on the head of the queue
+     * @return the last task in the group
+     */
+    private WriteTask buildWriteGroup(WriteTask leader) {
+        Preconditions.checkArgument(tempGroupWriteBatch.getDataCount() == 0
+                , "tempGroupWriteBatch should be empty between each write!");
+        WriteTask lastTask = lastOfWriteGroup(writersQueue, options.getSyncPolicy());
+        if (lastTask != leader) {
+            for (WriteTask task : writersQueue) {
+                tempGroupWriteBatch.add(task.writeBatch);
+                if (task == lastTask) {
+                    break;
+                }
+            }
+        }
+        return lastTask;
+    }
+
+    /**
+     * Pick the waiting tasks behind the head of the queue into its group,
+     * the group size is limited by MAX_GROUP_SIZE. Under EVERY_WRITE, a
+     * batch to be synced is written alone, the batches overriding it not
+     * to sync are still grouped.
+     *
+     * @return the last task in the group
+     */
+    static WriteTask lastOfWriteGroup(Queue<WriteTask> queue, Options.SyncPolicy policy) {
+        boolean syncAlone = policy == Options.SyncPolicy.EVERY_WRITE;
+        Iterator<WriteTask> itr = queue.iterator();
+        WriteTask lastTask = itr.next();
+        if (syncAlone && lastTask.sync) {
+            return lastTask;
+        }
+        int groupSize = lastTask.writeBatch.getDataSize();
+        while (itr.hasNext()) {
+            WriteTask task = itr.next();
+            groupSize += task.writeBatch.getDataSize();
+            if ((syncAlone && task.sync) || groupSize > MAX_GROUP_SIZE || groupSize < 0) {
+                break;
+            }
+            lastTask = task;
+        }
+        return lastTask;
+    }
+
+    /**
+     * The group is synced if any task of the group needs.
+     * Need to hold the writeTaskMutex.
+     */
+    static boolean isGroupSync(Queue<WriteTask> queue, WriteTask lastTask) {
+        for (WriteTask task : queue) {
+            if (task.sync) {
+                return true;
+            }
+            if (task == lastTask) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void appendWriteBatch(WriteBatch writeBatch) {
+        long seqNum = writeBatch.seq;
+        for (Iterator<WriteBatch.Record> itr = writeBatch.iterator(); itr.hasNext(); ) {
+            WriteBatch.Record record = itr.next();
+            table.add(seqNum ++, record.type, record.getKey(), record.getValue());
+        }
+    }
+
+
+    /**
+     * One log record for the whole group, then the records are applied to
+     * the memtable. The sequence numbers of the group become visible to the
+     * readers only after all the records are in the memtable.
+     */
+    private OperationResult doWrite(WriteBatch writeBatch, boolean sync) {
+        try {
+            makeRoomForWrite(writeBatch.getDataSize());
+        } catch (IOException e) {
+            return new OperationResult(e);
+        }
+        if (table.isFull()) {
+            try {
+                switchMemTable();
+            } catch (IOException e) {
+                LOGGER.error("Fail to switch to a new log: " + e.getMessage());
+                return new OperationResult(e);
+            }
+        }
+        int count = writeBatch.getDataCount();
+        writeBatch.seq = sequence.allocate(count);
+        try {
+            logWriter.addData(writeBatchCoder.encode(writeBatch));
+            if (sync) {
+                logWriter.sync();
+                logSyncs.incrementAndGet();
+            }
+            else {
+                logDirty = true;
+            }
+            appendWriteBatch(writeBatch);
+        } catch (IOException e) {
+            LOGGER.error("Fail to write the log: " + e.getMessage());
+            return new OperationResult(e);
+        } finally {
+            // an unused range is published too, not to block the later ones
+            sequence.publish(writeBatch.seq, count);
+        }
+        return OperationResult.SUCCESS;
+    }
+
+    /**
+     * Delay the write once if the flushes or the compactions fall behind,
+     * or wait until they catch up if they are too far behind, see
+     * WriteController. Only the leader of a write group comes here, so the
+     * rest of the group waits with it.
+     */
+    private void makeRoomForWrite(int bytes) throws IOException {
+        boolean delayed = false;
+        long stopStart = 0;
+        try {
+            while (true) {
+                double pressure = writePressure();
+                if (pressure <= 0 || (pressure < 1 && delayed)) {
+                    return;
+                }
+                if (pressure < 1) {
+                    long nanos = writeController.getDelayNanos(bytes, pressure);
+                    Uninterruptibles.sleepUninterruptibly(nanos, TimeUnit.NANOSECONDS);
+                    writeController.addDelay(nanos);
+                    delayed = true;
+                    continue;
+                }
+                if (stopStart == 0) {
+                    stopStart = System.nanoTime();
+                    LOGGER.warn("Stop the writes, {} immutable memtables, {} files in level 0, {} bytes to compact",
+                            immutableTables.size(), versionSet.getCurrent().getFileCount(0), pendingCompactionBytes);
+                }
+                boolean timeout = false;
+                memTableLock.lock();
+                try {
+                    if (closed) {
+                        throw new IOException("The db is closed.");
+                    }
+                    if (writePressure() >= 1) {
+                        timeout = ! backgroundWorkDone.await(1, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while the writes are stopped.");
+                } finally {
+                    memTableLock.unlock();
+                }
+                if (timeout && ! closed) {
+                    // a failed flush or compaction is not tried again by itself
+                    flushExecutor.execute(this::flushImmutableTables);
+                    maybeScheduleCompaction();
+                }
+            }
+        } finally {
+            if (stopStart != 0) {
+                writeController.addStop(System.nanoTime() - stopStart);
+            }
+        }
+    }
+
+    private double writePressure() {
+        int waitingMemTables = immutableTables.size() + (table.isFull() ? 1 : 0);
+        return writeController.getPressure(waitingMemTables, versionSet.getCurrent().getFileCount(0),
+                pendingCompactionBytes);
+    }
+
+    /**
+     * Switch to a new memtable and a new log, the full memtable becomes
+     * immutable and stays readable until it is flushed.
+     * Only the leader of a write group comes here.
+     */
+    private void switchMemTable() throws IOException {
+        long number = nextFileNumber.getAndIncrement();
+        LogWriter oldLogWriter = logWriter;
+        logWriter = new LogWriter(new MmapWriterableFile(FileName.logFileName(options.getDbPath(), number), 0));
+        if (options.getSyncPolicy() != Options.SyncPolicy.NONE) {
+            oldLogWriter.sync();
+        }
+        oldLogWriter.close();
+
+        addImmutableTable(table);
+        table = newMemTable(number);
+        LOGGER.info("Switch to a new memtable with log {}, {} immutable memtables",
+                number, immutableTables.size());
+        flushExecutor.execute(this::flushImmutableTables);
+    }
+
+    private void addImmutableTable(MemTable memTable) {
+        memTableLock.lock();
+        try {
+            List<MemTable> tables = new ArrayList<>(immutableTables.size() + 1);
+            tables.add(memTable);
+            tables.addAll(immutableTables);
+            immutableTables = Collections.unmodifiableList(tables);
+        } finally {
+            memTableLock.unlock();
+        }
+    }
+
+    /**
+     * Flush the immutable memtables from the oldest into table files, run by
+     * the flush thread only. A memtable failing to be flushed stays immutable
+     * and readable, and its log is kept, it is tried again on the next switch.
+     */
+    private void flushImmutableTables() {
+        while (! closed) {
+            List<MemTable> tables = immutableTables;
+            if (tables.isEmpty()) {
+                return;
+            }
+            MemTable memTable = tables.get(tables.size() - 1);
+            try {
+                FileMetaData file = writeLevel0Table(memTable);
+                installFlushResult(memTable, file);
+                Files.deleteIfExists(Paths.get(FileName.logFileName(options.getDbPath(), memTable.getLogNumber())));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Fail to flush the memtable of log {}: {}", memTable.getLogNumber(), e.toString());
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the table file written, or null if the memtable has nothing.
+     */
+    private FileMetaData writeLevel0Table(MemTable memTable) throws IOException {
+        long number = nextFileNumber.getAndIncrement();
+        String fileName = FileName.tableFileName(options.getDbPath(), number);
+        TableBuilder builder = new TableBuilder(
+                new BufferedWritableFile(new RateLimitedWritableFile(new DiskWritableFile(fileName),
+                        rateLimiter, RateLimiter.Priority.HIGH)), tableKeyComparator,
+                options.getBlockSize(), options.getBlockRestartInterval(), filterPolicy);
+        Slice smallest = null;
+        Slice largest = null;
+        long maxSeq = 0;
+        long fileSize;
+        try {
+            for (ListIterator<Entry<InternalKey, Slice>> itr = memTable.getIterator(); itr.hasNext(); ) {
+                Entry<InternalKey, Slice> entry = itr.next();
+                Slice key = TableKeyComparator.encode(entry.getKey().getUserKey(), entry.getKey().getSeqFlag());
+                if (smallest == null) {
+                    smallest = key;
+                }
+                largest = key;
+                maxSeq = Math.max(maxSeq, entry.getKey().getSeq());
+                builder.add(key, entry.getValue());
+            }
+            if (smallest == null) {
+                builder.abandon();
+                Files.deleteIfExists(Paths.get(fileName));
+                return null;
+            }
+            builder.setProperty(MAX_SEQUENCE_PROPERTY, maxSeq);
+            fileSize = builder.finish();
+        } catch (IOException | RuntimeException e) {
+            builder.abandon();
+            Files.deleteIfExists(Paths.get(fileName));
+            throw e;
+        }
+        // make sure the table is readable before its log is gone
+        tableCache.get(number).release();
+        LOGGER.info("Flush {} entries of log {} to table {}, {} bytes",
+                builder.getEntryCount(), memTable.getLogNumber(), number, fileSize);
+        compactionStats.addFlush(fileSize);
+        return new FileMetaData(number, fileSize, smallest, largest);
+    }
+
+    /**
+     * Record the table and the logs flushed in the MANIFEST, then remove
+     * the memtable from immutableTables.
+     */
+    private void installFlushResult(MemTable memTable, FileMetaData file) throws IOException {
+        VersionEdit edit = new VersionEdit();
+        if (file != null) {
+            edit.addFile(0, file);
+        }
+        edit.setLogNumber(oldestLogNumberExcept(memTable));
+        versionSet.logAndApply(edit);
+        memTableLock.lock();
+        try {
+            List<MemTable> tables = new ArrayList<>(immutableTables);
+            tables.remove(memTable);
+            immutableTables = Collections.unmodifiableList(tables);
+            updatePendingCompactionBytes();
+            backgroundWorkDone.signalAll();
+        } finally {
+            memTableLock.unlock();
+        }
+        // the ones released by the readers meanwhile
+        deleteObsoleteFiles();
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * @return the number of the oldest log of the memtables but the one.
+     */
+    private long oldestLogNumberExcept(MemTable flushed) {
+        // table first, a memtable switched out is in immutableTables before table changes
+        long oldest = table.getLogNumber();
+        for (MemTable memTable : immutableTables) {
+            if (memTable != flushed) {
+                oldest = Math.min(oldest, memTable.getLogNumber());
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Need to hold the memTableLock, so a newer version is not overwritten
+     * by an older one.
+     */
+    private void updatePendingCompactionBytes() {
+        pendingCompactionBytes = compactionPicker.estimatePendingCompactionBytes(versionSet.getCurrent());
+    }
+
+    /**
+     * Delete the table files no live version has, a version pinned by a
+     * reader or a compaction keeps its files.
+     */
+    private void deleteObsoleteFiles() {
+        Long number;
+        while ((number = versionSet.pollObsoleteFile()) != null) {
+            tableCache.evict(number);
+            try {
+                Files.deleteIfExists(Paths.get(FileName.tableFileName(options.getDbPath(), number)));
+            } catch (IOException e) {
+                LOGGER.warn("Fail to delete the obsolete table {}: {}", number, e.toString());
+            }
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (! closed && compactionPicker.needsCompaction(versionSet.getCurrent())
+                && compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.execute(this::backgroundCompaction);
+        }
+    }
+
+    /**
+     * Run the compactions picked until no one is needed, run by the
+     * compaction thread only. A failed compaction leaves its inputs as they
+     * are, and is tried again on the next flush. The version a compaction
+     * is picked from is pinned until it is done.
+     */
+    private void backgroundCompaction() {
+        try {
+            while (! closed) {
+                Version base = versionSet.pin();
+                try {
+                    Compaction compaction = compactionPicker.pickCompaction(base);
+                    if (compaction == null) {
+                        break;
+                    }
+                    CompactionJob job = new CompactionJob(compaction, snapshots.getSequences(),
+                            options, tableCache, tableKeyComparator, filterPolicy, nextFileNumber,
+                            subcompactionExecutor, rateLimiter, () -> closed);
+                    List<FileMetaData> outputs = job.run();
+                    if (outputs == null) {
+                        return;
+                    }
+                    installCompactionResult(compaction, outputs);
+                    long bytesWritten = 0;
+                    for (FileMetaData output : outputs) {
+                        bytesWritten += output.getFileSize();
+                    }
+                    compactionStats.addCompaction(compaction.getInputBytes(), bytesWritten, job.getEntriesDropped());
+                } finally {
+                    base.unref();
+                }
+                deleteObsoleteFiles();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Fail to compact: {}", e.toString());
+            return;
+        } finally {
+            compactionScheduled.set(false);
+        }
+        // a flush may come after the last pick and before the flag is cleared
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Record the edit of the compaction in the MANIFEST and install it. Only
+     * the compaction thread removes files, and a flush only adds files of
+     * level 0 newer than the inputs, so the inputs are still in the current
+     * version. The inputs are deleted once the versions having them are
+     * released.
+     */
+    private void installCompactionResult(Compaction compaction, List<FileMetaData> outputs) throws IOException {
+        Version installed = versionSet.logAndApply(compaction.toEdit(outputs));
+        memTableLock.lock();
+        try {
+            updatePendingCompactionBytes();
+            backgroundWorkDone.signalAll();
+        } finally {
+            memTableLock.unlock();
+        }
+        LOGGER.info("Install {}: {}", compaction, installed);
+    }
+
+    private void syncLogIfDirty() {
+        if (logDirty) {
+            logDirty = false;
+            try {
+                logWriter.sync();
+                logSyncs.incrementAndGet();
+            } catch (IOException e) {
+                logDirty = true;
+                LOGGER.error("Fail to sync the log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the cache of the data blocks, null if there is no cache.
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * @return the limiter of the table files written, whose rate can be
+     * changed while the db is open.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the counts and the time of the writes delayed or stopped.
+     */
+    public WriteController getWriteController() {
+        return writeController;
+    }
+
+    /**
+     * @return the times the log is synced for the writes.
+     */
+    public long getLogSyncCount() {
+        return logSyncs.get();
+    }
+
+    public CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    /**
+     * @return the table files by level.
+     */
+    public Version getVersion() {
+        return versionSet.getCurrent();
+    }
+
+    /**
+     * The flush running is waited for, the memtables not flushed are
+     * recovered from their logs on the next open. The compaction running
+     * is given up.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // not to wait for the writes paced
+        rateLimiter.setBytesPerSecond(0);
+        memTableLock.lock();
+        try {
+            // the writes stopped give up
+            backgroundWorkDone.signalAll();
+        } finally {
+            memTableLock.unlock();
+        }
+        flushExecutor.shutdown();
+        compactionExecutor.shutdown();
+        try {
+            while (! flushExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOGGER.info("Wait for the flush to finish");
+            }
+            while (! compactionExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOGGER.info("Wait for the compaction to stop");
+            }
+            if (subcompactionExecutor != null) {
+                // no subcompaction is left once the compaction thread stops
+                subcompactionExecutor.shutdown();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deleteObsoleteFiles();
+        versionSet.close();
+        tableCache.close();
+        if (logSyncService != null) {
+            logSyncService.shutdown();
+            try {
+                logSyncService.awaitTermination(options.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (options.getSyncPolicy() != Options.SyncPolicy.NONE) {
+            logWriter.sync();
+        }
+        logWriter.close();
+    }
+
+    private static class RecoveredTable {
+        final FileMetaData file;
+        final int level;
+        final long maxSequence;
+        final List<Long> compactionInputs;
+
+        RecoveredTable(FileMetaData file, int level, long maxSequence, List<Long> compactionInputs) {
+            this.file = file;
+            this.level = level;
+            this.maxSequence = maxSequence;
+            this.compactionInputs = compactionInputs;
+        }
+    }
+
+    static class WriteTask {
+
+
+
+        final WriteBatch writeBatch;
+        final boolean sync;
+        boolean done;
+        OperationResult result;
+        WriteTask(WriteBatch writeBatch, boolean sync) {
+            this.writeBatch = writeBatch;
+            this.sync = sync;
+            this.done = false;
+        }
+
+    }
+
+    public static class OperationResult {
+
+        static final OperationResult SUCCESS = new OperationResult(null);
+
+        private final Throwable error;
+
+        OperationResult(Throwable error) {
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+}
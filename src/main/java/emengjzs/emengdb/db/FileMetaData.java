@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+/**
+ * A table file of the db, the smallest and the largest are table keys.
+ */
+public class FileMetaData {
+
+    private final long number;
+    private final long fileSize;
+    private final Slice smallest;
+    private final Slice largest;
+
+    public FileMetaData(long number, long fileSize, Slice smallest, Slice largest) {
+        this.number = number;
+        this.fileSize = fileSize;
+        this.smallest = smallest;
+        this.largest = largest;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public Slice getSmallest() {
+        return smallest;
+    }
+
+    public Slice getLargest() {
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetaData{number=" + number + ", fileSize=" + fileSize + '}';
+    }
+}
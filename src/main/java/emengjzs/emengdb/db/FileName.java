@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The names of the files in the db directory, a file is named by a number
+ * and a suffix, e.g. 000012.log, but a MANIFEST by a prefix and a number,
+ * e.g. MANIFEST-000005, and the file CURRENT has the name of the MANIFEST
+ * in use. The numbers are never reused.
+ */
+public class FileName {
+
+    static final String LOG_SUFFIX = ".log";
+
+    static final String TABLE_SUFFIX = ".sst";
+
+    static final String TEMP_SUFFIX = ".dbtmp";
+
+    static final String MANIFEST_PREFIX = "MANIFEST-";
+
+    static final String CURRENT = "CURRENT";
+
+    public static String logFileName(String dbPath, long number) {
+        return fileName(dbPath, number, LOG_SUFFIX);
+    }
+
+    public static String tableFileName(String dbPath, long number) {
+        return fileName(dbPath, number, TABLE_SUFFIX);
+    }
+
+    public static String manifestFileName(String dbPath, long number) {
+        return new File(dbPath, manifestName(number)).getPath();
+    }
+
+    public static String currentFileName(String dbPath) {
+        return new File(dbPath, CURRENT).getPath();
+    }
+
+    static String manifestName(long number) {
+        return String.format("%s%06d", MANIFEST_PREFIX, number);
+    }
+
+    static String fileName(String dbPath, long number, String suffix) {
+        return new File(dbPath, String.format("%06d%s", number, suffix)).getPath();
+    }
+
+    /**
+     * @return the number of the file, or -1 if the name is not a number with the suffix.
+     */
+    static long parseNumber(String name, String suffix) {
+        if (! name.endsWith(suffix)) {
+            return -1;
+        }
+        return parseDigits(name.substring(0, name.length() - suffix.length()));
+    }
+
+    /**
+     * @return the number of the MANIFEST, or -1 if the name is not one.
+     */
+    static long parseManifestNumber(String name) {
+        if (! name.startsWith(MANIFEST_PREFIX)) {
+            return -1;
+        }
+        return parseDigits(name.substring(MANIFEST_PREFIX.length()));
+    }
+
+    private static long parseDigits(String number) {
+        if (number.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < number.length(); i ++) {
+            if (! Character.isDigit(number.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Point CURRENT to the MANIFEST, by renaming a synced temp file to it,
+     * so CURRENT is either the old one or the new one after a crash.
+     */
+    static void setCurrentFile(String dbPath, long manifestNumber) throws IOException {
+        Path temp = Paths.get(fileName(dbPath, manifestNumber, TEMP_SUFFIX));
+        byte[] content = (manifestName(manifestNumber) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(content));
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, Paths.get(currentFileName(dbPath)), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the name of the MANIFEST in CURRENT, or null if there is no CURRENT.
+     */
+    static String readCurrentFile(String dbPath) throws IOException {
+        Path current = Paths.get(currentFileName(dbPath));
+        if (! Files.exists(current)) {
+            return null;
+        }
+        return new String(Files.readAllBytes(current), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * @return the numbers of the files with the suffix in the directory, ascending.
+     */
+    static List<Long> listNumbers(String dbPath, String suffix) {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = new File(dbPath).list();
+        if (names != null) {
+            for (String name : names) {
+                long number = parseNumber(name, suffix);
+                if (number >= 0) {
+                    numbers.add(number);
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+}
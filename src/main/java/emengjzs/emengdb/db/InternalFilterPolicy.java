@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.table.FilterPolicy;
+import emengjzs.emengdb.util.byt.Slice;
+
+/**
+ * Filter the table keys by their user keys, so a lookup of any sequence
+ * number matches. The versions of a user key are added once.
+ */
+class InternalFilterPolicy implements FilterPolicy {
+
+    private final FilterPolicy userPolicy;
+
+    InternalFilterPolicy(FilterPolicy userPolicy) {
+        this.userPolicy = userPolicy;
+    }
+
+    @Override
+    public String name() {
+        return userPolicy.name();
+    }
+
+    @Override
+    public FilterBuilder newBuilder() {
+        FilterBuilder builder = userPolicy.newBuilder();
+        return new FilterBuilder() {
+            private Slice lastUserKey;
+
+            @Override
+            public void addKey(Slice key) {
+                Slice userKey = TableKeyComparator.userKey(key);
+                if (lastUserKey == null || lastUserKey.compareTo(userKey) != 0) {
+                    builder.addKey(userKey);
+                    lastUserKey = userKey;
+                }
+            }
+
+            @Override
+            public byte[] finish() {
+                return builder.finish();
+            }
+        };
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        return userPolicy.keyMayMatch(TableKeyComparator.userKey(key), filter);
+    }
+}
@@ -42,8 +42,8 @@ public class InternalKeyComparator implements Comparator<byte[]> {
 
             /* seq cmp(-) ,  flag cmp(-)*/
             return Long.compareUnsigned(
-                    internalKeyCoder.decodeSeqAndType(internalKey1, userKeySlice1.length()),
-                    internalKeyCoder.decodeSeqAndType(internalKey2, userKeySlice2.length()));
+                    internalKeyCoder.decodeSeqAndType(internalKey2, userKeySlice2.length()),
+                    internalKeyCoder.decodeSeqAndType(internalKey1, userKeySlice1.length()));
         }
         return res;
     }
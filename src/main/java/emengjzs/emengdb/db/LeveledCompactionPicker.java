@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keep each level under its target size, the target of level 1 is
+ * maxBytesForLevelBase, and grows by levelSizeMultiplier for each level
+ * below. Level 0 is scored by the count of its files, as each of them is
+ * read by a lookup.
+ *
+ * The level of the largest score not less than 1 is compacted. All the
+ * files of level 0 are compacted together, as they overlap each other. For
+ * a level below, one file is taken in turns by its keys, so the whole key
+ * space of the level is compacted round and round.
+ */
+public class LeveledCompactionPicker extends CompactionPicker {
+
+    private final TableKeyComparator cmp;
+
+    // the largest user key of the last file compacted of each level,
+    // null to start from the first file
+    private final Slice[] compactPointers = new Slice[Version.NUM_LEVELS];
+
+    public LeveledCompactionPicker(Options options, TableKeyComparator cmp) {
+        super(options);
+        this.cmp = cmp;
+    }
+
+    @Override
+    public Compaction pickCompaction(Version version) {
+        int level = pickLevel(version);
+        if (level < 0) {
+            return null;
+        }
+        List<FileMetaData> levelInputs = new ArrayList<>();
+        if (level == 0) {
+            levelInputs.addAll(version.getFiles(0));
+        }
+        else {
+            levelInputs.add(pickFile(version.getFiles(level), compactPointers[level]));
+        }
+        Slice smallest = null;
+        Slice largest = null;
+        for (FileMetaData file : levelInputs) {
+            Slice fileSmallest = TableKeyComparator.userKey(file.getSmallest());
+            Slice fileLargest = TableKeyComparator.userKey(file.getLargest());
+            if (smallest == null || cmp.getUserComparator().compare(fileSmallest, smallest) < 0) {
+                smallest = fileSmallest;
+            }
+            if (largest == null || cmp.getUserComparator().compare(fileLargest, largest) > 0) {
+                largest = fileLargest;
+            }
+        }
+        compactPointers[level] = Slice.from(largest.toBytes());
+
+        List<VersionEdit.LevelFile> inputs = new ArrayList<>();
+        for (FileMetaData file : levelInputs) {
+            inputs.add(new VersionEdit.LevelFile(level, file));
+        }
+        for (FileMetaData file : version.getOverlappingInputs(level + 1, smallest, largest)) {
+            inputs.add(new VersionEdit.LevelFile(level + 1, file));
+        }
+        return new Compaction(version, inputs, level + 1);
+    }
+
+    @Override
+    public boolean needsCompaction(Version version) {
+        return pickLevel(version) >= 0;
+    }
+
+    /**
+     * Level 0 is compacted with level 1 as a whole once it is over the
+     * trigger. For a level below, the bytes over its target go down into
+     * the next level, and each of them rewrites about levelSizeMultiplier
+     * bytes there, the bytes going down are counted in the next level too.
+     */
+    @Override
+    public long estimatePendingCompactionBytes(Version version) {
+        long pending = 0;
+        long incoming = 0;
+        if (version.getFileCount(0) >= options.getLevel0CompactionTrigger()) {
+            incoming = version.getLevelBytes(0);
+            pending += incoming + version.getLevelBytes(1);
+        }
+        for (int level = 1; level < Version.NUM_LEVELS - 1; level ++) {
+            long excess = version.getLevelBytes(level) + incoming - maxBytesForLevel(level);
+            if (excess <= 0) {
+                incoming = 0;
+                continue;
+            }
+            pending += (long) (excess * (options.getLevelSizeMultiplier() + 1));
+            incoming = excess;
+        }
+        return pending;
+    }
+
+    /**
+     * The score of level 0 is its files over level0CompactionTrigger, the
+     * score of a level below is its bytes over its target size.
+     */
+    double score(Version version, int level) {
+        if (level == 0) {
+            return (double) version.getFileCount(0) / options.getLevel0CompactionTrigger();
+        }
+        return (double) version.getLevelBytes(level) / maxBytesForLevel(level);
+    }
+
+    long maxBytesForLevel(int level) {
+        double bytes = options.getMaxBytesForLevelBase();
+        for (int i = 1; i < level; i ++) {
+            bytes *= options.getLevelSizeMultiplier();
+        }
+        return (long) bytes;
+    }
+
+    /**
+     * @return the level of the largest score not less than 1, or -1 if no such one.
+     * The last level is never compacted.
+     */
+    private int pickLevel(Version version) {
+        int bestLevel = -1;
+        double bestScore = 1;
+        for (int level = 0; level < Version.NUM_LEVELS - 1; level ++) {
+            double score = score(version, level);
+            if (score >= bestScore) {
+                bestLevel = level;
+                bestScore = score;
+            }
+        }
+        return bestLevel;
+    }
+
+    /**
+     * @return the first file after the pointer, or the first one of the level.
+     */
+    private FileMetaData pickFile(List<FileMetaData> files, Slice pointer) {
+        if (pointer != null) {
+            for (FileMetaData file : files) {
+                if (cmp.getUserComparator().compare(TableKeyComparator.userKey(file.getLargest()), pointer) > 0) {
+                    return file;
+                }
+            }
+        }
+        return files.get(0);
+    }
+}
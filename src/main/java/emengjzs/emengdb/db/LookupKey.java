@@ -19,9 +19,14 @@ public class LookupKey implements InternalKey {
 
 
 
+    /**
+     * Look up the newest entry of the key with a sequence number not larger
+     * than seq, VALUE is the largest type so it is ordered before any entry
+     * with the same sequence number.
+     */
     LookupKey(Slice key, long seq) {
         this.key = key.toBytes();
-        this.seqAndFlag = seq << 8 | ValueType.DELETE.toByte();
+        this.seqAndFlag = seq << 8 | ValueType.VALUE.toByte();
     }
 
 
@@ -8,191 +8,96 @@ import emengjzs.emengdb.util.byt.Slice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.AbstractMap;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by emengjzs on 2016/8/30.
+ *
+ * The entries are ordered by the internal key: user key ascending, then
+ * sequence number and type descending. add() may be called by several
+ * threads at the same time, and reads need no lock.
  */
-public class MemTable {
+public abstract class MemTable {
     public final static long MAX_SEQ = (0x01L << 56) - 1;
 
     public static final Logger LOG = LoggerFactory.getLogger(MemTable.class);
 
-    // Use Skip List
-    private ConcurrentNavigableMap<byte[], byte[]> table;
+    // the memory of the objects around an entry, a guess for the usage
+    static final int ENTRY_OVERHEAD = 64;
 
-    private Comparator<Slice> userKeyComparator;
+    protected Comparator<Slice> userKeyComparator;
 
-    private InternalKeyCoder internalKeyCoder;
+    protected InternalKeyCoder internalKeyCoder;
 
-    private LongAdder seqNum;
+    // the bytes of the encoded keys and values added
+    protected ThresholdMarker memorySizeThreshold;
 
-    private ThresholdMarker memorySizeThreshold;
+    // the log holding the same data
+    private long logNumber;
 
-    /*
-     *  a general key comparator where the key to be compared
-     *  is the actual key inserted in skipList for implementation,
-     *  as the computed key contains the key defined by user, we need
-     *  the user-defined comparator to decide the position when putting a
-     *  entry
-     *
-     *  keyCmp;Key> -> interCmp\<internalKey> -> userCmp<?>
-     */
     public MemTable(InternalKeyComparator cmp) {
-
         internalKeyCoder = new InternalKeyCoder();
         cmp.setInternalKeyCoder(internalKeyCoder);
         userKeyComparator = cmp.getUserComparator();
-
-        table = new ConcurrentSkipListMap<>(cmp);
-        seqNum = new LongAdder();
         memorySizeThreshold = new AtomicIntegerThresholdMarker(1 << 27);
     }
 
 
-    public void add(long seq, ValueType type, byte[] key, byte[] value) {
-        table.put(internalKeyCoder.encode(seq, type, key), value);
-    }
-
-
-    public MemTableGetResult get(LookupKey lookupKey) {
-        byte[] encodeLookupKey = internalKeyCoder.encode(lookupKey.getSeq(), lookupKey.getValueType(), lookupKey.key);
-        Entry<byte[], byte[]> floorEntry = table.floorEntry(encodeLookupKey);
-
-        MemTableGetResult memTableGetResult = new MemTableGetResult();
-
-        // found the key
-        if (floorEntry != null) {
-
-            byte[] floorKey = floorEntry.getKey();
-            Slice userKeySlice = internalKeyCoder.getUserKeySlice(floorKey);
-            if (userKeyComparator.compare(
-                    userKeySlice,
-                    lookupKey.getUserKey()) == 0) {
-                byte valueType = internalKeyCoder.decodeTypeByte(floorKey, userKeySlice.length());
-                if (valueType == ValueType.VALUE.toByte()) {
-                    memTableGetResult.value = Slice.from(floorEntry.getValue());
-                    memTableGetResult.status = MemTableGetResult.SUCCESS;
-                }
-                else if (valueType == ValueType.DELETE.toByte()){
-                    memTableGetResult.status = MemTableGetResult.DELETED;
-                }
-                else {
-                    LOG.warn("Unknown ValueType: " + valueType + "key=[{}] value=[{}]",
-                            floorKey, floorEntry.getValue());
-                    memTableGetResult.status = MemTableGetResult.NOT_FOUND;
-                }
-            }
+    public abstract void add(long seq, ValueType type, byte[] key, byte[] value);
 
-        }
-        else {
-            memTableGetResult.status = MemTableGetResult.NOT_FOUND;
-        }
-        return memTableGetResult;
-    }
+    /**
+     * @return the newest entry of the user key whose sequence number is not
+     * larger than the one of the lookup key.
+     */
+    public abstract MemTableGetResult get(LookupKey lookupKey);
 
+    public abstract ListIterator<Entry<InternalKey, Slice>> getIterator();
 
-    public ListIterator<Entry<InternalKey, Slice>> getIterator() {
-        return new MemTableIterator();
-    }
+    /**
+     * @return the approximate bytes taken by the entries.
+     */
+    public abstract long getMemoryUsage();
 
     public void setMemorySizeThreshold(ThresholdMarker memorySizeThreshold) {
         this.memorySizeThreshold = memorySizeThreshold;
     }
 
+    /**
+     * @return true if the data added reaches the threshold, time to switch to a new memtable.
+     */
+    public boolean isFull() {
+        return memorySizeThreshold.isReach();
+    }
 
-    private class MemTableIterator implements ListIterator<Entry<InternalKey, Slice>> {
-
-        private Iterator<Entry<byte[], byte[]>> itr;
-
-        Entry<byte[], byte[]> next;
-
-        MemTableIterator() {
-            itr = table.entrySet().iterator();
-        }
-
-        @Override
-        public boolean hasNext() {
-            return itr.hasNext();
-        }
-
-
-        @Override
-        public Entry<InternalKey, Slice> next() {
-            return new IteratorEntry((next = itr.next()));
-        }
-
-        @Override
-        public boolean hasPrevious() {
-            return next != null && table.lowerKey(next.getKey()) != null;
-        }
-
-        @Override
-        public Entry<InternalKey, Slice> previous() {
-            return next == null ? null : new IteratorEntry(table.lowerEntry(next.getKey()));
-        }
-
+    public boolean isEmpty() {
+        return memorySizeThreshold.get() == 0;
+    }
 
-        @Override
-        public int nextIndex() {
-            throw new UnsupportedOperationException();
-        }
+    public long getLogNumber() {
+        return logNumber;
+    }
 
-        @Override
-        public int previousIndex() {
-            throw new UnsupportedOperationException();
-        }
+    public void setLogNumber(long logNumber) {
+        this.logNumber = logNumber;
+    }
 
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
 
-        @Override
-        public void set(Entry<InternalKey, Slice> internalKeySliceEntry) {
-            throw new UnsupportedOperationException();
+    protected MemTableGetResult toGetResult(byte valueType, byte[] value) {
+        MemTableGetResult memTableGetResult = new MemTableGetResult();
+        if (valueType == ValueType.VALUE.toByte()) {
+            memTableGetResult.value = Slice.from(value);
+            memTableGetResult.status = MemTableGetResult.SUCCESS;
         }
-
-        @Override
-        public void add(Entry<InternalKey, Slice> internalKeySliceEntry) {
-            throw new UnsupportedOperationException();
+        else if (valueType == ValueType.DELETE.toByte()){
+            memTableGetResult.status = MemTableGetResult.DELETED;
         }
-
-        private class IteratorEntry extends AbstractMap.SimpleImmutableEntry<InternalKey, Slice> {
-
-            private final byte[] rawValue ;
-
-            IteratorEntry(Entry<byte[], byte[]> entry) {
-                this(new DecodeInternalKey(entry.getKey(), internalKeyCoder), entry.getValue());
-            }
-
-            IteratorEntry(InternalKey key, byte[] value) {
-                super(key, null);
-                rawValue = value;
-            }
-
-            @Override
-            public Slice getValue() {
-                return Slice.from(rawValue);
-            }
-
+        else {
+            LOG.warn("Unknown ValueType: " + valueType + " value=[{}]", value);
+            memTableGetResult.status = MemTableGetResult.NOT_FOUND;
         }
-    }
-
-
-    long getSeqNum() {
-        return seqNum.longValue();
-    }
-
-    void addSeqNum(long x) {
-        seqNum.add(x);
+        return memTableGetResult;
     }
 
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.table.BlockBuilder;
+import emengjzs.emengdb.table.TableBuilder;
+
+/**
+ * Options of the whole db, fixed after the db is opened.
+ */
+public class Options {
+
+    /**
+     * When the log is forced to the disk.
+     */
+    public enum SyncPolicy {
+        // sync for each write batch, so a batch is not grouped unless
+        // WriteOptions sets it not to sync
+        EVERY_WRITE,
+        // sync once for each commit group
+        GROUP,
+        // sync every syncIntervalMillis by a background thread
+        INTERVAL,
+        // leave it to the OS
+        NONE,
+    }
+
+    /**
+     * How the table files are compacted.
+     */
+    public enum CompactionStyle {
+        // levels of growing target sizes, see LeveledCompactionPicker
+        LEVELED,
+        // sorted runs of alike sizes are merged, see UniversalCompactionPicker
+        UNIVERSAL,
+    }
+
+    // the directory of the files of the db
+    private String dbPath = "emengdb";
+
+    // the bytes of the keys and values in a memtable before switching to a new one
+    private int memTableSize = 1 << 27;
+
+    private SyncPolicy syncPolicy = SyncPolicy.NONE;
+
+    private long syncIntervalMillis = 1000;
+
+    // read the log by mmap when recovering
+    private boolean mmapLogRead = true;
+
+    // keep the memtable in an off-heap arena rather than heap objects
+    private boolean arenaMemTable = false;
+
+    // replay the log with several threads when recovering, 1 for a sequential replay
+    private int recoveryThreads = 1;
+
+    // a data block of the table files is finished once its size reaches it
+    private int blockSize = TableBuilder.DEFAULT_BLOCK_SIZE;
+
+    // the keys between two restart points of a data block, a key on a
+    // restart point shares no prefix with the previous key
+    private int blockRestartInterval = BlockBuilder.DEFAULT_RESTART_INTERVAL;
+
+    // the bits of the bloom filter for a key in a table, 0 for no filter
+    private int filterBitsPerKey = 10;
+
+    // the bytes of the data blocks cached for all the tables, 0 for no cache
+    private long blockCacheSize = 8 << 20;
+
+    // keep the cached blocks in direct memory rather than on the heap,
+    // the memory is allocated in pages of 1MB
+    private boolean offHeapBlockCache = false;
+
+    // the table files kept open with their index and filter blocks,
+    // the least recently used one is closed beyond it
+    private int maxOpenFiles = 1000;
+
+    private CompactionStyle compactionStyle = CompactionStyle.LEVELED;
+
+    // level 0 is compacted once it has so many files, for the universal
+    // style, the sorted runs are compacted once there are so many of them
+    private int level0CompactionTrigger = 4;
+
+    // the target size of level 1, a level below is levelSizeMultiplier times the one above
+    private long maxBytesForLevelBase = 10 << 20;
+
+    private double levelSizeMultiplier = 10;
+
+    // a table written by a compaction is finished once its size reaches it
+    private long targetFileSize = 2 << 20;
+
+    // a compaction is split by key ranges into so many subcompactions
+    // running at the same time, 1 not to split
+    private int maxSubcompactions = 1;
+
+    // the universal style merges a run into the newer runs if it is not
+    // larger than them in total by so many percent
+    private int universalSizeRatio = 1;
+
+    // the universal style merges at least so many runs for the size ratio
+    private int universalMinMergeWidth = 2;
+
+    // the universal style merges all the runs if the runs but the oldest
+    // are so many percent of the oldest one
+    private int universalMaxSizeAmplificationPercent = 200;
+
+    // the bytes per second of the table files written by the flushes and
+    // the compactions in total, 0 for no limit. It can be changed on an
+    // opened db by EmengdbImpt.getRateLimiter()
+    private long rateLimitBytesPerSecond = 0;
+
+    // the writes are slowed down once so many memtables wait to be
+    // flushed, the full memtable counted, and stopped once so many
+    private int memTableSlowdownWritesTrigger = 3;
+
+    private int memTableStopWritesTrigger = 5;
+
+    // the writes are slowed down once level 0 has so many files, and
+    // stopped once so many
+    private int level0SlowdownWritesTrigger = 8;
+
+    private int level0StopWritesTrigger = 12;
+
+    // the writes are slowed down once the compactions have about so many
+    // bytes to rewrite, and stopped once so many, 0 for no limit
+    private long softPendingCompactionBytesLimit = 64L << 30;
+
+    private long hardPendingCompactionBytesLimit = 256L << 30;
+
+    // the bytes per second of the writes slowed down, lowered as they get
+    // closer to be stopped
+    private long delayedWriteRate = 16 << 20;
+
+
+    public String getDbPath() {
+        return dbPath;
+    }
+
+    public void setDbPath(String dbPath) {
+        this.dbPath = dbPath;
+    }
+
+    public int getMemTableSize() {
+        return memTableSize;
+    }
+
+    public void setMemTableSize(int memTableSize) {
+        this.memTableSize = memTableSize;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public boolean isMmapLogRead() {
+        return mmapLogRead;
+    }
+
+    public void setMmapLogRead(boolean mmapLogRead) {
+        this.mmapLogRead = mmapLogRead;
+    }
+
+    public boolean isArenaMemTable() {
+        return arenaMemTable;
+    }
+
+    public void setArenaMemTable(boolean arenaMemTable) {
+        this.arenaMemTable = arenaMemTable;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    public void setRecoveryThreads(int recoveryThreads) {
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockRestartInterval() {
+        return blockRestartInterval;
+    }
+
+    public void setBlockRestartInterval(int blockRestartInterval) {
+        this.blockRestartInterval = blockRestartInterval;
+    }
+
+    public int getFilterBitsPerKey() {
+        return filterBitsPerKey;
+    }
+
+    public void setFilterBitsPerKey(int filterBitsPerKey) {
+        this.filterBitsPerKey = filterBitsPerKey;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    public boolean isOffHeapBlockCache() {
+        return offHeapBlockCache;
+    }
+
+    public void setOffHeapBlockCache(boolean offHeapBlockCache) {
+        this.offHeapBlockCache = offHeapBlockCache;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    public int getLevel0CompactionTrigger() {
+        return level0CompactionTrigger;
+    }
+
+    public void setLevel0CompactionTrigger(int level0CompactionTrigger) {
+        this.level0CompactionTrigger = level0CompactionTrigger;
+    }
+
+    public long getMaxBytesForLevelBase() {
+        return maxBytesForLevelBase;
+    }
+
+    public void setMaxBytesForLevelBase(long maxBytesForLevelBase) {
+        this.maxBytesForLevelBase = maxBytesForLevelBase;
+    }
+
+    public double getLevelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+
+    public void setLevelSizeMultiplier(double levelSizeMultiplier) {
+        this.levelSizeMultiplier = levelSizeMultiplier;
+    }
+
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    public void setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = targetFileSize;
+    }
+
+    public int getMaxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    public void setMaxSubcompactions(int maxSubcompactions) {
+        this.maxSubcompactions = maxSubcompactions;
+    }
+
+    public CompactionStyle getCompactionStyle() {
+        return compactionStyle;
+    }
+
+    public void setCompactionStyle(CompactionStyle compactionStyle) {
+        this.compactionStyle = compactionStyle;
+    }
+
+    public int getUniversalSizeRatio() {
+        return universalSizeRatio;
+    }
+
+    public void setUniversalSizeRatio(int universalSizeRatio) {
+        this.universalSizeRatio = universalSizeRatio;
+    }
+
+    public int getUniversalMinMergeWidth() {
+        return universalMinMergeWidth;
+    }
+
+    public void setUniversalMinMergeWidth(int universalMinMergeWidth) {
+        this.universalMinMergeWidth = universalMinMergeWidth;
+    }
+
+    public int getUniversalMaxSizeAmplificationPercent() {
+        return universalMaxSizeAmplificationPercent;
+    }
+
+    public void setUniversalMaxSizeAmplificationPercent(int universalMaxSizeAmplificationPercent) {
+        this.universalMaxSizeAmplificationPercent = universalMaxSizeAmplificationPercent;
+    }
+
+    public long getRateLimitBytesPerSecond() {
+        return rateLimitBytesPerSecond;
+    }
+
+    public void setRateLimitBytesPerSecond(long rateLimitBytesPerSecond) {
+        this.rateLimitBytesPerSecond = rateLimitBytesPerSecond;
+    }
+
+    public int getMemTableSlowdownWritesTrigger() {
+        return memTableSlowdownWritesTrigger;
+    }
+
+    public void setMemTableSlowdownWritesTrigger(int memTableSlowdownWritesTrigger) {
+        this.memTableSlowdownWritesTrigger = memTableSlowdownWritesTrigger;
+    }
+
+    public int getMemTableStopWritesTrigger() {
+        return memTableStopWritesTrigger;
+    }
+
+    public void setMemTableStopWritesTrigger(int memTableStopWritesTrigger) {
+        this.memTableStopWritesTrigger = memTableStopWritesTrigger;
+    }
+
+    public int getLevel0SlowdownWritesTrigger() {
+        return level0SlowdownWritesTrigger;
+    }
+
+    public void setLevel0SlowdownWritesTrigger(int level0SlowdownWritesTrigger) {
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+    }
+
+    public int getLevel0StopWritesTrigger() {
+        return level0StopWritesTrigger;
+    }
+
+    public void setLevel0StopWritesTrigger(int level0StopWritesTrigger) {
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+    }
+
+    public long getSoftPendingCompactionBytesLimit() {
+        return softPendingCompactionBytesLimit;
+    }
+
+    public void setSoftPendingCompactionBytesLimit(long softPendingCompactionBytesLimit) {
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+    }
+
+    public long getHardPendingCompactionBytesLimit() {
+        return hardPendingCompactionBytesLimit;
+    }
+
+    public void setHardPendingCompactionBytesLimit(long hardPendingCompactionBytesLimit) {
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+    }
+
+    public long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    public void setDelayedWriteRate(long delayedWriteRate) {
+        this.delayedWriteRate = delayedWriteRate;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The sequence numbers of the db.
+ *
+ * A writer allocates a contiguous range for its batch without a lock, and
+ * publishes the range after the batch is in the memtable. Ranges are
+ * published in the order they are allocated, so the last visible sequence
+ * never covers a batch that is partly applied, readers read with it.
+ *
+ * The first sequence number is 1, 0 means nothing is written.
+ */
+public class SequenceNumber {
+
+    private static final int SPINS = 64;
+
+    private final AtomicLong lastAllocated = new AtomicLong();
+
+    private volatile long lastVisible;
+
+    /**
+     * @param count the number of the records in the batch.
+     * @return the first sequence number of the range.
+     */
+    long allocate(int count) {
+        long first = lastAllocated.getAndAdd(count) + 1;
+        Preconditions.checkState(first + count - 1 <= MemTable.MAX_SEQ, "Sequence number overflows");
+        return first;
+    }
+
+    /**
+     * Make the range visible to the readers, waiting for the ranges allocated
+     * before it. Each allocated range must be published, even if the batch
+     * fails to be written, or the later ones are blocked forever.
+     */
+    void publish(long first, int count) {
+        int spins = 0;
+        while (lastVisible != first - 1) {
+            if (spins ++ < SPINS) {
+                Thread.yield();
+            }
+            else {
+                LockSupport.parkNanos(1000);
+            }
+        }
+        lastVisible = first + count - 1;
+    }
+
+    /**
+     * @return the largest sequence number that all the records up to it
+     * are visible.
+     */
+    long getLastVisible() {
+        return lastVisible;
+    }
+
+    /**
+     * Move to the sequence number found when recovering, no writer
+     * should be running.
+     */
+    void advanceTo(long seq) {
+        if (seq > lastAllocated.get()) {
+            lastAllocated.set(seq);
+            lastVisible = seq;
+        }
+    }
+}
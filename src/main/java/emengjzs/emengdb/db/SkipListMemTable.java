@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The memtable on a ConcurrentSkipListMap, each entry is a key array
+ * and a value array on heap.
+ */
+public class SkipListMemTable extends MemTable {
+
+    // Use Skip List
+    private ConcurrentNavigableMap<byte[], byte[]> table;
+
+    private LongAdder memoryUsage;
+
+    /*
+     *  a general key comparator where the key to be compared
+     *  is the actual key inserted in skipList for implementation,
+     *  as the computed key contains the key defined by user, we need
+     *  the user-defined comparator to decide the position when putting a
+     *  entry
+     *
+     *  keyCmp;Key> -> interCmp\<internalKey> -> userCmp<?>
+     */
+    public SkipListMemTable(InternalKeyComparator cmp) {
+        super(cmp);
+        table = new ConcurrentSkipListMap<>(cmp);
+        memoryUsage = new LongAdder();
+    }
+
+
+    @Override
+    public void add(long seq, ValueType type, byte[] key, byte[] value) {
+        byte[] internalKey = internalKeyCoder.encode(seq, type, key);
+        table.put(internalKey, value);
+        memorySizeThreshold.increase(internalKey.length + value.length);
+        memoryUsage.add(internalKey.length + value.length + ENTRY_OVERHEAD);
+    }
+
+
+    @Override
+    public MemTableGetResult get(LookupKey lookupKey) {
+        byte[] encodeLookupKey = internalKeyCoder.encode(lookupKey.getSeq(), lookupKey.getValueType(), lookupKey.key);
+        // the newest one not newer than the lookup key
+        Entry<byte[], byte[]> entry = table.ceilingEntry(encodeLookupKey);
+
+        // found the key
+        if (entry != null) {
+
+            byte[] entryKey = entry.getKey();
+            Slice userKeySlice = internalKeyCoder.getUserKeySlice(entryKey);
+            if (userKeyComparator.compare(
+                    userKeySlice,
+                    lookupKey.getUserKey()) == 0) {
+                byte valueType = internalKeyCoder.decodeTypeByte(entryKey, userKeySlice.length());
+                return toGetResult(valueType, entry.getValue());
+            }
+
+        }
+        return new MemTableGetResult(MemTableGetResult.NOT_FOUND);
+    }
+
+
+    @Override
+    public ListIterator<Entry<InternalKey, Slice>> getIterator() {
+        return new MemTableIterator();
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return memoryUsage.sum();
+    }
+
+
+    private class MemTableIterator implements ListIterator<Entry<InternalKey, Slice>> {
+
+        private Iterator<Entry<byte[], byte[]>> itr;
+
+        Entry<byte[], byte[]> next;
+
+        MemTableIterator() {
+            itr = table.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return itr.hasNext();
+        }
+
+
+        @Override
+        public Entry<InternalKey, Slice> next() {
+            return new IteratorEntry((next = itr.next()));
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return next != null && table.lowerKey(next.getKey()) != null;
+        }
+
+        @Override
+        public Entry<InternalKey, Slice> previous() {
+            return next == null ? null : new IteratorEntry(table.lowerEntry(next.getKey()));
+        }
+
+
+        @Override
+        public int nextIndex() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int previousIndex() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(Entry<InternalKey, Slice> internalKeySliceEntry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Entry<InternalKey, Slice> internalKeySliceEntry) {
+            throw new UnsupportedOperationException();
+        }
+
+        private class IteratorEntry extends AbstractMap.SimpleImmutableEntry<InternalKey, Slice> {
+
+            private final byte[] rawValue ;
+
+            IteratorEntry(Entry<byte[], byte[]> entry) {
+                this(new DecodeInternalKey(entry.getKey(), internalKeyCoder), entry.getValue());
+            }
+
+            IteratorEntry(InternalKey key, byte[] value) {
+                super(key, null);
+                rawValue = value;
+            }
+
+            @Override
+            public Slice getValue() {
+                return Slice.from(rawValue);
+            }
+
+        }
+    }
+
+}
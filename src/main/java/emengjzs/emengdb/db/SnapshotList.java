@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+import emengjzs.emengdb.api.Snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The live snapshots of the db, by their sequence numbers.
+ *
+ * A snapshot is taken and the sequence numbers are listed for a compaction
+ * under the same lock, so the last visible sequence number listed covers
+ * any snapshot taken after the list, and a compaction never drops a version
+ * a snapshot it misses can see.
+ */
+public class SnapshotList {
+
+    private final SequenceNumber sequence;
+
+    // the count of the live snapshots of a sequence number, guarded by this
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    SnapshotList(SequenceNumber sequence) {
+        this.sequence = sequence;
+    }
+
+    synchronized Snapshot acquire() {
+        SnapshotImpl snapshot = new SnapshotImpl(this, sequence.getLastVisible());
+        snapshots.merge(snapshot.sequence, 1, Integer::sum);
+        return snapshot;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the snapshot is not taken from
+     * the list, or is released already.
+     */
+    synchronized void release(Snapshot snapshot) {
+        Preconditions.checkArgument(snapshot instanceof SnapshotImpl && ((SnapshotImpl) snapshot).list == this,
+                "The snapshot is not taken from the db");
+        SnapshotImpl impl = (SnapshotImpl) snapshot;
+        Preconditions.checkArgument(! impl.released, "The snapshot is released already");
+        impl.released = true;
+        snapshots.computeIfPresent(impl.sequence, (seq, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * @return the sequence numbers of the live snapshots in ascending order,
+     * ends with the last visible one, which the reads without a snapshot see
+     * at least.
+     */
+    synchronized List<Long> getSequences() {
+        List<Long> sequences = new ArrayList<>(snapshots.size() + 1);
+        sequences.addAll(snapshots.keySet());
+        long lastVisible = sequence.getLastVisible();
+        if (sequences.isEmpty() || sequences.get(sequences.size() - 1) < lastVisible) {
+            sequences.add(lastVisible);
+        }
+        return sequences;
+    }
+
+    /**
+     * @return the number of the live snapshots.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Map.Entry<Long, Integer> entry : snapshots.entrySet()) {
+            size += entry.getValue();
+        }
+        return size;
+    }
+
+    private static class SnapshotImpl implements Snapshot {
+        private final SnapshotList list;
+        private final long sequence;
+        // guarded by the list
+        private boolean released;
+
+        SnapshotImpl(SnapshotList list, long sequence) {
+            this.list = list;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{sequence=" + sequence + '}';
+        }
+    }
+}
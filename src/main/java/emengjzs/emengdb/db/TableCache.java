@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.table.BlockCache;
+import emengjzs.emengdb.table.FilterPolicy;
+import emengjzs.emengdb.table.TableReader;
+import emengjzs.emengdb.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The open table files, keyed by the file number. An open table holds a
+ * file channel, its index block and its filter, so at most maxOpenFiles of
+ * them are kept, the least recently used one is closed when another one is
+ * opened, and its index and filter go with the reader.
+ *
+ * A reader is shared by all the threads, the blocks are read by positional
+ * reads (FileChannel.read(dst, position), a pread on Linux), which need no
+ * lock and are not affected by each other.
+ *
+ * A reader got is pinned until its handle is released, a pinned one is
+ * never closed, so the open files may go beyond maxOpenFiles for a while.
+ * A table is opened without the lock, two threads may open the same one,
+ * the later one is closed.
+ */
+public class TableCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableCache.class);
+
+    private final String dbPath;
+    private final int maxOpenFiles;
+    private final TableKeyComparator cmp;
+    private final FilterPolicy filterPolicy;
+    private final BlockCache blockCache;
+
+    // the open tables in the order of use, the oldest first. Guarded by this.
+    private final LinkedHashMap<Long, Handle> tables = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param filterPolicy the policy the tables are built with, null not to use the filter.
+     * @param blockCache the cache of the data blocks, null for no cache.
+     */
+    public TableCache(String dbPath, int maxOpenFiles, TableKeyComparator cmp,
+                      FilterPolicy filterPolicy, BlockCache blockCache) {
+        Validate.isTrue(maxOpenFiles > 0, "maxOpenFiles should be positive.");
+        this.dbPath = dbPath;
+        this.maxOpenFiles = maxOpenFiles;
+        this.cmp = cmp;
+        this.filterPolicy = filterPolicy;
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * @return the pinned reader of the table, opened if it is not open.
+     * @throws emengjzs.emengdb.table.TableFormatException if the file is not a complete table.
+     */
+    public Handle get(long fileNumber) throws IOException {
+        synchronized (this) {
+            Handle handle = tables.get(fileNumber);
+            if (handle != null) {
+                handle.refs ++;
+                return handle;
+            }
+        }
+        TableReader reader = TableReader.open(
+                FileName.tableFileName(dbPath, fileNumber), cmp, filterPolicy, blockCache, fileNumber);
+        Handle handle;
+        boolean opened;
+        synchronized (this) {
+            handle = tables.get(fileNumber);
+            opened = handle == null;
+            if (opened) {
+                handle = new Handle(fileNumber, reader);
+                tables.put(fileNumber, handle);
+            }
+            // pinned before the eviction, not to be closed by it
+            handle.refs ++;
+            evictOverLimit();
+        }
+        if (! opened) {
+            closeReader(reader);
+        }
+        return handle;
+    }
+
+    /**
+     * Close the table when it is not pinned, called when the file is deleted.
+     */
+    public void evict(long fileNumber) {
+        Handle handle;
+        synchronized (this) {
+            handle = tables.remove(fileNumber);
+            if (handle == null) {
+                return;
+            }
+            handle.inCache = false;
+            if (handle.refs > 0) {
+                // closed by the last release
+                return;
+            }
+        }
+        closeReader(handle.reader);
+    }
+
+    /**
+     * @return the tables open, pinned ones included.
+     */
+    public synchronized int getOpenCount() {
+        return tables.size();
+    }
+
+    /**
+     * Close all the tables, no reader should be in use.
+     */
+    public void close() {
+        List<Handle> handles;
+        synchronized (this) {
+            handles = new ArrayList<>(tables.values());
+            tables.clear();
+            handles.forEach(handle -> handle.inCache = false);
+        }
+        for (Handle handle : handles) {
+            closeReader(handle.reader);
+        }
+    }
+
+
+    /**
+     * Close the least recently used tables not pinned, called with the lock held.
+     */
+    private void evictOverLimit() {
+        List<TableReader> closing = null;
+        for (Iterator<Handle> itr = tables.values().iterator(); itr.hasNext() && tables.size() > maxOpenFiles; ) {
+            Handle handle = itr.next();
+            if (handle.refs == 0) {
+                itr.remove();
+                handle.inCache = false;
+                if (closing == null) {
+                    closing = new ArrayList<>();
+                }
+                closing.add(handle.reader);
+            }
+        }
+        if (closing != null) {
+            // closing a channel is quick, not worth leaving the lock for
+            closing.forEach(TableCache::closeReader);
+        }
+    }
+
+    private synchronized void release(Handle handle) {
+        Validate.isTrue(handle.refs > 0, "Table handle is released twice.");
+        handle.refs --;
+        if (handle.refs == 0 && ! handle.inCache) {
+            closeReader(handle.reader);
+        }
+    }
+
+    private static void closeReader(TableReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOGGER.warn("Fail to close a table: {}", e.toString());
+        }
+    }
+
+
+    /**
+     * A pinned table reader, release it after use.
+     */
+    public class Handle {
+        private final long fileNumber;
+        private final TableReader reader;
+
+        // guarded by the lock of the cache
+        private int refs;
+        private boolean inCache = true;
+
+        Handle(long fileNumber, TableReader reader) {
+            this.fileNumber = fileNumber;
+            this.reader = reader;
+        }
+
+        public long getFileNumber() {
+            return fileNumber;
+        }
+
+        public TableReader getReader() {
+            return reader;
+        }
+
+        public void release() {
+            TableCache.this.release(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.util.Bits;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.Comparator;
+
+/**
+ * The keys in the table files, an internal key without the length ahead:
+ * +--------+------+-------+
+ * |   key  |  seq |  type |
+ * +--------+------+-------+
+ *  key.len     7      1
+ * Ordered as InternalKeyComparator does, user key ascending, then the
+ * sequence number and type descending.
+ */
+public class TableKeyComparator implements Comparator<Slice> {
+
+    private static final int TAG_SIZE = Long.BYTES;
+
+    private final Comparator<Slice> userComparator;
+
+    public TableKeyComparator(Comparator<Slice> userComparator) {
+        this.userComparator = userComparator;
+    }
+
+    @Override
+    public int compare(Slice key1, Slice key2) {
+        int res = userComparator.compare(userKey(key1), userKey(key2));
+        if (res == 0) {
+            return Long.compareUnsigned(seqAndType(key2), seqAndType(key1));
+        }
+        return res;
+    }
+
+    public Comparator<Slice> getUserComparator() {
+        return userComparator;
+    }
+
+    static Slice encode(Slice userKey, long seqAndType) {
+        byte[] key = new byte[userKey.length() + TAG_SIZE];
+        for (int i = 0; i < userKey.length(); i ++) {
+            key[i] = userKey.get(i);
+        }
+        Bits.putLong(key, userKey.length(), seqAndType);
+        return Slice.from(key);
+    }
+
+    static Slice userKey(Slice tableKey) {
+        return tableKey.subSlice(0, tableKey.length() - TAG_SIZE);
+    }
+
+    static long seqAndType(Slice tableKey) {
+        long v = 0;
+        for (int i = tableKey.length() - TAG_SIZE; i < tableKey.length(); i ++) {
+            v = v << 8 | (tableKey.get(i) & 0xFF);
+        }
+        return v;
+    }
+}
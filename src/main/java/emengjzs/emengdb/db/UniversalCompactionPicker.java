@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tiered compaction, the data is kept in sorted runs, each file of level 0
+ * is a run, and all the files of a level below are a run. The runs are
+ * ordered from the newest, the files of level 0 first, then the levels
+ * from the top, and a few runs of alike sizes are merged into one, so an
+ * entry is rewritten far fewer times than by the leveled compaction, at
+ * the cost of more runs to read and more space.
+ *
+ * Nothing is done until there are level0CompactionTrigger runs, then
+ * - if the runs but the oldest are universalMaxSizeAmplificationPercent of
+ *   the oldest one, all the runs are merged, to bound the space taken.
+ * - or the newest runs each not larger than universalSizeRatio percent over
+ *   the ones before it in total are merged, if there are at least
+ *   universalMinMergeWidth of them, the runs are tried from the newest.
+ * - or the newest runs are merged, to bring the runs under the trigger.
+ *
+ * The output of a merge is a new run in the level of the oldest run
+ * merged, or in the lowest empty level above the runs older than it, so
+ * the runs stay in the order of their data.
+ */
+public class UniversalCompactionPicker extends CompactionPicker {
+
+    public UniversalCompactionPicker(Options options) {
+        super(options);
+    }
+
+    @Override
+    public Compaction pickCompaction(Version version) {
+        List<SortedRun> runs = sortedRuns(version);
+        if (! needsCompaction(runs)) {
+            return null;
+        }
+        Compaction compaction = pickForSizeAmplification(version, runs);
+        if (compaction == null) {
+            compaction = pickForSizeRatio(version, runs);
+        }
+        if (compaction == null) {
+            int count = Math.max(2, runs.size() - options.getLevel0CompactionTrigger() + 1);
+            compaction = newCompaction(version, runs, 0, count);
+        }
+        return compaction;
+    }
+
+    @Override
+    public boolean needsCompaction(Version version) {
+        return needsCompaction(sortedRuns(version));
+    }
+
+    /**
+     * All the runs but the oldest, once they are over the trigger, as they
+     * are merged into fewer runs.
+     */
+    @Override
+    public long estimatePendingCompactionBytes(Version version) {
+        List<SortedRun> runs = sortedRuns(version);
+        if (! needsCompaction(runs)) {
+            return 0;
+        }
+        long pending = 0;
+        for (SortedRun run : runs.subList(0, runs.size() - 1)) {
+            pending += run.size;
+        }
+        return pending;
+    }
+
+    private boolean needsCompaction(List<SortedRun> runs) {
+        return runs.size() >= Math.max(2, options.getLevel0CompactionTrigger());
+    }
+
+    /**
+     * @return the runs from the newest.
+     */
+    static List<SortedRun> sortedRuns(Version version) {
+        List<SortedRun> runs = new ArrayList<>();
+        for (FileMetaData file : version.getFiles(0)) {
+            runs.add(new SortedRun(0, Collections.singletonList(file)));
+        }
+        for (int level = 1; level < Version.NUM_LEVELS; level ++) {
+            if (version.getFileCount(level) > 0) {
+                runs.add(new SortedRun(level, version.getFiles(level)));
+            }
+        }
+        return runs;
+    }
+
+    private Compaction pickForSizeAmplification(Version version, List<SortedRun> runs) {
+        long newer = 0;
+        for (int i = 0; i < runs.size() - 1; i ++) {
+            newer += runs.get(i).size;
+        }
+        long oldest = runs.get(runs.size() - 1).size;
+        if (newer * 100 < oldest * options.getUniversalMaxSizeAmplificationPercent()) {
+            return null;
+        }
+        return newCompaction(version, runs, 0, runs.size());
+    }
+
+    private Compaction pickForSizeRatio(Version version, List<SortedRun> runs) {
+        for (int start = 0; start < runs.size() - 1; start ++) {
+            long total = runs.get(start).size;
+            int end = start + 1;
+            while (end < runs.size() && runs.get(end).size * 100 <= total * (100 + options.getUniversalSizeRatio())) {
+                total += runs.get(end).size;
+                end ++;
+            }
+            if (end - start >= options.getUniversalMinMergeWidth()) {
+                return newCompaction(version, runs, start, end);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merge the runs [start, end), more older runs are taken if the output
+     * can not be put between the newer runs and the older runs: the files
+     * of level 0 older than the ones merged are taken, as the output goes
+     * below level 0, and the run of level 1 is taken if the files of level
+     * 0 merged are just above it.
+     */
+    private Compaction newCompaction(Version version, List<SortedRun> runs, int start, int end) {
+        int outputLevel;
+        while (true) {
+            SortedRun last = runs.get(end - 1);
+            if (last.level > 0) {
+                outputLevel = last.level;
+                break;
+            }
+            if (end == runs.size()) {
+                outputLevel = Version.NUM_LEVELS - 1;
+                break;
+            }
+            SortedRun older = runs.get(end);
+            if (older.level > 1) {
+                outputLevel = older.level - 1;
+                break;
+            }
+            end ++;
+        }
+        List<VersionEdit.LevelFile> inputs = new ArrayList<>();
+        for (SortedRun run : runs.subList(start, end)) {
+            for (FileMetaData file : run.files) {
+                inputs.add(new VersionEdit.LevelFile(run.level, file));
+            }
+        }
+        return new Compaction(version, inputs, outputLevel);
+    }
+
+
+    static class SortedRun {
+        final int level;
+        final List<FileMetaData> files;
+        final long size;
+
+        SortedRun(int level, List<FileMetaData> files) {
+            this.level = level;
+            this.files = files;
+            long size = 0;
+            for (FileMetaData file : files) {
+                size += file.getFileSize();
+            }
+            this.size = size;
+        }
+    }
+}
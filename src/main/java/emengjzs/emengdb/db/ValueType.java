@@ -20,7 +20,7 @@ public enum ValueType {
     }
 
     static ValueType of(int i) {
-        return i > ValueType.values().length ? UNKNOWN : ValueType.values()[i];
+        return i < 0 || i >= ValueType.values().length ? UNKNOWN : ValueType.values()[i];
     }
 
 
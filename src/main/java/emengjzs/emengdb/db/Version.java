@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.base.Preconditions;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The table files of the db at a time, by level. A Version never changes,
+ * a flush or a compaction applies its VersionEdit to get the next one.
+ *
+ * The files of level 0 are flushed from the memtables and may overlap each
+ * other, they are kept the newest first. The files of the other levels are
+ * sorted by their keys and never overlap, and the versions of a user key
+ * are never split into two files of a level, so a lookup reads at most one
+ * file of a level.
+ *
+ * A version installed by the VersionSet is reference counted, its files
+ * are kept until it is released by all, see VersionSet.
+ */
+public class Version {
+
+    public static final int NUM_LEVELS = 7;
+
+    private final TableKeyComparator cmp;
+
+    private final List<List<FileMetaData>> levels;
+
+    // set before the version is installed, told once the refs go to 0
+    private VersionSet versionSet;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    Version(TableKeyComparator cmp) {
+        this.cmp = cmp;
+        List<List<FileMetaData>> levels = new ArrayList<>(NUM_LEVELS);
+        for (int level = 0; level < NUM_LEVELS; level ++) {
+            levels.add(Collections.emptyList());
+        }
+        this.levels = Collections.unmodifiableList(levels);
+    }
+
+    private Version(TableKeyComparator cmp, List<List<FileMetaData>> levels) {
+        this.cmp = cmp;
+        this.levels = Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * Pin the version, unless it is released by all already.
+     *
+     * @return false if the version can not be used any more.
+     */
+    boolean tryRef() {
+        int count;
+        do {
+            count = refs.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (! refs.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Called by the VersionSet when installing it.
+     */
+    void ref(VersionSet versionSet) {
+        this.versionSet = versionSet;
+        refs.incrementAndGet();
+    }
+
+    public void unref() {
+        int count = refs.decrementAndGet();
+        Preconditions.checkState(count >= 0, "Version is released more than referenced.");
+        if (count == 0 && versionSet != null) {
+            versionSet.release(this);
+        }
+    }
+
+    public List<FileMetaData> getFiles(int level) {
+        return levels.get(level);
+    }
+
+    public int getFileCount(int level) {
+        return levels.get(level).size();
+    }
+
+    public long getLevelBytes(int level) {
+        long bytes = 0;
+        for (FileMetaData file : levels.get(level)) {
+            bytes += file.getFileSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the next version, the files of the edit are deleted first, then added.
+     * @throws IllegalStateException if the files of a level above 0 overlap.
+     */
+    Version apply(VersionEdit edit) {
+        Map<Long, Integer> deleted = edit.getDeletedFiles();
+        List<List<FileMetaData>> next = new ArrayList<>(NUM_LEVELS);
+        for (int level = 0; level < NUM_LEVELS; level ++) {
+            List<FileMetaData> files = new ArrayList<>(levels.get(level).size());
+            for (FileMetaData file : levels.get(level)) {
+                Integer deletedLevel = deleted.get(file.getNumber());
+                if (deletedLevel == null || deletedLevel != level) {
+                    files.add(file);
+                }
+            }
+            next.add(files);
+        }
+        for (VersionEdit.LevelFile newFile : edit.getNewFiles()) {
+            next.get(newFile.getLevel()).add(newFile.getFile());
+        }
+
+        next.get(0).sort(Comparator.comparingLong(FileMetaData::getNumber).reversed());
+        for (int level = 1; level < NUM_LEVELS; level ++) {
+            List<FileMetaData> files = next.get(level);
+            files.sort((f1, f2) -> cmp.compare(f1.getSmallest(), f2.getSmallest()));
+            for (int i = 1; i < files.size(); i ++) {
+                Preconditions.checkState(compareUserKey(files.get(i - 1).getLargest(),
+                        TableKeyComparator.userKey(files.get(i).getSmallest())) < 0,
+                        "Files %s and %s overlap in level %s", files.get(i - 1), files.get(i), level);
+            }
+        }
+        for (int level = 0; level < NUM_LEVELS; level ++) {
+            next.set(level, Collections.unmodifiableList(next.get(level)));
+        }
+        return new Version(cmp, next);
+    }
+
+    /**
+     * Look up the files of level 0 from the newest, then one file of each
+     * level, the first one having the user key answers.
+     */
+    MemTableGetResult get(LookupKey lookupKey, TableCache tableCache) throws IOException {
+        Slice userKey = lookupKey.getUserKey();
+        Slice tableKey = TableKeyComparator.encode(userKey, lookupKey.getSeqFlag());
+        for (FileMetaData file : levels.get(0)) {
+            if (containsUserKey(file, userKey)) {
+                MemTableGetResult result = get(file, userKey, tableKey, tableCache);
+                if (result.status != MemTableGetResult.NOT_FOUND) {
+                    return result;
+                }
+            }
+        }
+        for (int level = 1; level < NUM_LEVELS; level ++) {
+            List<FileMetaData> files = levels.get(level);
+            int index = findFile(files, tableKey);
+            if (index < files.size() && compareUserKey(files.get(index).getSmallest(), userKey) <= 0) {
+                MemTableGetResult result = get(files.get(index), userKey, tableKey, tableCache);
+                if (result.status != MemTableGetResult.NOT_FOUND) {
+                    return result;
+                }
+            }
+        }
+        return new MemTableGetResult(MemTableGetResult.NOT_FOUND);
+    }
+
+    /**
+     * @return the files of the level whose user keys overlap the range, null for no bound.
+     */
+    List<FileMetaData> getOverlappingInputs(int level, Slice smallestUserKey, Slice largestUserKey) {
+        List<FileMetaData> inputs = new ArrayList<>();
+        for (FileMetaData file : levels.get(level)) {
+            if ((smallestUserKey == null || compareUserKey(file.getLargest(), smallestUserKey) >= 0)
+                    && (largestUserKey == null || compareUserKey(file.getSmallest(), largestUserKey) <= 0)) {
+                inputs.add(file);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return true if no file of the levels below the level may have the user key.
+     */
+    boolean isBaseLevelForKey(Slice userKey, int level) {
+        for (int lower = level + 1; lower < NUM_LEVELS; lower ++) {
+            for (FileMetaData file : levels.get(lower)) {
+                if (containsUserKey(file, userKey)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the count of the files of each level.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Version{");
+        for (int level = 0; level < NUM_LEVELS; level ++) {
+            if (level > 0) {
+                sb.append(", ");
+            }
+            sb.append(level).append('=').append(levels.get(level).size());
+        }
+        return sb.append('}').toString();
+    }
+
+
+    private MemTableGetResult get(FileMetaData file, Slice userKey, Slice tableKey,
+                                  TableCache tableCache) throws IOException {
+        TableCache.Handle handle = tableCache.get(file.getNumber());
+        Entry<Slice, Slice> entry;
+        try {
+            entry = handle.getReader().get(tableKey);
+        } finally {
+            handle.release();
+        }
+        if (entry == null || cmp.getUserComparator().compare(TableKeyComparator.userKey(entry.getKey()), userKey) != 0) {
+            return new MemTableGetResult(MemTableGetResult.NOT_FOUND);
+        }
+        byte type = (byte) TableKeyComparator.seqAndType(entry.getKey());
+        return ValueType.VALUE.equals(type) ?
+                new MemTableGetResult(entry.getValue(), MemTableGetResult.SUCCESS)
+                : new MemTableGetResult(MemTableGetResult.DELETED);
+    }
+
+    /**
+     * @return the index of the first file whose largest key is not less than the key.
+     */
+    private int findFile(List<FileMetaData> files, Slice tableKey) {
+        int low = 0;
+        int high = files.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cmp.compare(files.get(mid).getLargest(), tableKey) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean containsUserKey(FileMetaData file, Slice userKey) {
+        return compareUserKey(file.getSmallest(), userKey) <= 0 && compareUserKey(file.getLargest(), userKey) >= 0;
+    }
+
+    /**
+     * Compare the user key of the table key with the user key.
+     */
+    private int compareUserKey(Slice tableKey, Slice userKey) {
+        return cmp.getUserComparator().compare(TableKeyComparator.userKey(tableKey), userKey);
+    }
+}
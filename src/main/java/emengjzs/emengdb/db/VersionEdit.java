@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The change of the files from one Version to the next, the table files
+ * added to and deleted from each level by a flush or a compaction. An
+ * edit in the MANIFEST carries the numbers of the db at the time too,
+ * -1 for the ones not set.
+ */
+public class VersionEdit {
+
+    // file number -> level
+    private final Map<Long, Integer> deletedFiles = new TreeMap<>();
+
+    private final List<LevelFile> newFiles = new ArrayList<>();
+
+    // the logs older than it are flushed to the tables
+    private long logNumber = -1;
+
+    private long nextFileNumber = -1;
+
+    private long lastSequence = -1;
+
+    public void addFile(int level, FileMetaData file) {
+        newFiles.add(new LevelFile(level, file));
+    }
+
+    public void deleteFile(int level, long number) {
+        deletedFiles.put(number, level);
+    }
+
+    public Map<Long, Integer> getDeletedFiles() {
+        return Collections.unmodifiableMap(deletedFiles);
+    }
+
+    public List<LevelFile> getNewFiles() {
+        return Collections.unmodifiableList(newFiles);
+    }
+
+    public long getLogNumber() {
+        return logNumber;
+    }
+
+    public void setLogNumber(long logNumber) {
+        this.logNumber = logNumber;
+    }
+
+    public long getNextFileNumber() {
+        return nextFileNumber;
+    }
+
+    public void setNextFileNumber(long nextFileNumber) {
+        this.nextFileNumber = nextFileNumber;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * @return true if no file is added or deleted.
+     */
+    public boolean isEmpty() {
+        return deletedFiles.isEmpty() && newFiles.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "VersionEdit{deleted=" + deletedFiles + ", new=" + newFiles + ", logNumber=" + logNumber
+                + ", nextFileNumber=" + nextFileNumber + ", lastSequence=" + lastSequence + '}';
+    }
+
+
+    public static class LevelFile {
+        private final int level;
+        private final FileMetaData file;
+
+        LevelFile(int level, FileMetaData file) {
+            this.level = level;
+            this.file = file;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public FileMetaData getFile() {
+            return file;
+        }
+
+        @Override
+        public String toString() {
+            return level + ":" + file.getNumber();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Here defines the encode and decode of the VersionEdit, the encoded edit
+ * is the data of a record in the MANIFEST.
+ */
+public class VersionEditCoder {
+
+    static final byte LOG_NUMBER = 1;
+    static final byte NEXT_FILE_NUMBER = 2;
+    static final byte LAST_SEQUENCE = 3;
+    static final byte DELETED_FILE = 4;
+    static final byte NEW_FILE = 5;
+
+    /**
+     * Encode as a list of fields, each starts with its tag, the numbers
+     * not set are left out:
+     * LOG_NUMBER       | number 8 |
+     * NEXT_FILE_NUMBER | number 8 |
+     * LAST_SEQUENCE    | sequence 8 |
+     * DELETED_FILE     | level 4 | number 8 |
+     * NEW_FILE         | level 4 | number 8 | size 8 | smallest.length 4 | smallest | largest.length 4 | largest |
+     */
+    public Slice encode(VersionEdit edit) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        if (edit.getLogNumber() >= 0) {
+            out.writeByte(LOG_NUMBER);
+            out.writeLong(edit.getLogNumber());
+        }
+        if (edit.getNextFileNumber() >= 0) {
+            out.writeByte(NEXT_FILE_NUMBER);
+            out.writeLong(edit.getNextFileNumber());
+        }
+        if (edit.getLastSequence() >= 0) {
+            out.writeByte(LAST_SEQUENCE);
+            out.writeLong(edit.getLastSequence());
+        }
+        for (Map.Entry<Long, Integer> deleted : edit.getDeletedFiles().entrySet()) {
+            out.writeByte(DELETED_FILE);
+            out.writeInt(deleted.getValue());
+            out.writeLong(deleted.getKey());
+        }
+        for (VersionEdit.LevelFile newFile : edit.getNewFiles()) {
+            FileMetaData file = newFile.getFile();
+            out.writeByte(NEW_FILE);
+            out.writeInt(newFile.getLevel());
+            out.writeLong(file.getNumber());
+            out.writeLong(file.getFileSize());
+            writeSlice(out, file.getSmallest());
+            writeSlice(out, file.getLargest());
+        }
+        return Slice.from(out.toByteArray());
+    }
+
+    /**
+     * Decode the data of a MANIFEST record, the keys are copied.
+     *
+     * @throws IllegalArgumentException if the data is broken.
+     */
+    public VersionEdit decode(Slice data) {
+        ByteBuffer bf = data.toByteBuffer();
+        VersionEdit edit = new VersionEdit();
+        while (bf.hasRemaining()) {
+            byte tag = bf.get();
+            switch (tag) {
+                case LOG_NUMBER:
+                    edit.setLogNumber(readLong(bf));
+                    break;
+                case NEXT_FILE_NUMBER:
+                    edit.setNextFileNumber(readLong(bf));
+                    break;
+                case LAST_SEQUENCE:
+                    edit.setLastSequence(readLong(bf));
+                    break;
+                case DELETED_FILE:
+                    int level = readLevel(bf);
+                    edit.deleteFile(level, readLong(bf));
+                    break;
+                case NEW_FILE:
+                    int newLevel = readLevel(bf);
+                    long number = readLong(bf);
+                    long size = readLong(bf);
+                    Slice smallest = readSlice(bf);
+                    Slice largest = readSlice(bf);
+                    edit.addFile(newLevel, new FileMetaData(number, size, smallest, largest));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown tag " + tag + " in VersionEdit.");
+            }
+        }
+        return edit;
+    }
+
+    private void writeSlice(ByteArrayDataOutput out, Slice slice) {
+        out.writeInt(slice.length());
+        out.write(slice.toBytes());
+    }
+
+    private int readLevel(ByteBuffer bf) {
+        Validate.isTrue(bf.remaining() >= Integer.BYTES, "VersionEdit level is broken.");
+        int level = bf.getInt();
+        Validate.isTrue(level >= 0 && level < Version.NUM_LEVELS, "VersionEdit level is out of range.");
+        return level;
+    }
+
+    private long readLong(ByteBuffer bf) {
+        Validate.isTrue(bf.remaining() >= Long.BYTES, "VersionEdit number is broken.");
+        return bf.getLong();
+    }
+
+    private Slice readSlice(ByteBuffer bf) {
+        Validate.isTrue(bf.remaining() >= Integer.BYTES, "VersionEdit key is broken.");
+        int length = bf.getInt();
+        Validate.isTrue(length >= 0 && bf.remaining() >= length, "VersionEdit key is broken.");
+        byte[] bytes = new byte[length];
+        bf.get(bytes);
+        return Slice.from(bytes);
+    }
+}
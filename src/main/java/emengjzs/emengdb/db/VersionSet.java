@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.log.LogFileException;
+import emengjzs.emengdb.log.LogReader;
+import emengjzs.emengdb.log.LogWriter;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The current Version of the db, and the MANIFEST recording how it comes.
+ *
+ * The MANIFEST is a log of the encoded VersionEdits, written by a LogWriter
+ * as the log of the writes. The first edit is a snapshot of all the files,
+ * then an edit for each flush and compaction, synced before its version
+ * is installed, so a version ever read is recovered after a crash, and the
+ * edit torn by a crash was never installed. CURRENT has the name of the
+ * MANIFEST in use, a new MANIFEST is started on each open.
+ *
+ * A version is referenced by the VersionSet while it is the current one,
+ * and by each reader and compaction using it. The current version is
+ * pinned by pin() without a lock. Once a version is released by all, the
+ * table files of it no live version has are obsolete, and polled by
+ * pollObsoleteFile() to be deleted.
+ */
+public class VersionSet implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionSet.class);
+
+    private final String dbPath;
+    private final AtomicLong nextFileNumber;
+    private final SequenceNumber sequence;
+    private final VersionEditCoder coder = new VersionEditCoder();
+
+    private volatile Version current;
+
+    // the count of the live versions having a table file, guarded by this
+    private final Map<Long, Integer> liveFiles = new HashMap<>();
+    private final Queue<Long> obsoleteFiles = new ConcurrentLinkedQueue<>();
+
+    // the ones below are guarded by this
+    // the logs older than it are flushed
+    private long logNumber;
+    private long manifestNumber = -1;
+    // null before created, or after failing to be written
+    private LogWriter manifest;
+
+    VersionSet(String dbPath, TableKeyComparator cmp, AtomicLong nextFileNumber, SequenceNumber sequence) {
+        this.dbPath = dbPath;
+        this.nextFileNumber = nextFileNumber;
+        this.sequence = sequence;
+        install(new Version(cmp));
+    }
+
+    /**
+     * Replay the MANIFEST named by CURRENT, the file numbers and the
+     * sequence numbers in it are marked used.
+     *
+     * @return false if there is no CURRENT, the db is new or written
+     * before the MANIFEST.
+     */
+    synchronized boolean recover() throws IOException {
+        String name = FileName.readCurrentFile(dbPath);
+        if (name == null) {
+            return false;
+        }
+        long number = FileName.parseManifestNumber(name);
+        if (number < 0) {
+            throw new IOException("CURRENT is broken: " + name);
+        }
+        Version version = current;
+        int count = 0;
+        String fileName = FileName.manifestFileName(dbPath, number);
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             LogReader reader = new LogReader(file, 0)) {
+            try {
+                Slice data;
+                while ((data = reader.readNextData()) != null) {
+                    VersionEdit edit = coder.decode(data);
+                    version = version.apply(edit);
+                    if (edit.getLogNumber() >= 0) {
+                        logNumber = edit.getLogNumber();
+                    }
+                    if (edit.getNextFileNumber() > 0) {
+                        markFileNumberUsed(edit.getNextFileNumber() - 1);
+                    }
+                    if (edit.getLastSequence() >= 0) {
+                        sequence.advanceTo(edit.getLastSequence());
+                    }
+                    count ++;
+                }
+            } catch (LogFileException | IllegalArgumentException e) {
+                LOGGER.warn("Broken edit in {} after offset {}, drop the tail: {}",
+                        fileName, reader.getLastDataEndOffset(), e.toString());
+            }
+        }
+        markFileNumberUsed(number);
+        manifestNumber = number;
+        install(version);
+        LOGGER.info("Recover {} version edits from {}: {}", count, fileName, version);
+        return true;
+    }
+
+    /**
+     * Start a new MANIFEST with a snapshot of the current version, then
+     * point CURRENT to it and delete the old one.
+     *
+     * @param logNumber the logs older than it are flushed.
+     */
+    synchronized void createManifest(long logNumber) throws IOException {
+        long number = nextFileNumber.getAndIncrement();
+        String fileName = FileName.manifestFileName(dbPath, number);
+        LogWriter writer = new LogWriter(new BufferedWritableFile(new DiskWritableFile(fileName)));
+        try {
+            VersionEdit snapshot = new VersionEdit();
+            for (int level = 0; level < Version.NUM_LEVELS; level ++) {
+                for (FileMetaData file : current.getFiles(level)) {
+                    snapshot.addFile(level, file);
+                }
+            }
+            snapshot.setLogNumber(logNumber);
+            snapshot.setNextFileNumber(nextFileNumber.get());
+            snapshot.setLastSequence(sequence.getLastVisible());
+            writer.addData(coder.encode(snapshot));
+            writer.sync();
+            FileName.setCurrentFile(dbPath, number);
+        } catch (IOException | RuntimeException e) {
+            writer.close();
+            Files.deleteIfExists(Paths.get(fileName));
+            throw e;
+        }
+        closeManifest();
+        if (manifestNumber >= 0) {
+            Files.deleteIfExists(Paths.get(FileName.manifestFileName(dbPath, manifestNumber)));
+        }
+        this.logNumber = logNumber;
+        manifestNumber = number;
+        manifest = writer;
+    }
+
+    /**
+     * Write the edit to the MANIFEST and sync it, then install the version
+     * it makes from the current one. The next file number and the last
+     * sequence number are set into the edit.
+     *
+     * If the MANIFEST fails to be written, the version is not changed, and
+     * the next edit goes to a new MANIFEST, as the tail of the old one may
+     * be torn.
+     */
+    synchronized Version logAndApply(VersionEdit edit) throws IOException {
+        Version next = current.apply(edit);
+        if (manifest == null) {
+            createManifest(logNumber);
+        }
+        edit.setNextFileNumber(nextFileNumber.get());
+        edit.setLastSequence(sequence.getLastVisible());
+        try {
+            manifest.addData(coder.encode(edit));
+            manifest.sync();
+        } catch (IOException e) {
+            closeManifest();
+            throw e;
+        }
+        if (edit.getLogNumber() >= 0) {
+            logNumber = edit.getLogNumber();
+        }
+        install(next);
+        return next;
+    }
+
+    /**
+     * @return the current version, not pinned.
+     */
+    public Version getCurrent() {
+        return current;
+    }
+
+    /**
+     * Pin the current version, it must be unref() after used.
+     */
+    public Version pin() {
+        while (true) {
+            Version version = current;
+            if (version.tryRef()) {
+                return version;
+            }
+            // replaced and released by all meanwhile, a newer one is current
+        }
+    }
+
+    synchronized long getLogNumber() {
+        return logNumber;
+    }
+
+    /**
+     * @return true if a live version has the table file.
+     */
+    synchronized boolean isLive(long fileNumber) {
+        return liveFiles.containsKey(fileNumber);
+    }
+
+    /**
+     * @return the number of a table file no live version has, or null if no such one.
+     */
+    Long pollObsoleteFile() {
+        return obsoleteFiles.poll();
+    }
+
+    void markFileNumberUsed(long number) {
+        long next = nextFileNumber.get();
+        while (next <= number && ! nextFileNumber.compareAndSet(next, number + 1)) {
+            next = nextFileNumber.get();
+        }
+    }
+
+    /**
+     * Called by Version.unref() once it is released by all.
+     */
+    synchronized void release(Version version) {
+        for (int level = 0; level < Version.NUM_LEVELS; level ++) {
+            for (FileMetaData file : version.getFiles(level)) {
+                long number = file.getNumber();
+                int count = liveFiles.get(number) - 1;
+                if (count == 0) {
+                    liveFiles.remove(number);
+                    obsoleteFiles.add(number);
+                }
+                else {
+                    liveFiles.put(number, count);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeManifest();
+    }
+
+    /**
+     * The files of the next version are counted before the current one is
+     * released, so the files in both are never obsolete.
+     */
+    private synchronized void install(Version next) {
+        for (int level = 0; level < Version.NUM_LEVELS; level ++) {
+            for (FileMetaData file : next.getFiles(level)) {
+                liveFiles.merge(file.getNumber(), 1, Integer::sum);
+            }
+        }
+        next.ref(this);
+        Version old = current;
+        current = next;
+        if (old != null) {
+            old.unref();
+        }
+    }
+
+    private void closeManifest() throws IOException {
+        if (manifest != null) {
+            LogWriter writer = manifest;
+            manifest = null;
+            writer.close();
+        }
+    }
+}
@@ -2,10 +2,10 @@ package emengjzs.emengdb.db;
 
 import emengjzs.emengdb.util.byt.Slice;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /*
  * Copyright (c) 2017 emengjzs. All rights reserved.
@@ -13,13 +13,13 @@ import java.util.Map;
  * found in the LICENSE file.
  */
 public class WriteBatch {
-    List<Map.Entry<byte[], byte[]>> contents;
+    List<Record> contents;
     int size = 0;
     long seq;
 
 
 
-    WriteBatch() {
+    public WriteBatch() {
         contents = new ArrayList<>();
         size = 0;
     }
@@ -27,19 +27,26 @@ public class WriteBatch {
 
     public void add(WriteBatch writeBatch) {
         contents.addAll(writeBatch.contents);
-        size += contents
-            .stream()
-            .map(kv -> kv.getValue().length + kv.getKey().length)
-            .reduce(0, (a, b) -> a + b);
+        size += writeBatch.size;
     }
 
     public void delete(Slice key) {
-
+        add(ValueType.DELETE, key.toBytes(), new byte[0]);
     }
 
     public void add(Slice key, Slice value) {
+        add(ValueType.VALUE, key.toBytes(), value.toBytes());
+    }
 
+    void add(ValueType type, byte[] key, byte[] value) {
+        contents.add(new Record(type, key, value));
+        size += key.length + value.length;
+    }
 
+    void clear() {
+        contents.clear();
+        size = 0;
+        seq = 0;
     }
 
 
@@ -51,8 +58,22 @@ public class WriteBatch {
         return contents.size();
     }
 
-    Iterator<Map.Entry<byte[], byte[]>> iterator() {
+    Iterator<Record> iterator() {
         return contents.iterator();
     }
 
+
+    /**
+     * key -> value with the operation type, a deletion holds an empty value.
+     */
+    static class Record extends AbstractMap.SimpleImmutableEntry<byte[], byte[]> {
+
+        final ValueType type;
+
+        Record(ValueType type, byte[] key, byte[] value) {
+            super(key, value);
+            this.type = type;
+        }
+    }
+
 }
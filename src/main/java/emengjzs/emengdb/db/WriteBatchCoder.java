@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Here defines the encode and decode of the WriteBatch, the encoded
+ * batch is the data of a record in the log.
+ */
+public class WriteBatchCoder {
+
+    static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Encode as:
+     * +----------+----------+------------+---------------+------------+---------------+--------------+-----
+     * |   seq    |   count  | key1.type  |   key1.length | key1.value | value1.length | value1.value | ...
+     * +----------+----------+------------+---------------+------------+---------------+--------------+-----
+     * |    8     |     4    |      1     |       4       | key1.length|       4       | value1.length|
+     * ---------------------------------------------------------------------------------------------------
+     *
+     * @param writeBatch the contents to be encoded
+     * @return Slice byte array;
+     */
+    public Slice encode(WriteBatch writeBatch) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput(
+                HEADER_SIZE + writeBatch.getDataSize()
+                        + writeBatch.getDataCount() * (1 + Integer.BYTES + Integer.BYTES));
+        out.writeLong(writeBatch.seq);
+        out.writeInt(writeBatch.getDataCount());
+        writeBatch.contents.forEach(kv -> {
+            out.writeByte(kv.type.toByte());
+            out.writeInt(kv.getKey().length);
+            out.write(kv.getKey());
+            out.writeInt(kv.getValue().length);
+            out.write(kv.getValue());
+        });
+        return Slice.from(out.toByteArray());
+    }
+
+
+    /**
+     * Decode the data of a log record, keys and values are copied
+     * so the batch does not share the bytes of the slice, which may be
+     * a view of the reader buffer.
+     *
+     * @throws IllegalArgumentException if the data is broken.
+     */
+    public WriteBatch decode(Slice data) {
+        ByteBuffer bf = data.toByteBuffer();
+        Validate.isTrue(bf.remaining() >= HEADER_SIZE, "WriteBatch header is broken.");
+
+        WriteBatch writeBatch = new WriteBatch();
+        writeBatch.seq = bf.getLong();
+        int count = bf.getInt();
+
+        for (int i = 0; i < count; i ++) {
+            Validate.isTrue(bf.remaining() >= 1 + Integer.BYTES, "WriteBatch record is broken.");
+            ValueType type = ValueType.of(bf.get());
+            byte[] key = readBytes(bf);
+            Validate.isTrue(bf.remaining() >= Integer.BYTES, "WriteBatch record is broken.");
+            byte[] value = readBytes(bf);
+
+            Validate.isTrue(type != ValueType.UNKNOWN, "Unknown ValueType in WriteBatch.");
+            writeBatch.add(type, key, value);
+        }
+        return writeBatch;
+    }
+
+    private byte[] readBytes(ByteBuffer bf) {
+        int length = bf.getInt();
+        Validate.isTrue(length >= 0 && bf.remaining() >= length, "WriteBatch key or value is broken.");
+        byte[] bytes = new byte[length];
+        bf.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slow down or stop the writes when the flushes or the compactions fall
+ * behind, so the memtables and level 0 do not grow without a bound.
+ *
+ * Three things are watched, the memtables waiting to be flushed, the files
+ * of level 0 and the bytes the compactions have to rewrite, each has a
+ * slowdown trigger and a stop trigger in the Options. Between the two, a
+ * write is delayed as if the writes were limited to delayedWriteRate, the
+ * rate is lowered the closer it gets to the stop trigger. At the stop
+ * trigger, the writes wait until the background work catches up.
+ */
+public class WriteController {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Options options;
+
+    // when the next write delayed may go, used by the leader of a write group only
+    private long nextWriteNanos;
+
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder stoppedWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    public WriteController(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * @param waitingMemTables the immutable memtables, and the current one if it is full.
+     * @return 0 if the writes go on as usual, 1 if they are stopped, or a
+     * value between them for how close they are to be stopped.
+     */
+    public double getPressure(int waitingMemTables, int level0Files, long pendingCompactionBytes) {
+        double pressure = pressure(waitingMemTables,
+                options.getMemTableSlowdownWritesTrigger(), options.getMemTableStopWritesTrigger());
+        pressure = Math.max(pressure, pressure(level0Files,
+                options.getLevel0SlowdownWritesTrigger(), options.getLevel0StopWritesTrigger()));
+        return Math.max(pressure, pressure(pendingCompactionBytes,
+                options.getSoftPendingCompactionBytesLimit(), options.getHardPendingCompactionBytesLimit()));
+    }
+
+    /**
+     * @return how long the write of the bytes is to be delayed, the
+     * delays of the writes one after another add up to the rate.
+     */
+    long getDelayNanos(long bytes, double pressure) {
+        long rate = Math.max(1, (long) (options.getDelayedWriteRate() * (1 - pressure)));
+        long now = System.nanoTime();
+        // no credit for the time no write is delayed
+        if (nextWriteNanos - now < 0) {
+            nextWriteNanos = now;
+        }
+        nextWriteNanos += bytes * NANOS_PER_SECOND / rate;
+        return nextWriteNanos - now;
+    }
+
+    void addDelay(long nanos) {
+        delayedWrites.increment();
+        stallNanos.add(nanos);
+    }
+
+    void addStop(long nanos) {
+        stoppedWrites.increment();
+        stallNanos.add(nanos);
+    }
+
+    public long getDelayedWriteCount() {
+        return delayedWrites.sum();
+    }
+
+    public long getStoppedWriteCount() {
+        return stoppedWrites.sum();
+    }
+
+    /**
+     * @return the time the writes are delayed or stopped in total.
+     */
+    public long getStallNanos() {
+        return stallNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteController{delayedWrites=" + getDelayedWriteCount() + ", stoppedWrites="
+                + getStoppedWriteCount() + ", stallMillis=" + TimeUnit.NANOSECONDS.toMillis(getStallNanos()) + '}';
+    }
+
+    /**
+     * @param slowdown 0 for no slowdown.
+     * @param stop 0 for no stop, or no more than slowdown.
+     */
+    static double pressure(long value, long slowdown, long stop) {
+        if (stop > 0 && value >= stop) {
+            return 1;
+        }
+        if (slowdown <= 0 || value < slowdown) {
+            return 0;
+        }
+        if (stop <= slowdown) {
+            // delayed at delayedWriteRate, never stopped
+            return Double.MIN_VALUE;
+        }
+        // more than 0 at the slowdown trigger
+        return (double) (value - slowdown + 1) / (stop - slowdown + 1);
+    }
+}
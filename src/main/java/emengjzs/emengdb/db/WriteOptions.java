@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+/**
+ * Options of a single write, override the db options for the batch.
+ */
+public class WriteOptions {
+
+    // null means following the Options.SyncPolicy
+    private Boolean sync;
+
+
+    public WriteOptions() {
+    }
+
+    public WriteOptions(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * @param sync true to force the log of the batch to the disk before
+     *             the write returns, false to skip the sync of the batch.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    boolean isSync(Options.SyncPolicy policy) {
+        if (sync != null) {
+            return sync;
+        }
+        return policy == Options.SyncPolicy.EVERY_WRITE || policy == Options.SyncPolicy.GROUP;
+    }
+}
@@ -4,15 +4,17 @@
 
 package emengjzs.emengdb.log;
 
+import emengjzs.emengdb.util.Crc32C;
 import emengjzs.emengdb.util.byt.Slice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import static emengjzs.emengdb.log.LogFileException.Type.RECORD_DATA_ERROR;
 
@@ -22,48 +24,118 @@ import static emengjzs.emengdb.log.LogFileException.Type.RECORD_DATA_ERROR;
 
 /**
  * Need external synchronization to be thread safe
+ *
+ * The reader reads a block with a positional read each time, a sub-class
+ * may supply the blocks in another way by overriding loadBlock(). Reaching
+ * the end of the log, it can be called again to read the data appended later.
+ *
+ * Starting from an offset other than 0, e.g. a block boundary, the fragments
+ * before the first FIRST_TYPE or FULL_TYPE record are skipped, which are the
+ * tail of a data started before the offset.
  */
-public class LogReader extends LogFormat {
+public class LogReader extends LogFormat implements Closeable {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     private LogErrorListener logErrorListener;
 
-    private RandomAccessFile randomAccessFile;
+    protected RandomAccessFile randomAccessFile;
     private long initialOffset;
+
+    // the current block, may be only a part of the block at the end of the file
     private ByteBuffer bf;
+    private ByteBuffer blockBuffer;
+
+    private final Crc32C crc = Crc32C.create();
+
+    // the data of the last record read in bf
+    private int recordStart;
+    private int recordLength;
+
+    // assemble the fragmented data
+    private byte[] fragmentBuffer = new byte[K_BLOCK_SIZE];
+    private int fragmentSize;
+
+    // the file offset of the block in the buffer
+    private long blockFileOffset;
+
+    // the end of the written data is reached in the block,
+    // load it again next time for the data appended
+    private boolean reloadBlock;
+
+    // skipping the fragments of the data started before the initial offset
+    private boolean resyncing;
+
+    // the file offset of the first record of the last data returned
+    private long lastDataStartOffset;
+
+    // the file offset just after the last data returned
+    private long lastDataEndOffset;
 
-    LogReader(RandomAccessFile file, long initialOffset) {
+    public LogReader(RandomAccessFile file, long initialOffset) {
         this.randomAccessFile = file;
         this.initialOffset = initialOffset;
-        bf = ByteBuffer.allocateDirect(K_BLOCK_SIZE);
-        seekToInitBlock();
+        this.lastDataStartOffset = initialOffset;
+        this.lastDataEndOffset = initialOffset;
+        this.resyncing = initialOffset > 0;
     }
 
-    private void seekToInitBlock() {
-        long inBlockOffSet = initialOffset % K_BLOCK_SIZE;
-        long blockOffSet = initialOffset - inBlockOffSet;
-        try {
-            randomAccessFile.seek(blockOffSet);
-            readNextBlock(bf);
-        } catch (IOException e) {
-            log.error("InitialOffset overlap.");
-        }
+    // called before the first read rather than in the constructor,
+    // so that a sub-class has been initialized when loading the block.
+    private void seekTo(long offset) throws IOException {
+        long inBlockOffSet = offset % K_BLOCK_SIZE;
+        long blockOffSet = offset - inBlockOffSet;
+        bf = loadBlock(blockOffSet);
+        blockFileOffset = blockOffSet;
+        bf.position((int) Math.min(inBlockOffSet, bf.limit()));
+    }
+
+
+    /**
+     * @return the offset of the header of the first record of the last data.
+     */
+    public long getLastDataStartOffset() {
+        return lastDataStartOffset;
     }
 
+    /**
+     * @return the offset where the next data would be appended, the part
+     * after it is a torn or broken tail.
+     */
+    public long getLastDataEndOffset() {
+        return lastDataEndOffset;
+    }
 
 
-    Slice readNextData() throws LogFileException {
-        ByteArrayOutputStream byteBuilder = new ByteArrayOutputStream(64);
+    /**
+     * A FULL_TYPE data is a view of the block buffer, and fragmented data is
+     * assembled in a buffer reused by the reader, so the returned slice is
+     * only valid until the next call, copy it if it needs to be kept.
+     *
+     * @return the next data in the log, or null when reaching the end of the log.
+     * A data whose tail is missing (e.g. not fully written before a crash) is dropped.
+     */
+    public Slice readNextData() throws LogFileException {
         RecordType type;
-        Slice slice;
         boolean inReading = false;
 
+        if (bf == null) {
+            try {
+                seekTo(initialOffset);
+            } catch (IOException e) {
+                throw new LogFileException(LogFileException.Type.UNKNOWN_IO_ERROR, e);
+            }
+        }
+
         while (true) {
-            type = readNextRecord(bf, byteBuilder);
+            type = readNextRecord();
 
             switch (type) {
                 case FIRST_TYPE: {
                     if ( ! inReading) {
                         inReading = true;
+                        resyncing = false;
+                        lastDataStartOffset = recordHeaderOffset();
+                        fragmentSize = 0;
+                        appendFragment();
                     }
                     else {
                         throw new LogFileException(LogFileException.Type.RECORD_DATA_ERROR);
@@ -73,8 +145,10 @@ public class LogReader extends LogFormat {
 
                 case FULL_TYPE: {
                     if (! inReading) {
-                        inReading = true;
-                        return Slice.from(byteBuilder.toByteArray());
+                        resyncing = false;
+                        lastDataStartOffset = recordHeaderOffset();
+                        lastDataEndOffset = blockFileOffset + bf.position();
+                        return Slice.from(bf, recordStart, recordLength);
                     }
                     else {
                         throw new LogFileException(LogFileException.Type.RECORD_DATA_ERROR);
@@ -83,16 +157,37 @@ public class LogReader extends LogFormat {
 
                 case MIDDLE_TYPE: {
                     if (! inReading) {
+                        if (resyncing) {
+                            break;
+                        }
                         throw new LogFileException(LogFileException.Type.RECORD_DATA_ERROR);
                     }
+                    appendFragment();
                     break;
                 }
 
                 case LAST_TYPE: {
                     if (! inReading) {
+                        if (resyncing) {
+                            break;
+                        }
                         throw new LogFileException(LogFileException.Type.RECORD_DATA_ERROR);
                     }
-                    return Slice.from(byteBuilder.toByteArray());
+                    appendFragment();
+                    lastDataEndOffset = blockFileOffset + bf.position();
+                    return Slice.from(fragmentBuffer, 0, fragmentSize);
+                }
+
+                case EOF: {
+                    if (inReading) {
+                        // go back to the first fragment, the rest may come later
+                        try {
+                            seekTo(lastDataEndOffset);
+                        } catch (IOException e) {
+                            throw new LogFileException(LogFileException.Type.UNKNOWN_IO_ERROR, e);
+                        }
+                    }
+                    return null;
                 }
 
                 default: {
@@ -106,43 +201,68 @@ public class LogReader extends LogFormat {
 
     }
 
+    private long recordHeaderOffset() {
+        return blockFileOffset + recordStart - K_HEADER_SIZE;
+    }
 
-    private RecordType readNextRecord(ByteBuffer bf, ByteArrayOutputStream byteBuilder) throws LogFileException {
+    /**
+     * copy the data of the last record to the end of the fragment buffer
+     */
+    private void appendFragment() {
+        if (fragmentBuffer.length - fragmentSize < recordLength) {
+            fragmentBuffer = Arrays.copyOf(fragmentBuffer,
+                    Math.max(fragmentBuffer.length << 1, fragmentSize + recordLength));
+        }
+        int recordEnd = bf.position();
+        bf.position(recordStart);
+        bf.get(fragmentBuffer, fragmentSize, recordLength);
+        bf.position(recordEnd);
+        fragmentSize += recordLength;
+    }
+
+
+    /**
+     * Read the header and check the data of the next record in the block,
+     * the data is left in the buffer at [recordStart, recordStart + recordLength).
+     */
+    private RecordType readNextRecord() throws LogFileException {
         try {
             // skip short dummy zero
-            if (bf.remaining() < K_HEADER_SIZE && (! readNextBlock(bf))) {
+            if ((reloadBlock || bf.remaining() < K_HEADER_SIZE) && (! readNextBlock())) {
                 return RecordType.EOF;
             }
-            // CRC omit
-            int crc = bf.getInt();
+            int expectedCrc = Crc32C.unmask(bf.getInt());
             int length = Short.toUnsignedInt(bf.getShort());
             RecordType type = RecordType.of(bf.get());
 
-            if (bf.remaining() < length) {
-                throw new LogFileException(RECORD_DATA_ERROR);
+            // the zero-filled tail pre-allocated by a mmap writer,
+            // or a record not fully written at the end of the file.
+            if ((type == RecordType.ZERO_TYPE && length == 0)
+                    || (bf.remaining() < length && bf.limit() < K_BLOCK_SIZE)) {
+                // leave the header to be read again when more data comes
+                bf.position(bf.position() - K_HEADER_SIZE);
+                reloadBlock = true;
+                return RecordType.EOF;
             }
 
-             /*
-            if (log.isDebugEnabled()) {
-                log.debug("[LOG FILE] Read: {}, {} - [{}]",
-                        type.toString(),
-                        length,
-                        new Slice(bf.array(), bf.arrayOffset() + bf.position(), length).toByteString());
-            }
-            */
-            for (int i = 0; i < length; i ++) {
-                byteBuilder.write(bf.get());
+            if (bf.remaining() < length) {
+                throw new LogFileException(RECORD_DATA_ERROR);
             }
-            // Slice record = new Slice(bf.array(), bf.arrayOffset() + bf.position(), length);
-            // byteBuilder.writeUTF8(bf.array(), bf.arrayOffset() + bf.position(), length);
-
-
 
-            if (crc != 0x12345678) {
+            // check the type and the data in place
+            int dataStart = bf.position();
+            int blockLimit = bf.limit();
+            crc.reset();
+            crc.update(type.id);
+            bf.limit(dataStart + length);
+            crc.update(bf);
+            bf.limit(blockLimit);
+            if (crc.getValue() != expectedCrc) {
                 throw new LogFileException(LogFileException.Type.CRC_NOT_MATCH_ERROR);
             }
 
-
+            recordStart = dataStart;
+            recordLength = length;
             return type;
 
         } catch (IOException e) {
@@ -153,21 +273,67 @@ public class LogReader extends LogFormat {
     }
 
     /**
-     * read the next full block data from the physical file to the buffer
+     * Move to the next block which has a record. A partial block at the end
+     * of the file, or a block where the end of the written data is reached,
+     * is loaded again in case that more data has been appended.
      *
-     * @param bf
+     * @return false if no more record in the file now.
      */
-    private boolean readNextBlock(ByteBuffer bf) throws IOException {
-        FileChannel channel = randomAccessFile.getChannel();
+    private boolean readNextBlock() throws IOException {
+        while (true) {
+            long blockOffset = blockFileOffset;
+            int position = 0;
+            if (reloadBlock || bf.limit() < K_BLOCK_SIZE) {
+                position = bf.position();
+            }
+            else {
+                blockOffset += K_BLOCK_SIZE;
+            }
+            reloadBlock = false;
+            bf = loadBlock(blockOffset);
+            blockFileOffset = blockOffset;
+            bf.position(Math.min(position, bf.limit()));
 
-        bf.clear();
-        // writeUTF8 to buffer
+            if (bf.remaining() >= K_HEADER_SIZE) {
+                return true;
+            }
+            if (bf.limit() < K_BLOCK_SIZE) {
+                return false;
+            }
+            // only the padding of the block left
+        }
+    }
 
-        int read = channel.read(bf);
+    /**
+     * read the block data at the offset from the physical file to the buffer
+     *
+     * @param blockOffset the offset of the block in the file, aligned to the block size.
+     * @return the data of the block with position 0, the limit is less than the block
+     * size if the block is the last one of the file.
+     */
+    protected ByteBuffer loadBlock(long blockOffset) throws IOException {
+        FileChannel channel = randomAccessFile.getChannel();
+        if (blockBuffer == null) {
+            blockBuffer = ByteBuffer.allocateDirect(K_BLOCK_SIZE);
+        }
+        blockBuffer.clear();
+        // positional read, not affected by the position of the channel
+        while (blockBuffer.hasRemaining()) {
+            if (channel.read(blockBuffer, blockOffset + blockBuffer.position()) < 0) {
+                break;
+            }
+        }
         // set up to read from buffer
-        bf.flip();
-        return read > 0;
+        blockBuffer.flip();
+        return blockBuffer;
     }
 
+    /**
+     * The file is not closed, which is owned by the caller.
+     */
+    @Override
+    public void close() throws IOException {
+
+    }
 
 }
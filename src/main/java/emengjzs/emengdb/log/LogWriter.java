@@ -4,8 +4,10 @@
 
 package emengjzs.emengdb.log;
 
+import emengjzs.emengdb.util.Crc32C;
 import emengjzs.emengdb.util.byt.Slice;
 import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.byt.SliceByteStreamHandler;
 import emengjzs.emengdb.util.io.PrimitiveWritable;
 import emengjzs.emengdb.util.io.WritableFile;
 import org.slf4j.Logger;
@@ -22,15 +24,36 @@ public class LogWriter extends LogFormat {
 
     private int blockOffset = 0;
 
+    private boolean closed;
+
+    private final Crc32C crc = Crc32C.create();
+
+    private final SliceByteStreamHandler crcUpdater = crc::update;
+
     public LogWriter(WritableFile writableFile) {
+        this(writableFile, 0);
+    }
+
+    /**
+     * @param fileOffset the offset in the file where the writable file starts
+     *                   to append, e.g. the end of an existing log.
+     */
+    public LogWriter(WritableFile writableFile, long fileOffset) {
         this.writableFile = new PrimitiveWritable(writableFile);
+        this.blockOffset = (int) (fileOffset % K_BLOCK_SIZE);
     }
 
     // for zero-filled
     private final byte[] dummyBytes = new byte[]{0, 0, 0, 0, 0, 0};
 
+    /**
+     * Append the data as one or more records. The data is flushed to
+     * the writable file once, but not synced to the disk.
+     *
+     * It is safe to sync from another thread while appending.
+     */
     // TODO: consider the zero-length empty data
-    public void addData(Slice data) throws IOException {
+    public synchronized void addData(Slice data) throws IOException {
         int leftSize = data.length();
         int blockLeftSize = 0;
 
@@ -81,6 +104,29 @@ public class LogWriter extends LogFormat {
             }
 
         }
+        writableFile.flush();
+    }
+
+    /**
+     * Force the appended records to the disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (closed) {
+            return;
+        }
+        writableFile.flush();
+        writableFile.sync();
+    }
+
+    /**
+     * Sync is a no-op after closed, so that a background sync does not
+     * fail on a log just switched.
+     */
+    public synchronized void close() throws IOException {
+        if (! closed) {
+            closed = true;
+            writableFile.close();
+        }
     }
 
     private int addRecord(RecordType type, Slice data, int start, int length) throws IOException {
@@ -95,13 +141,16 @@ public class LogWriter extends LogFormat {
         // here write header separately is better than write from
         // an array because it cost time to apply for a new array
 
-        // omit the part of CRC
-        writableFile.writeInt(0x12345678);
+        // masked CRC of the type and the data, no copy of the data
+        crc.reset();
+        crc.update(type.id);
+        data.subSlice(start, length).serialize(crcUpdater);
+
+        writableFile.writeInt(Crc32C.mask(crc.getValue()));
         writableFile.writeShort(length & 0xFFFF);
         writableFile.writeByte(type.id);
         writableFile.write(data.subSlice(start, length));
         // writableFile.write(data.array(), data.getStart() + start, length);
-        writableFile.flush();
         /*
         if (log.isDebugEnabled()) {
             log.debug("[LOG FILE] Write: {}, {} - [{}]",
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.log;
+
+import emengjzs.emengdb.util.io.UmmapWorker;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Map the log into memory window by window, and walk the blocks in the
+ * mapped window in place, so there is no system call for each block.
+ *
+ * A window is unmapped as soon as the reader moves out of it, the data
+ * returned must not be used after the next read, or the JVM may crash
+ * accessing the unmapped memory.
+ */
+public class MmapLogReader extends LogReader {
+
+    public static final long DEFAULT_WINDOW_SIZE = 64L << 20;
+
+    private static final ByteBuffer EMPTY_BLOCK = ByteBuffer.allocate(0);
+
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+
+    private long windowFileOffset;
+
+    // the file size known last time, only ask the file again when reaching it
+    private long fileSize;
+
+    private final UmmapWorker unmapWorker = new UmmapWorker();
+
+    public MmapLogReader(RandomAccessFile file, long initialOffset) {
+        this(file, initialOffset, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize the size of each mapping, rounded to the block size
+     *                   so that a block never crosses two windows.
+     */
+    public MmapLogReader(RandomAccessFile file, long initialOffset, long windowSize) {
+        super(file, initialOffset);
+        this.windowSize = Math.max(K_BLOCK_SIZE, windowSize - windowSize % K_BLOCK_SIZE);
+    }
+
+    @Override
+    protected ByteBuffer loadBlock(long blockOffset) throws IOException {
+        FileChannel channel = randomAccessFile.getChannel();
+        if (blockOffset + K_BLOCK_SIZE > fileSize) {
+            fileSize = channel.size();
+        }
+        int blockLength = (int) Math.max(0, Math.min(K_BLOCK_SIZE, fileSize - blockOffset));
+        if (blockLength == 0) {
+            return EMPTY_BLOCK.duplicate();
+        }
+
+        if (window == null || blockOffset < windowFileOffset
+                || blockOffset + blockLength > windowFileOffset + window.capacity()) {
+            remap(channel, blockOffset);
+        }
+        ByteBuffer block = window.duplicate();
+        int start = (int) (blockOffset - windowFileOffset);
+        block.limit(start + blockLength).position(start);
+        return block.slice();
+    }
+
+    private void remap(FileChannel channel, long offset) throws IOException {
+        unmap();
+        windowFileOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, fileSize - offset));
+    }
+
+    private void unmap() {
+        if (window != null) {
+            unmapWorker.unMapSync(window);
+            window = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        unmap();
+        unmapWorker.close();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.log;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import emengjzs.emengdb.util.byt.Slice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static emengjzs.emengdb.log.LogFormat.K_BLOCK_SIZE;
+
+/**
+ * Replay a log with several threads.
+ *
+ * The log is split into segments at block boundaries. Each segment is read,
+ * checked and decoded by a worker, and the decoded data is handed to the
+ * consumer segment by segment in the order of the log on the calling thread,
+ * just as a sequential replay would do.
+ *
+ * A data belongs to the segment where its first record starts, so a worker
+ * skips the fragments at the head of its segment, and reads beyond the end
+ * of its segment to complete the last data. Like LogReader, the replay stops
+ * at the end of the written data, the segments after it are dropped.
+ */
+public class ParallelLogReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelLogReader.class);
+
+    // not worth a thread for a smaller segment
+    public static final long MIN_SEGMENT_SIZE = 1L << 20;
+
+    private final RandomAccessFile file;
+    private final int threads;
+    private final boolean mmap;
+
+    private long lastDataEndOffset;
+
+    // the replay is over, the rest of the segments are no longer needed
+    private volatile boolean stopped;
+
+    /**
+     * @param file the log, which is not closed by the reader.
+     * @param threads the number of the workers.
+     * @param mmap read the segments by MmapLogReader.
+     */
+    public ParallelLogReader(RandomAccessFile file, int threads, boolean mmap) {
+        this.file = file;
+        this.threads = Math.max(1, threads);
+        this.mmap = mmap;
+    }
+
+    /**
+     * @return the offset where the next data would be appended after the replay.
+     */
+    public long getLastDataEndOffset() {
+        return lastDataEndOffset;
+    }
+
+    /**
+     * @param decoder decode a data in a worker, the slice is only valid in the call.
+     * @param consumer accept the decoded data in the order of the log.
+     * @throws LogFileException if a record is broken, and RuntimeException thrown by
+     * the decoder, after all the data before the broken one is consumed.
+     */
+    public <T> void replay(Function<Slice, T> decoder, Consumer<? super T> consumer)
+            throws IOException, LogFileException {
+        long fileSize = file.length();
+        int segmentCount = (int) Math.max(1, Math.min(threads * 4L, fileSize / MIN_SEGMENT_SIZE));
+        long segmentSize = (fileSize + segmentCount - 1) / segmentCount;
+        segmentSize = Math.max(K_BLOCK_SIZE, segmentSize + (K_BLOCK_SIZE - segmentSize % K_BLOCK_SIZE) % K_BLOCK_SIZE);
+
+        // reset before any worker starts, the last replay leaves it stopped
+        stopped = false;
+        lastDataEndOffset = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, segmentCount),
+                new ThreadFactoryBuilder().setNameFormat("emengdb-log-replay-%d").setDaemon(true).build());
+        try {
+            List<Future<Segment<T>>> segments = new ArrayList<>(segmentCount);
+            for (long start = 0; start < fileSize || start == 0; start += segmentSize) {
+                long segmentStart = start;
+                long segmentEnd = Math.min(fileSize, start + segmentSize);
+                segments.add(executor.submit(() -> readSegment(segmentStart, segmentEnd, decoder)));
+            }
+
+            for (Future<Segment<T>> future : segments) {
+                Segment<T> segment;
+                try {
+                    segment = Uninterruptibles.getUninterruptibly(future);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+                segment.data.forEach(consumer);
+                lastDataEndOffset = Math.max(lastDataEndOffset, segment.endOffset);
+                if (segment.error instanceof LogFileException) {
+                    throw (LogFileException) segment.error;
+                }
+                if (segment.error instanceof RuntimeException) {
+                    throw (RuntimeException) segment.error;
+                }
+                if (! segment.complete) {
+                    break;
+                }
+            }
+        } finally {
+            // not to interrupt the workers, which closes the file channel
+            stopped = true;
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+                LOGGER.warn("Waiting for the log replay workers to stop");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> Segment<T> readSegment(long start, long end, Function<Slice, T> decoder) {
+        Segment<T> segment = new Segment<>();
+        try (LogReader reader = mmap ? new MmapLogReader(file, start) : new LogReader(file, start)) {
+            Slice data;
+            while (! stopped && (data = reader.readNextData()) != null) {
+                if (reader.getLastDataStartOffset() >= end) {
+                    segment.complete = true;
+                    break;
+                }
+                segment.data.add(decoder.apply(data));
+                segment.endOffset = reader.getLastDataEndOffset();
+            }
+        } catch (LogFileException | RuntimeException e) {
+            segment.error = e;
+        } catch (IOException e) {
+            segment.error = new LogFileException(LogFileException.Type.UNKNOWN_IO_ERROR, e);
+        }
+        return segment;
+    }
+
+
+    /**
+     * The decoded data of a segment.
+     */
+    private static class Segment<T> {
+        final List<T> data = new ArrayList<>();
+        long endOffset;
+        // stopped at a data started in the next segment rather than the end of the log
+        boolean complete;
+        Exception error;
+    }
+}
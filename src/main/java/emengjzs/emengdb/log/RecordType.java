@@ -22,7 +22,7 @@ public enum RecordType {
     final static int NUMS = RecordType.values().length;
 
     static RecordType of(int id) throws LogFileException {
-        if (id < 0 || id > NUMS) {
+        if (id < 0 || id >= NUMS) {
             throw new LogFileException(LogFileException.Type.UNKNOWN_RECORD_TYPE_ERROR);
         }
         return RecordType.values()[id];
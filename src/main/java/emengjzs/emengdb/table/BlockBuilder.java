@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Bits;
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.VarintCoder;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.Arrays;
+
+/**
+ * Build a block in the layout of TableBlock. A key only keeps the part not
+ * shared with the previous key, except the key on a restart point, which is
+ * kept whole every restartInterval keys, so a reader can start decoding there.
+ *
+ * The keys must be added in order, which is checked by the TableBuilder.
+ * Not thread safe.
+ */
+public class BlockBuilder {
+
+    public static final int DEFAULT_RESTART_INTERVAL = 16;
+
+    private final int restartInterval;
+
+    private byte[] buffer = new byte[1024];
+    private int size;
+
+    private int[] restarts = new int[16];
+    private int numOfRestarts;
+
+    // the keys added since the last restart point
+    private int counter;
+
+    private byte[] lastKey = new byte[64];
+    private int lastKeyLength;
+
+    private boolean finished;
+
+    public BlockBuilder() {
+        this(DEFAULT_RESTART_INTERVAL);
+    }
+
+    public BlockBuilder(int restartInterval) {
+        Validate.isTrue(restartInterval >= 1, "Restart interval should be positive.");
+        this.restartInterval = restartInterval;
+        reset();
+    }
+
+    /**
+     * Clear the block to build a new one.
+     */
+    public void reset() {
+        size = 0;
+        restarts[0] = 0;
+        numOfRestarts = 1;
+        counter = 0;
+        lastKeyLength = 0;
+        finished = false;
+    }
+
+    public void add(Slice key, Slice value) {
+        Validate.isTrue(! finished, "Block is finished.");
+        int shared = 0;
+        if (counter < restartInterval) {
+            int minLength = Math.min(lastKeyLength, key.length());
+            while (shared < minLength && lastKey[shared] == key.get(shared)) {
+                shared ++;
+            }
+        }
+        else {
+            if (numOfRestarts == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restarts.length << 1);
+            }
+            restarts[numOfRestarts ++] = size;
+            counter = 0;
+        }
+        int unshared = key.length() - shared;
+
+        ensureCapacity(3 * VarintCoder.MAX_VARINT32_LENGTH + unshared + value.length());
+        size = VarintCoder.putVarint32(buffer, size, shared);
+        size = VarintCoder.putVarint32(buffer, size, unshared);
+        size = VarintCoder.putVarint32(buffer, size, value.length());
+        for (int i = shared; i < key.length(); i ++) {
+            buffer[size ++] = key.get(i);
+        }
+        for (int i = 0; i < value.length(); i ++) {
+            buffer[size ++] = value.get(i);
+        }
+
+        if (lastKey.length < key.length()) {
+            lastKey = Arrays.copyOf(lastKey, Math.max(lastKey.length << 1, key.length()));
+        }
+        for (int i = shared; i < key.length(); i ++) {
+            lastKey[i] = key.get(i);
+        }
+        lastKeyLength = key.length();
+        counter ++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the size of the block if it is finished now.
+     */
+    public int currentSizeEstimate() {
+        return size + numOfRestarts * Integer.BYTES + Integer.BYTES;
+    }
+
+    /**
+     * Append the restart points, the builder can not be added any more
+     * until reset.
+     *
+     * @return the content of the block.
+     */
+    public byte[] finish() {
+        Validate.isTrue(! finished, "Block is finished.");
+        byte[] block = Arrays.copyOf(buffer, currentSizeEstimate());
+        int offset = size;
+        for (int i = 0; i < numOfRestarts; i ++) {
+            Bits.putInt(block, offset, restarts[i]);
+            offset += Integer.BYTES;
+        }
+        Bits.putInt(block, offset, numOfRestarts);
+        finished = true;
+        return block;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + extra));
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Validate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A cache of the data blocks of all the tables, keyed by the number of the
+ * table file and the offset of the block. The numbers of the files are
+ * never reused, so the blocks of a deleted table just age out.
+ *
+ * The cache is split into shards by the hash of the key, each is an LRU of
+ * its own part of the capacity behind its own lock. How a block is kept in
+ * a shard is up to the subclass.
+ *
+ * A block looked up or inserted is pinned until its handle is released, a
+ * pinned block is never evicted or freed.
+ */
+public abstract class BlockCache {
+
+    static final int DEFAULT_SHARD_BITS = 4;
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final long capacity;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    protected BlockCache(long capacity, int shardBits) {
+        Validate.isTrue(capacity >= 0 && shardBits >= 0 && shardBits < 16, "Bad capacity or shard bits.");
+        this.capacity = capacity;
+        int numShards = 1 << shardBits;
+        shards = new Shard[numShards];
+        long shardCapacity = (capacity + numShards - 1) / numShards;
+        for (int i = 0; i < numShards; i ++) {
+            shards[i] = newShard(shardCapacity);
+        }
+        shardMask = numShards - 1;
+    }
+
+    protected abstract Shard newShard(long capacity);
+
+    /**
+     * @return the pinned handle of the block, or null if it is not in the cache.
+     */
+    public Handle lookup(long fileNumber, long offset) {
+        CacheKey key = new CacheKey(fileNumber, offset);
+        Handle handle = shardOf(key).lookup(key);
+        if (handle == null) {
+            missCount.increment();
+        }
+        else {
+            hitCount.increment();
+        }
+        return handle;
+    }
+
+    /**
+     * Put the block into the cache, replacing the old one of the same key.
+     * The block may be copied by the cache, use the one of the handle.
+     *
+     * @return the pinned handle of the block.
+     */
+    public Handle insert(long fileNumber, long offset, TableBlock block) {
+        CacheKey key = new CacheKey(fileNumber, offset);
+        return shardOf(key).insert(key, block);
+    }
+
+    /**
+     * Drop the block from the cache, a pinned one is still valid until released.
+     */
+    public void erase(long fileNumber, long offset) {
+        CacheKey key = new CacheKey(fileNumber, offset);
+        shardOf(key).erase(key);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the bytes taken by the blocks in the cache, pinned ones included.
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private Shard shardOf(CacheKey key) {
+        return shards[key.hashCode() & shardMask];
+    }
+
+
+    /**
+     * A pinned block of the cache, release it after use. A handle not from
+     * the cache holds a block read without caching, release does nothing.
+     */
+    public static class Handle {
+        private final Shard shard;
+        private final CacheKey key;
+        private final TableBlock block;
+        private final int charge;
+
+        // guarded by the lock of the shard
+        private int refs;
+        private boolean inCache;
+        private Handle prev;
+        private Handle next;
+
+        Handle(TableBlock block) {
+            this(null, null, block, 0);
+        }
+
+        protected Handle(Shard shard, CacheKey key, TableBlock block, int charge) {
+            this.shard = shard;
+            this.key = key;
+            this.block = block;
+            this.charge = charge;
+        }
+
+        public TableBlock getBlock() {
+            return block;
+        }
+
+        public void release() {
+            if (shard != null) {
+                shard.release(this);
+            }
+        }
+    }
+
+
+    /**
+     * The LRU of a shard, the unpinned blocks in the cache are linked from
+     * the oldest to the newest. The usage is the charges of the blocks in
+     * the cache, blocks are evicted while it is over the capacity.
+     */
+    protected abstract static class Shard {
+        protected final long capacity;
+        private final Map<CacheKey, Handle> table = new HashMap<>();
+        // the oldest after the head
+        private final Handle lru = new Handle(null);
+        private long usage;
+
+        protected Shard(long capacity) {
+            this.capacity = capacity;
+            lru.prev = lru;
+            lru.next = lru;
+        }
+
+        /**
+         * Keep the block in the shard, called with the lock held.
+         *
+         * @return the handle of the block kept, or null if there is no room.
+         */
+        protected abstract Handle newHandle(CacheKey key, TableBlock block);
+
+        /**
+         * The block is out of the cache and unpinned, called with the lock held.
+         */
+        protected void free(Handle handle) {
+        }
+
+        synchronized Handle lookup(CacheKey key) {
+            Handle handle = table.get(key);
+            if (handle != null) {
+                ref(handle);
+            }
+            return handle;
+        }
+
+        synchronized Handle insert(CacheKey key, TableBlock block) {
+            Handle old = table.remove(key);
+            if (old != null) {
+                remove(old);
+            }
+            Handle handle = newHandle(key, block);
+            if (handle == null) {
+                return new Handle(block);
+            }
+            // one for the caller
+            handle.refs = 1;
+            handle.inCache = true;
+            usage += handle.charge;
+            table.put(key, handle);
+            evictOverCapacity();
+            return handle;
+        }
+
+        synchronized void erase(CacheKey key) {
+            Handle handle = table.remove(key);
+            if (handle != null) {
+                remove(handle);
+            }
+        }
+
+        synchronized void release(Handle handle) {
+            Validate.isTrue(handle.refs > 0, "Block handle is released twice.");
+            handle.refs --;
+            if (handle.refs == 0) {
+                if (handle.inCache) {
+                    append(handle);
+                    evictOverCapacity();
+                }
+                else {
+                    free(handle);
+                }
+            }
+        }
+
+        synchronized long getUsage() {
+            return usage;
+        }
+
+        /**
+         * Evict the oldest unpinned block accepted by the filter, called with the lock held.
+         *
+         * @return false if there is no such block.
+         */
+        protected boolean evictOldest(Predicate<Handle> filter) {
+            for (Handle handle = lru.next; handle != lru; handle = handle.next) {
+                if (filter.test(handle)) {
+                    table.remove(handle.key);
+                    remove(handle);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void evictOverCapacity() {
+            while (usage > capacity && lru.next != lru) {
+                Handle oldest = lru.next;
+                table.remove(oldest.key);
+                remove(oldest);
+            }
+        }
+
+        private void ref(Handle handle) {
+            if (handle.refs == 0) {
+                unlink(handle);
+            }
+            handle.refs ++;
+        }
+
+        /**
+         * Take the handle out of the cache, which has been out of the table.
+         */
+        private void remove(Handle handle) {
+            handle.inCache = false;
+            usage -= handle.charge;
+            if (handle.refs == 0) {
+                unlink(handle);
+                free(handle);
+            }
+        }
+
+        private void append(Handle handle) {
+            handle.next = lru;
+            handle.prev = lru.prev;
+            handle.prev.next = handle;
+            lru.prev = handle;
+        }
+
+        private void unlink(Handle handle) {
+            handle.prev.next = handle.next;
+            handle.next.prev = handle.prev;
+            handle.prev = null;
+            handle.next = null;
+        }
+    }
+
+
+    static class CacheKey {
+        private final long fileNumber;
+        private final long offset;
+
+        CacheKey(long fileNumber, long offset) {
+            this.fileNumber = fileNumber;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (! (o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return fileNumber == that.fileNumber && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            // spread the bits, the offsets of the blocks are close to each other
+            long h = fileNumber * 0x9E3779B97F4A7C15L + offset;
+            h = (h ^ (h >>> 29)) * 0xBF58476D1CE4E5B9L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The position of a block in the table file.
+ */
+public class BlockHandle {
+
+    static final int ENCODED_LENGTH = Long.BYTES + Long.BYTES;
+
+    private final long offset;
+    private final long size;
+
+    public BlockHandle(long offset, long size) {
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    byte[] encode() {
+        return ByteBuffer.allocate(ENCODED_LENGTH).putLong(offset).putLong(size).array();
+    }
+
+    static BlockHandle decode(ByteBuffer bf) {
+        return new BlockHandle(bf.getLong(), bf.getLong());
+    }
+
+    @Override
+    public String toString() {
+        return "BlockHandle{offset=" + offset + ", size=" + size + '}';
+    }
+}
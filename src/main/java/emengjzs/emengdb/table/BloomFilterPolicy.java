@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.util.Arrays;
+
+/**
+ * A bloom filter over all the keys of a table:
+ * +--------+-------------------+
+ * |  bits  |  number of probes |
+ * +--------+-------------------+
+ *  n bytes           1
+ *
+ * The probes are made by double hashing from one hash of the key, so the
+ * builder only keeps an int for each key. With 10 bits per key, the false
+ * positive rate is about 1%.
+ */
+public class BloomFilterPolicy implements FilterPolicy {
+
+    private static final int MIN_BITS = 64;
+
+    private final int bitsPerKey;
+
+    // ln2 * bitsPerKey is the best, fewer probes for a cheaper check
+    private final int probes;
+
+    public BloomFilterPolicy(int bitsPerKey) {
+        Validate.isTrue(bitsPerKey > 0, "Bits per key should be positive.");
+        this.bitsPerKey = bitsPerKey;
+        this.probes = Math.max(1, Math.min(30, (int) (bitsPerKey * 0.69)));
+    }
+
+    @Override
+    public String name() {
+        return "emengdb.BloomFilter";
+    }
+
+    @Override
+    public FilterBuilder newBuilder() {
+        return new BloomFilterBuilder();
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        int length = filter.length();
+        if (length < 2) {
+            return true;
+        }
+        int k = filter.get(length - 1);
+        if (k < 1 || k > 30) {
+            // reserved for another encoding, match anything
+            return true;
+        }
+        int bits = (length - 1) * 8;
+        int h = hash(key);
+        int delta = Integer.rotateRight(h, 17);
+        for (int i = 0; i < k; i ++) {
+            int bit = Integer.remainderUnsigned(h, bits);
+            if ((filter.get(bit >>> 3) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * The hash of LevelDB, a murmur-like one.
+     */
+    // the bytes left are added from the last one by falling through
+    @SuppressWarnings("fallthrough")
+    static int hash(Slice key) {
+        final int m = 0xc6a4a793;
+        int length = key.length();
+        int h = 0xbc9f1d34 ^ (length * m);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            int w = (key.get(i) & 0xFF) | (key.get(i + 1) & 0xFF) << 8
+                    | (key.get(i + 2) & 0xFF) << 16 | (key.get(i + 3) & 0xFF) << 24;
+            h += w;
+            h *= m;
+            h ^= h >>> 16;
+        }
+        switch (length - i) {
+            case 3:
+                h += (key.get(i + 2) & 0xFF) << 16;
+                // fall through
+            case 2:
+                h += (key.get(i + 1) & 0xFF) << 8;
+                // fall through
+            case 1:
+                h += key.get(i) & 0xFF;
+                h *= m;
+                h ^= h >>> 24;
+        }
+        return h;
+    }
+
+
+    private class BloomFilterBuilder implements FilterBuilder {
+        private int[] hashes = new int[1024];
+        private int count;
+
+        @Override
+        public void addKey(Slice key) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length << 1);
+            }
+            hashes[count ++] = hash(key);
+        }
+
+        @Override
+        public byte[] finish() {
+            int bits = Math.max(MIN_BITS, (int) Math.min((long) count * bitsPerKey, Integer.MAX_VALUE - 7));
+            int bytes = (bits + 7) / 8;
+            bits = bytes * 8;
+            byte[] filter = new byte[bytes + 1];
+            filter[bytes] = (byte) probes;
+            for (int j = 0; j < count; j ++) {
+                int h = hashes[j];
+                int delta = Integer.rotateRight(h, 17);
+                for (int i = 0; i < probes; i ++) {
+                    int bit = Integer.remainderUnsigned(h, bits);
+                    filter[bit >>> 3] |= 1 << (bit & 7);
+                    h += delta;
+                }
+            }
+            return filter;
+        }
+    }
+}
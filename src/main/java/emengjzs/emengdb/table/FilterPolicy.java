@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+/**
+ * Build a filter from all the keys of a table, which tells whether a key
+ * may be in the table without reading the index or the data blocks.
+ * A false positive is allowed, a false negative is not.
+ */
+public interface FilterPolicy {
+
+    /**
+     * The name is saved in the table with the filter, a table built by a
+     * policy of another name does not use its filter.
+     */
+    String name();
+
+    FilterBuilder newBuilder();
+
+    /**
+     * @return false if the key is surely not one of the keys of the filter.
+     */
+    boolean keyMayMatch(Slice key, Slice filter);
+
+
+    interface FilterBuilder {
+
+        void addKey(Slice key);
+
+        byte[] finish();
+    }
+}
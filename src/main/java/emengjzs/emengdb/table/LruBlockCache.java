@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+/**
+ * Keep the decoded blocks on the heap as they are, charged by their sizes.
+ * A pinned block counts in the usage, so the usage may go beyond the
+ * capacity for a while.
+ */
+public class LruBlockCache extends BlockCache {
+
+    public LruBlockCache(long capacity) {
+        this(capacity, DEFAULT_SHARD_BITS);
+    }
+
+    public LruBlockCache(long capacity, int shardBits) {
+        super(capacity, shardBits);
+    }
+
+    @Override
+    protected Shard newShard(long capacity) {
+        return new Shard(capacity) {
+            @Override
+            protected Handle newHandle(CacheKey key, TableBlock block) {
+                return capacity > 0 ? new Handle(this, key, block, block.size()) : null;
+            }
+        };
+    }
+}
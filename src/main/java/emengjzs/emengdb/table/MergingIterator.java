@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merge several sorted iterators into one in the order of the comparator,
+ * by a heap of their current entries, so a step costs log(k) compares.
+ *
+ * The entries of the same key are returned in the order of the iterators
+ * given, the former first. The iterators which are Closeable are closed by
+ * close().
+ */
+public class MergingIterator implements Iterator<Entry<Slice, Slice>>, Closeable {
+
+    private final List<? extends Iterator<Entry<Slice, Slice>>> iterators;
+    private final PriorityQueue<Source> heap;
+
+    public MergingIterator(List<? extends Iterator<Entry<Slice, Slice>>> iterators, Comparator<Slice> cmp) {
+        this.iterators = iterators;
+        Comparator<Source> order = (s1, s2) -> cmp.compare(s1.current.getKey(), s2.current.getKey());
+        this.heap = new PriorityQueue<>(Math.max(1, iterators.size()),
+                order.thenComparingInt(source -> source.index));
+        for (int i = 0; i < iterators.size(); i ++) {
+            Source source = new Source(iterators.get(i), i);
+            if (source.advance()) {
+                heap.add(source);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return ! heap.isEmpty();
+    }
+
+    @Override
+    public Entry<Slice, Slice> next() {
+        Source source = heap.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        Entry<Slice, Slice> entry = source.current;
+        if (source.advance()) {
+            heap.add(source);
+        }
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Iterator<Entry<Slice, Slice>> itr : iterators) {
+            if (itr instanceof Closeable) {
+                try {
+                    ((Closeable) itr).close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+        heap.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+
+    private static class Source {
+        final Iterator<Entry<Slice, Slice>> itr;
+        final int index;
+        Entry<Slice, Slice> current;
+
+        Source(Iterator<Entry<Slice, Slice>> itr, int index) {
+            this.itr = itr;
+            this.index = index;
+        }
+
+        boolean advance() {
+            current = itr.hasNext() ? itr.next() : null;
+            return current != null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keep the bytes of the blocks in direct memory, so a cache of many GB
+ * adds little to the heap. A cached TableBlock reads the block in place
+ * through a view of the direct memory.
+ *
+ * Each shard has its own slab allocator: the memory is allocated in pages
+ * of 1MB up to the capacity of the shard, a page is cut into the chunks of
+ * one size class when it is taken by the class, and the chunks are reused
+ * by the blocks of the class. The size classes grow by 1.25, so a block
+ * wastes at most a fifth of its chunk. The pages are never given back or
+ * moved to another class, like memcached. When a class has no free chunk
+ * and no page can be allocated, the oldest unpinned block of the class is
+ * evicted. A block which still finds no room is returned uncached.
+ *
+ * The pages count in -XX:MaxDirectMemorySize.
+ */
+public class OffHeapBlockCache extends BlockCache {
+
+    static final int PAGE_SIZE = 1 << 20;
+
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    // the chunk sizes, ascending, the last one is the page
+    static final int[] CLASS_SIZES = classSizes();
+
+    public OffHeapBlockCache(long capacity) {
+        this(capacity, shardBitsFor(capacity));
+    }
+
+    public OffHeapBlockCache(long capacity, int shardBits) {
+        super(capacity, shardBits);
+    }
+
+    @Override
+    protected Shard newShard(long capacity) {
+        return new SlabShard(capacity);
+    }
+
+    /**
+     * Fewer shards for a small cache, so a shard has pages for several classes.
+     */
+    private static int shardBitsFor(long capacity) {
+        int shardBits = DEFAULT_SHARD_BITS;
+        while (shardBits > 0 && (capacity >> shardBits) < 16L * PAGE_SIZE) {
+            shardBits --;
+        }
+        return shardBits;
+    }
+
+    private static int[] classSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < PAGE_SIZE) {
+            sizes.add(size);
+            // aligned to 64 bytes
+            size = (size + (size >> 2) + 63) & ~63;
+        }
+        sizes.add(PAGE_SIZE);
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the smallest class whose chunk holds the size, or -1 if none.
+     */
+    static int classOf(int size) {
+        int index = Arrays.binarySearch(CLASS_SIZES, size);
+        index = index >= 0 ? index : - index - 1;
+        return index < CLASS_SIZES.length ? index : -1;
+    }
+
+
+    private static class SlabHandle extends Handle {
+        final int sizeClass;
+        final int page;
+        final int offset;
+
+        SlabHandle(Shard shard, CacheKey key, TableBlock block, int sizeClass, int page, int offset) {
+            super(shard, key, block, CLASS_SIZES[sizeClass]);
+            this.sizeClass = sizeClass;
+            this.page = page;
+            this.offset = offset;
+        }
+    }
+
+
+    private static class SlabShard extends Shard {
+        private final int maxPages;
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        // the free chunks of each class, a chunk is the page index << 32 | the offset
+        private final long[][] freeChunks = new long[CLASS_SIZES.length][];
+        private final int[] freeCounts = new int[CLASS_SIZES.length];
+
+        SlabShard(long capacity) {
+            super(capacity);
+            maxPages = (int) Math.min(Integer.MAX_VALUE, capacity / PAGE_SIZE);
+        }
+
+        @Override
+        protected Handle newHandle(CacheKey key, TableBlock block) {
+            int sizeClass = classOf(block.size());
+            if (sizeClass < 0) {
+                return null;
+            }
+            while (freeCounts[sizeClass] == 0 && ! allocatePage(sizeClass)) {
+                if (! evictOldest(handle -> ((SlabHandle) handle).sizeClass == sizeClass)) {
+                    return null;
+                }
+            }
+            long chunk = freeChunks[sizeClass][-- freeCounts[sizeClass]];
+            int page = (int) (chunk >>> 32);
+            int offset = (int) chunk;
+
+            ByteBuffer view = pages.get(page).duplicate();
+            view.limit(offset + block.size()).position(offset);
+            view = view.slice();
+            view.put(block.content());
+            view.clear();
+            return new SlabHandle(this, key, new TableBlock(view), sizeClass, page, offset);
+        }
+
+        @Override
+        protected void free(Handle handle) {
+            SlabHandle slab = (SlabHandle) handle;
+            pushFree(slab.sizeClass, (long) slab.page << 32 | slab.offset);
+        }
+
+        private boolean allocatePage(int sizeClass) {
+            if (pages.size() >= maxPages) {
+                return false;
+            }
+            int page = pages.size();
+            pages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+            int chunkSize = CLASS_SIZES[sizeClass];
+            for (int offset = 0; offset + chunkSize <= PAGE_SIZE; offset += chunkSize) {
+                pushFree(sizeClass, (long) page << 32 | offset);
+            }
+            return true;
+        }
+
+        private void pushFree(int sizeClass, long chunk) {
+            long[] chunks = freeChunks[sizeClass];
+            if (chunks == null) {
+                chunks = freeChunks[sizeClass] = new long[16];
+            }
+            else if (freeCounts[sizeClass] == chunks.length) {
+                chunks = freeChunks[sizeClass] = Arrays.copyOf(chunks, chunks.length << 1);
+            }
+            chunks[freeCounts[sizeClass] ++] = chunk;
+        }
+    }
+}
@@ -4,45 +4,133 @@
 
 package emengjzs.emengdb.table;
 
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.VarintCoder;
 import emengjzs.emengdb.util.byt.Slice;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 /**
  * Created by emengjzs on 2016/10/28.
+ *
+ * A block is the records, then the offsets of the restart points and the
+ * number of them, which are 4 bytes big-endian ints.
+ * +--------+-----+--------+------------+-----+------------+----------------+
+ * | record | ... | record | restart[0] | ... | restart[n] | numOfRestarts  |
+ * +--------+-----+--------+------------+-----+------------+----------------+
+ *
+ * A record shares a prefix with the key of the previous one, the one on a
+ * restart point shares nothing. The lengths are varints, see VarintCoder.
+ * +------------------+--------------------+-------------+---------------+-------+
+ * | sharedKeyLength  |  unsharedKeyLength |  valueLength | unshared key  | value |
+ * +------------------+--------------------+-------------+---------------+-------+
+ *
+ * Built by BlockBuilder.
+ *
+ * The block is read in place from a ByteBuffer, a heap one or a view of
+ * the off-heap memory of the OffHeapBlockCache, only the absolute get
+ * methods are used so the buffer can be shared.
  */
 public class TableBlock {
 
-    // the whole data except the numOfRestarts;
-    private byte[] data;
+    // the whole block, from 0 to the limit
+    private final ByteBuffer data;
 
     private int numOfRestarts;
 
     private int restartsOffset;
 
 
+    /**
+     * @throws IllegalArgumentException if the restarts of the block are broken.
+     */
+    public TableBlock(byte[] block) {
+        this(block, block.length);
+    }
+
+    /**
+     * @param length the block is the first length bytes of the array.
+     * @throws IllegalArgumentException if the restarts of the block are broken.
+     */
+    public TableBlock(byte[] block, int length) {
+        this(ByteBuffer.wrap(block, 0, length).slice());
+    }
 
+    /**
+     * @param block the block is from 0 to the limit of the buffer, whose
+     *              position and limit are not changed any more.
+     * @throws IllegalArgumentException if the restarts of the block are broken.
+     */
+    public TableBlock(ByteBuffer block) {
+        int length = block.limit();
+        Validate.isTrue(length >= Integer.BYTES, "Block is too short.");
+        numOfRestarts = block.getInt(length - Integer.BYTES);
+        Validate.isTrue(numOfRestarts > 0
+                && numOfRestarts <= (length - Integer.BYTES) / Integer.BYTES, "Block restarts are broken.");
+        restartsOffset = length - Integer.BYTES - numOfRestarts * Integer.BYTES;
+        data = block;
+    }
 
 
     public int getNumOfRestarts() {
         return numOfRestarts;
     }
 
+    /**
+     * @return the bytes of the block.
+     */
+    public int size() {
+        return data.limit();
+    }
+
+    /**
+     * @return a read-only view of the whole block.
+     */
+    ByteBuffer content() {
+        return data.asReadOnlyBuffer();
+    }
+
 
+    /**
+     * Read the header of the record at the position of the buffer, the
+     * buffer is left at the unshared key.
+     *
+     * @return false if the record is broken.
+     */
     public boolean getRecord(ByteBuffer byteBuffer, RecordInfo recordInfo) {
-        if (byteBuffer.remaining() < 3 * Integer.BYTES) {
+        try {
+            recordInfo.sharedKeyLength = VarintCoder.getVarint32(byteBuffer);
+            recordInfo.unsharedKeyLength = VarintCoder.getVarint32(byteBuffer);
+            recordInfo.valueLength = VarintCoder.getVarint32(byteBuffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
             return false;
         }
-        recordInfo.sharedKeyLength = byteBuffer.getInt();
-        recordInfo.unsharedKeyLength = byteBuffer.getInt();
-        recordInfo.valueLength = byteBuffer.getInt();
         recordInfo.unsharedKeyOffset = byteBuffer.position();
-        if (byteBuffer.remaining() < recordInfo.unsharedKeyLength + recordInfo.valueLength) {
-            return false;
-        }
-        return true;
+        return recordInfo.unsharedKeyLength >= 0 && recordInfo.valueLength >= 0
+                && byteBuffer.remaining() - recordInfo.unsharedKeyLength >= recordInfo.valueLength
+                && byteBuffer.remaining() >= recordInfo.unsharedKeyLength;
+    }
+
+
+    /**
+     * @param cmp the order of the keys in the block.
+     * @return an iterator before the first record.
+     */
+    public TableIterator iterator(Comparator<Slice> cmp) {
+        return new TableIterator(cmp);
+    }
+
+    private int restartPoint(int index) {
+        int offset = data.getInt(restartsOffset + index * Integer.BYTES);
+        Validate.isTrue(offset >= 0 && offset <= restartsOffset, "Block restarts are broken.");
+        return offset;
     }
 
 
@@ -54,55 +142,213 @@ public class TableBlock {
     }
 
 
-    class TableIterator implements ListIterator<Slice> {
+    /**
+     * Iterate the records of the block in both directions. seek() finds a
+     * key by a binary search over the restart points, then a linear scan of
+     * at most one restart interval. previous() scans from the restart point
+     * before the record.
+     *
+     * The key of an entry is a copy, the value is a view of the block.
+     */
+    public class TableIterator implements ListIterator<Entry<Slice, Slice>> {
+
+        private final Comparator<Slice> cmp;
+        private final RecordInfo recordInfo = new RecordInfo();
+        private final ByteBuffer bf = data.duplicate();
+
+        // the current record, its key is decoded into the buffer
+        private int currentOffset;
+        private int nextOffset;
+        private byte[] key = new byte[64];
+        private int keyLength;
+        private int valueOffset;
+        private int valueLength;
+
+        // if the cursor is before the current record, or after it
+        private boolean beforeCurrent;
+
+        TableIterator(Comparator<Slice> cmp) {
+            this.cmp = cmp;
+            seekToFirst();
+        }
 
-        int currentPosition;
-        Comparator<Slice> cmp;
+        /**
+         * Move the cursor before the first record.
+         */
+        public void seekToFirst() {
+            keyLength = 0;
+            nextOffset = 0;
+            if (nextOffset < restartsOffset) {
+                parseNext();
+            }
+            else {
+                moveToEnd();
+            }
+            beforeCurrent = true;
+        }
 
+        /**
+         * Move the cursor after the last record, to iterate in reverse.
+         */
+        public void seekToLast() {
+            moveToEnd();
+            beforeCurrent = true;
+        }
+
+        /**
+         * Move the cursor before the first record not less than the key,
+         * or after the last record if there is no such one.
+         *
+         * @throws IllegalArgumentException if the record is broken.
+         */
+        public void seek(Slice target) {
+            // the last restart point whose key is less than the target
+            int left = 0;
+            int right = numOfRestarts - 1;
+            while (left < right) {
+                int mid = (left + right + 1) >>> 1;
+                keyLength = 0;
+                nextOffset = restartPoint(mid);
+                parseNext();
+                if (cmp.compare(currentKey(), target) < 0) {
+                    left = mid;
+                }
+                else {
+                    right = mid - 1;
+                }
+            }
+            keyLength = 0;
+            nextOffset = restartPoint(left);
+            beforeCurrent = true;
+            while (nextOffset < restartsOffset) {
+                parseNext();
+                if (cmp.compare(currentKey(), target) >= 0) {
+                    return;
+                }
+            }
+            moveToEnd();
+        }
 
         @Override
         public boolean hasNext() {
-            return currentPosition <= data.length;
+            return (beforeCurrent ? currentOffset : nextOffset) < restartsOffset;
         }
 
+        /**
+         * @throws IllegalArgumentException if the record is broken.
+         */
         @Override
-        public Slice next() {
-            return null;
+        public Entry<Slice, Slice> next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (! beforeCurrent) {
+                parseNext();
+            }
+            beforeCurrent = false;
+            return currentEntry();
         }
 
         @Override
         public boolean hasPrevious() {
-            return false;
+            return beforeCurrent ? currentOffset > 0 : currentOffset < restartsOffset;
         }
 
+        /**
+         * @throws IllegalArgumentException if the record is broken.
+         */
         @Override
-        public Slice previous() {
-            return null;
+        public Entry<Slice, Slice> previous() {
+            if (! hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            if (beforeCurrent) {
+                int target = currentOffset;
+                // the last restart point before the target, then scan to the record before it
+                int left = 0;
+                int right = numOfRestarts - 1;
+                while (left < right) {
+                    int mid = (left + right + 1) >>> 1;
+                    if (restartPoint(mid) < target) {
+                        left = mid;
+                    }
+                    else {
+                        right = mid - 1;
+                    }
+                }
+                keyLength = 0;
+                nextOffset = restartPoint(left);
+                do {
+                    parseNext();
+                } while (nextOffset < target);
+                Validate.isTrue(nextOffset == target, "Block record is broken.");
+            }
+            beforeCurrent = true;
+            return currentEntry();
         }
 
+        /**
+         * Index is not known after a seek.
+         */
         @Override
         public int nextIndex() {
-            return 0;
+            throw new UnsupportedOperationException();
         }
 
         @Override
         public int previousIndex() {
-            return 0;
+            throw new UnsupportedOperationException();
         }
 
         @Override
         public void remove() {
+            throw new UnsupportedOperationException();
+        }
 
+        @Override
+        public void set(Entry<Slice, Slice> entry) {
+            throw new UnsupportedOperationException();
         }
 
         @Override
-        public void set(Slice slice) {
+        public void add(Entry<Slice, Slice> entry) {
+            throw new UnsupportedOperationException();
+        }
 
+
+        /**
+         * Decode the record at nextOffset as the current one, the key buffer
+         * holds the key of the record before it.
+         */
+        private void parseNext() {
+            bf.limit(restartsOffset).position(nextOffset);
+            Validate.isTrue(getRecord(bf, recordInfo)
+                    && recordInfo.sharedKeyLength >= 0 && recordInfo.sharedKeyLength <= keyLength,
+                    "Block record is broken.");
+            currentOffset = nextOffset;
+            keyLength = recordInfo.sharedKeyLength + recordInfo.unsharedKeyLength;
+            if (key.length < keyLength) {
+                key = Arrays.copyOf(key, Math.max(key.length << 1, keyLength));
+            }
+            bf.get(key, recordInfo.sharedKeyLength, recordInfo.unsharedKeyLength);
+            valueOffset = bf.position();
+            valueLength = recordInfo.valueLength;
+            nextOffset = valueOffset + valueLength;
         }
 
-        @Override
-        public void add(Slice slice) {
+        private void moveToEnd() {
+            currentOffset = restartsOffset;
+            nextOffset = restartsOffset;
+            keyLength = 0;
+        }
+
+        private Slice currentKey() {
+            return Slice.from(key, 0, keyLength);
+        }
 
+        private Entry<Slice, Slice> currentEntry() {
+            return new AbstractMap.SimpleImmutableEntry<>(
+                    Slice.from(Arrays.copyOf(key, keyLength)), Slice.from(data, valueOffset, valueLength));
         }
     }
 
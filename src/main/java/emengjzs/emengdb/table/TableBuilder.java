@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Crc32C;
+import emengjzs.emengdb.util.Validate;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.PrimitiveWritable;
+import emengjzs.emengdb.util.io.WritableFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Write the entries, added in the order of the comparator, into a table file:
+ * +--------------+-----+--------------+-------------+-------------+-----------------+----------+
+ * | data block 1 | ... | data block n | index block | meta blocks | metaindex block |  footer  |
+ * +--------------+-----+--------------+-------------+-------------+-----------------+----------+
+ *
+ * Each block is in the layout of TableBlock, and followed by the masked
+ * crc32c of the block, which is not counted in the BlockHandle.
+ *
+ * The index block has an entry for each data block, whose key is the last
+ * key of the data block and whose value is the BlockHandle of it.
+ * The meta blocks are the optional ones, the filter of all the keys and
+ * the properties, and the metaindex block maps the name of a meta block to
+ * the BlockHandle of it. The filter block is named "filter." and the name
+ * of the FilterPolicy, it is not in the layout of TableBlock.
+ *
+ * The footer has a fixed size, so the reader starts from it:
+ * +------------------------+--------------------+---------+
+ * | metaindex BlockHandle  | index BlockHandle  |  magic  |
+ * +------------------------+--------------------+---------+
+ *           16                      16               8
+ *
+ * Not thread safe.
+ */
+public class TableBuilder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 10;
+
+    static final long TABLE_MAGIC = 0x656d656e67646221L; // "emengdb!"
+
+    static final int FOOTER_SIZE = BlockHandle.ENCODED_LENGTH + BlockHandle.ENCODED_LENGTH + Long.BYTES;
+
+    static final int BLOCK_TRAILER_SIZE = Integer.BYTES;
+
+    static final String PROPERTIES_BLOCK = "emengdb.properties";
+
+    static final String FILTER_BLOCK_PREFIX = "filter.";
+
+    private final PrimitiveWritable file;
+    private final Comparator<Slice> cmp;
+    private final int blockSize;
+    private final Crc32C crc = Crc32C.create();
+    private final FilterPolicy filterPolicy;
+    private final FilterPolicy.FilterBuilder filterBuilder;
+
+    // the bytes written to the file
+    private long offset;
+
+    private final BlockBuilder dataBlock;
+    // an entry a restart point, for the binary search in the index
+    private final BlockBuilder indexBlock = new BlockBuilder(1);
+
+    private final TableProperties properties = new TableProperties();
+    private long rawKeySize;
+    private long rawValueSize;
+    private long numDataBlocks;
+
+    private Slice firstKey;
+    private Slice lastKey;
+    private long entryCount;
+    private boolean closed;
+
+    public TableBuilder(WritableFile file, Comparator<Slice> cmp) {
+        this(file, cmp, DEFAULT_BLOCK_SIZE, BlockBuilder.DEFAULT_RESTART_INTERVAL);
+    }
+
+    public TableBuilder(WritableFile file, Comparator<Slice> cmp, int blockSize) {
+        this(file, cmp, blockSize, BlockBuilder.DEFAULT_RESTART_INTERVAL);
+    }
+
+    /**
+     * @param blockSize a data block is finished once its size reaches it.
+     * @param restartInterval the keys between two restart points of a data block.
+     */
+    public TableBuilder(WritableFile file, Comparator<Slice> cmp, int blockSize, int restartInterval) {
+        this(file, cmp, blockSize, restartInterval, null);
+    }
+
+    /**
+     * @param filterPolicy builds the filter block from the keys, null for no filter.
+     */
+    public TableBuilder(WritableFile file, Comparator<Slice> cmp, int blockSize, int restartInterval,
+                        FilterPolicy filterPolicy) {
+        this.file = new PrimitiveWritable(file);
+        this.cmp = cmp;
+        this.blockSize = blockSize;
+        this.dataBlock = new BlockBuilder(restartInterval);
+        this.filterPolicy = filterPolicy;
+        this.filterBuilder = filterPolicy == null ? null : filterPolicy.newBuilder();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key is not larger than the last one.
+     */
+    public void add(Slice key, Slice value) throws IOException {
+        Validate.isTrue(! closed, "TableBuilder is closed.");
+        Validate.isTrue(lastKey == null || cmp.compare(key, lastKey) > 0, "Keys are not in order.");
+        dataBlock.add(key, value);
+        if (filterBuilder != null) {
+            filterBuilder.addKey(key);
+        }
+        lastKey = Slice.from(key.toBytes());
+        if (firstKey == null) {
+            firstKey = lastKey;
+        }
+        entryCount ++;
+        rawKeySize += key.length();
+        rawValueSize += value.length();
+        if (dataBlock.currentSizeEstimate() >= blockSize) {
+            flushDataBlock();
+        }
+    }
+
+    /**
+     * Set a property of the table, kept in the properties block.
+     */
+    public void setProperty(String name, long value) {
+        Validate.isTrue(! closed, "TableBuilder is closed.");
+        properties.putLong(name, value);
+    }
+
+    public void setProperty(String name, Slice value) {
+        Validate.isTrue(! closed, "TableBuilder is closed.");
+        properties.put(name, Slice.from(value.toBytes()));
+    }
+
+    /**
+     * Write the rest of the data, the index block, the meta blocks and the
+     * footer, then sync and close the file.
+     *
+     * @return the size of the file.
+     */
+    public long finish() throws IOException {
+        Validate.isTrue(! closed, "TableBuilder is closed.");
+        flushDataBlock();
+        long dataSize = offset;
+        BlockHandle indexHandle = writeBlock(indexBlock.finish());
+
+        TreeMap<String, BlockHandle> metaBlocks = new TreeMap<>();
+        if (filterBuilder != null) {
+            metaBlocks.put(FILTER_BLOCK_PREFIX + filterPolicy.name(), writeBlock(filterBuilder.finish()));
+        }
+        properties.putLong(TableProperties.NUM_ENTRIES, entryCount);
+        properties.putLong(TableProperties.NUM_DATA_BLOCKS, numDataBlocks);
+        properties.putLong(TableProperties.RAW_KEY_SIZE, rawKeySize);
+        properties.putLong(TableProperties.RAW_VALUE_SIZE, rawValueSize);
+        properties.putLong(TableProperties.DATA_SIZE, dataSize);
+        properties.putLong(TableProperties.INDEX_SIZE, indexHandle.getSize());
+        if (firstKey != null) {
+            properties.put(TableProperties.SMALLEST_KEY, firstKey);
+            properties.put(TableProperties.LARGEST_KEY, lastKey);
+        }
+        metaBlocks.put(PROPERTIES_BLOCK, writeBlock(properties.encode()));
+
+        BlockBuilder metaIndexBlock = new BlockBuilder(1);
+        for (Entry<String, BlockHandle> entry : metaBlocks.entrySet()) {
+            metaIndexBlock.add(Slice.from(entry.getKey().getBytes(StandardCharsets.UTF_8)),
+                    Slice.from(entry.getValue().encode()));
+        }
+        BlockHandle metaIndexHandle = writeBlock(metaIndexBlock.finish());
+
+        file.write(metaIndexHandle.encode());
+        file.write(indexHandle.encode());
+        file.writeLong(TABLE_MAGIC);
+        offset += FOOTER_SIZE;
+        closed = true;
+        file.flush();
+        file.sync();
+        file.close();
+        return offset;
+    }
+
+    /**
+     * Give up the table, the file is closed but not deleted.
+     */
+    public void abandon() throws IOException {
+        if (! closed) {
+            closed = true;
+            file.close();
+        }
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public long getFileSize() {
+        return offset;
+    }
+
+    private void flushDataBlock() throws IOException {
+        if (dataBlock.isEmpty()) {
+            return;
+        }
+        BlockHandle handle = writeBlock(dataBlock.finish());
+        indexBlock.add(lastKey, Slice.from(handle.encode()));
+        dataBlock.reset();
+        numDataBlocks ++;
+    }
+
+    private BlockHandle writeBlock(byte[] content) throws IOException {
+        BlockHandle handle = new BlockHandle(offset, content.length);
+        crc.reset();
+        crc.update(content, 0, content.length);
+        file.write(content);
+        file.writeInt(Crc32C.mask(crc.getValue()));
+        offset += content.length + BLOCK_TRAILER_SIZE;
+        return handle;
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import java.io.IOException;
+
+/**
+ * The table file is broken, or not a table file at all.
+ */
+public class TableFormatException extends IOException {
+
+    public TableFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Bits;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The properties of a table, kept in the properties meta block as a block
+ * of name -> value, a number is 8 bytes big-endian.
+ *
+ * The ones named emengdb.* are collected by the TableBuilder, the others are
+ * set by the user of the builder.
+ */
+public class TableProperties {
+
+    public static final String NUM_ENTRIES = "emengdb.num.entries";
+    public static final String NUM_DATA_BLOCKS = "emengdb.num.data.blocks";
+    public static final String RAW_KEY_SIZE = "emengdb.raw.key.size";
+    public static final String RAW_VALUE_SIZE = "emengdb.raw.value.size";
+    public static final String DATA_SIZE = "emengdb.data.size";
+    public static final String INDEX_SIZE = "emengdb.index.size";
+    public static final String SMALLEST_KEY = "emengdb.smallest.key";
+    public static final String LARGEST_KEY = "emengdb.largest.key";
+
+    private final Map<String, Slice> properties = new TreeMap<>();
+
+    public long getNumEntries() {
+        return getLong(NUM_ENTRIES);
+    }
+
+    public long getNumDataBlocks() {
+        return getLong(NUM_DATA_BLOCKS);
+    }
+
+    public long getRawKeySize() {
+        return getLong(RAW_KEY_SIZE);
+    }
+
+    public long getRawValueSize() {
+        return getLong(RAW_VALUE_SIZE);
+    }
+
+    public long getDataSize() {
+        return getLong(DATA_SIZE);
+    }
+
+    public long getIndexSize() {
+        return getLong(INDEX_SIZE);
+    }
+
+    /**
+     * @return null if the table is empty.
+     */
+    public Slice getSmallestKey() {
+        return get(SMALLEST_KEY);
+    }
+
+    /**
+     * @return null if the table is empty.
+     */
+    public Slice getLargestKey() {
+        return get(LARGEST_KEY);
+    }
+
+    /**
+     * @return null if there is no such property.
+     */
+    public Slice get(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @return 0 if there is no such property.
+     */
+    public long getLong(String name) {
+        Slice value = properties.get(name);
+        return value == null || value.length() != Long.BYTES ? 0 : Bits.getLong(value.toBytes(), 0);
+    }
+
+    public Map<String, Slice> getAll() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    void put(String name, Slice value) {
+        properties.put(name, value);
+    }
+
+    void putLong(String name, long value) {
+        byte[] bytes = new byte[Long.BYTES];
+        Bits.putLong(bytes, 0, value);
+        properties.put(name, Slice.from(bytes));
+    }
+
+    /**
+     * @return the content of the properties block, the names are ascii so
+     * the order of the map is the order of the bytes.
+     */
+    byte[] encode() {
+        BlockBuilder builder = new BlockBuilder();
+        for (Entry<String, Slice> entry : properties.entrySet()) {
+            builder.add(Slice.from(entry.getKey().getBytes(StandardCharsets.UTF_8)), entry.getValue());
+        }
+        return builder.finish();
+    }
+
+    static TableProperties decode(TableBlock block) {
+        TableProperties tableProperties = new TableProperties();
+        for (TableBlock.TableIterator itr = block.iterator(Slice::compareTo); itr.hasNext(); ) {
+            Entry<Slice, Slice> entry = itr.next();
+            tableProperties.put(new String(entry.getKey().toBytes(), StandardCharsets.UTF_8),
+                    Slice.from(entry.getValue().toBytes()));
+        }
+        return tableProperties;
+    }
+
+    @Override
+    public String toString() {
+        return "TableProperties{entries=" + getNumEntries() + ", dataBlocks=" + getNumDataBlocks()
+                + ", dataSize=" + getDataSize() + ", indexSize=" + getIndexSize() + '}';
+    }
+}
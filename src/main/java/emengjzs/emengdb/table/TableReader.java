@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.util.Crc32C;
+import emengjzs.emengdb.util.byt.Slice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import static emengjzs.emengdb.table.TableBuilder.BLOCK_TRAILER_SIZE;
+import static emengjzs.emengdb.table.TableBuilder.FOOTER_SIZE;
+import static emengjzs.emengdb.table.TableBuilder.PROPERTIES_BLOCK;
+import static emengjzs.emengdb.table.TableBuilder.TABLE_MAGIC;
+
+/**
+ * Read a table written by TableBuilder. Only the footer and the index block
+ * are read when opening, a data block or a meta block is read by a
+ * positional read when it is needed, so the reader can be shared by threads.
+ *
+ * If the table has a filter of the FilterPolicy given, the filter is read
+ * when opening too, and get() checks it first.
+ *
+ * The data blocks are shared through the BlockCache if one is given, a
+ * block is pinned in the cache while it is read. The entries returned are
+ * copied out of the block, as the memory of an off-heap block is reused
+ * once it is unpinned.
+ *
+ * The checksum of each block read is verified.
+ */
+public class TableReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Comparator<Slice> cmp;
+    private final long fileSize;
+    private final BlockHandle metaIndexHandle;
+    private final TableBlock indexBlock;
+    private final FilterPolicy filterPolicy;
+    private final Slice filter;
+    private final BlockCache blockCache;
+    private final long fileNumber;
+
+    private volatile TableProperties properties;
+
+    /**
+     * @throws TableFormatException if the file is not a complete table.
+     */
+    public TableReader(RandomAccessFile file, Comparator<Slice> cmp) throws IOException {
+        this(file, cmp, null);
+    }
+
+    /**
+     * @param filterPolicy the policy the table is built with, null not to use the filter.
+     * @throws TableFormatException if the file is not a complete table.
+     */
+    public TableReader(RandomAccessFile file, Comparator<Slice> cmp, FilterPolicy filterPolicy) throws IOException {
+        this(file, cmp, filterPolicy, null, 0);
+    }
+
+    /**
+     * @param blockCache the cache of the data blocks, null for no cache.
+     * @param fileNumber the number of the file in the cache keys, unique in the cache.
+     * @throws TableFormatException if the file is not a complete table.
+     */
+    public TableReader(RandomAccessFile file, Comparator<Slice> cmp, FilterPolicy filterPolicy,
+                       BlockCache blockCache, long fileNumber) throws IOException {
+        this.file = file;
+        this.blockCache = blockCache;
+        this.fileNumber = fileNumber;
+        this.channel = file.getChannel();
+        this.cmp = cmp;
+
+        fileSize = channel.size();
+        if (fileSize < FOOTER_SIZE) {
+            throw new TableFormatException("File is too short to be a table: " + fileSize);
+        }
+        ByteBuffer footer = read(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+        metaIndexHandle = BlockHandle.decode(footer);
+        BlockHandle indexHandle = BlockHandle.decode(footer);
+        if (footer.getLong() != TABLE_MAGIC) {
+            throw new TableFormatException("Bad magic number of the table");
+        }
+        indexBlock = readBlock(indexHandle);
+
+        this.filterPolicy = filterPolicy;
+        BlockHandle filterHandle = filterPolicy == null ? null
+                : findMetaBlock(TableBuilder.FILTER_BLOCK_PREFIX + filterPolicy.name());
+        filter = filterHandle == null ? null : Slice.from(readRawBlock(filterHandle), 0, (int) filterHandle.getSize());
+    }
+
+    public static TableReader open(String path, Comparator<Slice> cmp) throws IOException {
+        return open(path, cmp, null);
+    }
+
+    public static TableReader open(String path, Comparator<Slice> cmp, FilterPolicy filterPolicy) throws IOException {
+        return open(path, cmp, filterPolicy, null, 0);
+    }
+
+    public static TableReader open(String path, Comparator<Slice> cmp, FilterPolicy filterPolicy,
+                                   BlockCache blockCache, long fileNumber) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            return new TableReader(file, cmp, filterPolicy, blockCache, fileNumber);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the first entry not less than the key, or null if no such one.
+     */
+    public Entry<Slice, Slice> seek(Slice key) throws IOException {
+        TableBlock.TableIterator index = indexBlock.iterator(cmp);
+        index.seek(key);
+        if (! index.hasNext()) {
+            return null;
+        }
+        // the last key of the block is not less than the key
+        BlockCache.Handle block = readDataBlock(index.next().getValue());
+        try {
+            TableBlock.TableIterator data = block.getBlock().iterator(cmp);
+            data.seek(key);
+            return data.hasNext() ? copyOf(data.next()) : null;
+        } finally {
+            block.release();
+        }
+    }
+
+    /**
+     * Look up a key, the filter is checked before the index and the data blocks.
+     *
+     * @return the first entry not less than the key, or null if no such one
+     * or the filter tells the key is not in the table.
+     */
+    public Entry<Slice, Slice> get(Slice key) throws IOException {
+        if (! mayContain(key)) {
+            return null;
+        }
+        return seek(key);
+    }
+
+    /**
+     * @return false if the filter tells the key is not in the table.
+     */
+    public boolean mayContain(Slice key) {
+        return filter == null || filterPolicy.keyMayMatch(key, filter);
+    }
+
+    /**
+     * @return all the entries in order, an IOException is thrown as
+     * UncheckedIOException. Close it if it is not iterated to the end,
+     * to unpin the block in the cache.
+     */
+    public TableIterator iterator() {
+        return new TableIterator();
+    }
+
+    /**
+     * @return the keys of the index block in order, the last key of each
+     * data block, which split the table into parts of about blockSize.
+     */
+    public List<Slice> getIndexKeys() {
+        List<Slice> keys = new ArrayList<>();
+        for (TableBlock.TableIterator index = indexBlock.iterator(cmp); index.hasNext(); ) {
+            keys.add(index.next().getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Read from the properties block on the first call.
+     */
+    public TableProperties getProperties() throws IOException {
+        if (properties == null) {
+            BlockHandle handle = findMetaBlock(PROPERTIES_BLOCK);
+            properties = handle == null ? new TableProperties() : TableProperties.decode(readBlock(handle));
+        }
+        return properties;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+
+    /**
+     * @return the handle of the meta block, or null if the table has no such one.
+     */
+    private BlockHandle findMetaBlock(String name) throws IOException {
+        Slice key = Slice.from(name.getBytes(StandardCharsets.UTF_8));
+        TableBlock.TableIterator metaIndex = readBlock(metaIndexHandle).iterator(Slice::compareTo);
+        metaIndex.seek(key);
+        if (metaIndex.hasNext()) {
+            Entry<Slice, Slice> entry = metaIndex.next();
+            if (entry.getKey().compareTo(key) == 0) {
+                return BlockHandle.decode(entry.getValue().toByteBuffer());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the pinned data block from the cache, or one just read if it is not cached.
+     */
+    private BlockCache.Handle readDataBlock(Slice encodedHandle) throws IOException {
+        BlockHandle handle = BlockHandle.decode(encodedHandle.toByteBuffer());
+        if (blockCache == null) {
+            return new BlockCache.Handle(readBlock(handle));
+        }
+        BlockCache.Handle cached = blockCache.lookup(fileNumber, handle.getOffset());
+        if (cached == null) {
+            // two readers may read the same block, the later insert replaces the former
+            cached = blockCache.insert(fileNumber, handle.getOffset(), readBlock(handle));
+        }
+        return cached;
+    }
+
+    private TableBlock readBlock(BlockHandle handle) throws IOException {
+        byte[] block = readRawBlock(handle);
+        try {
+            return new TableBlock(block, (int) handle.getSize());
+        } catch (IllegalArgumentException e) {
+            throw new TableFormatException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the block and its trailer, the checksum is verified.
+     */
+    private byte[] readRawBlock(BlockHandle handle) throws IOException {
+        if (handle.getOffset() < 0 || handle.getSize() < 0
+                || handle.getOffset() + handle.getSize() + BLOCK_TRAILER_SIZE > fileSize - FOOTER_SIZE) {
+            throw new TableFormatException("Bad block handle: " + handle);
+        }
+        int size = (int) handle.getSize();
+        ByteBuffer block = read(handle.getOffset(), size + BLOCK_TRAILER_SIZE);
+        Crc32C crc = Crc32C.create();
+        crc.update(block.array(), 0, size);
+        if (Crc32C.unmask(block.getInt(size)) != crc.getValue()) {
+            throw new TableFormatException("Checksum mismatch of the block: " + handle);
+        }
+        return block.array();
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer bf = ByteBuffer.allocate(length);
+        // positional read, not affected by the position of the channel
+        while (bf.hasRemaining()) {
+            if (channel.read(bf, offset + bf.position()) < 0) {
+                throw new TableFormatException("Unexpected end of the table");
+            }
+        }
+        bf.flip();
+        return bf;
+    }
+
+
+    private static Entry<Slice, Slice> copyOf(Entry<Slice, Slice> entry) {
+        // the key is a copy already
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), Slice.from(entry.getValue().toBytes()));
+    }
+
+
+    /**
+     * Iterate the data blocks one by one, the current block is pinned.
+     */
+    public class TableIterator implements Iterator<Entry<Slice, Slice>>, Closeable {
+        private final TableBlock.TableIterator index = indexBlock.iterator(cmp);
+        private BlockCache.Handle block;
+        private TableBlock.TableIterator data;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (data == null || ! data.hasNext()) {
+                    close();
+                    if (! index.hasNext()) {
+                        return false;
+                    }
+                    block = readDataBlock(index.next().getValue());
+                    data = block.getBlock().iterator(cmp);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<Slice, Slice> next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return copyOf(data.next());
+        }
+
+        /**
+         * Move to the first entry not less than the key, only the block of
+         * it is read.
+         */
+        public void seek(Slice key) {
+            close();
+            index.seek(key);
+            if (index.hasNext()) {
+                try {
+                    block = readDataBlock(index.next().getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                data = block.getBlock().iterator(cmp);
+                data.seek(key);
+            }
+        }
+
+        /**
+         * Unpin the current block, the iteration can not go on after it.
+         */
+        @Override
+        public void close() {
+            if (block != null) {
+                block.release();
+                block = null;
+                data = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum.
+ *
+ * Use java.util.zip.CRC32C when running on Java 9+, which is an intrinsic
+ * using the CRC32 instructions of the CPU, otherwise fall back to
+ * a table-driven slicing-by-8 implementation.
+ *
+ * Not thread safe, reset() it to reuse.
+ */
+public abstract class Crc32C {
+
+    private static final int MASK_DELTA = 0xa282ead8;
+
+    private static final MethodHandle JDK_CRC32C_CONSTRUCTOR = findJdkCrc32CConstructor();
+
+
+    public static Crc32C create() {
+        if (JDK_CRC32C_CONSTRUCTOR != null) {
+            try {
+                return new JdkCrc32C((Checksum) JDK_CRC32C_CONSTRUCTOR.invokeExact());
+            } catch (Throwable e) {
+                // fall back
+            }
+        }
+        return new PureJavaCrc32C();
+    }
+
+    public static boolean isJdkCrc32CAvailable() {
+        return JDK_CRC32C_CONSTRUCTOR != null;
+    }
+
+    private static MethodHandle findJdkCrc32CConstructor() {
+        try {
+            Class<?> clazz = Class.forName("java.util.zip.CRC32C");
+            return MethodHandles.publicLookup()
+                    .findConstructor(clazz, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * It is problematic to compute the CRC of a string that contains
+     * embedded CRCs, so the stored CRC is masked, just like LevelDB.
+     */
+    public static int mask(int crc) {
+        return ((crc >>> 15) | (crc << 17)) + MASK_DELTA;
+    }
+
+    public static int unmask(int maskedCrc) {
+        int rot = maskedCrc - MASK_DELTA;
+        return ((rot >>> 17) | (rot << 15));
+    }
+
+
+    public abstract void update(int b);
+
+    public abstract void update(byte[] b, int off, int len);
+
+    /**
+     * Update with the remaining bytes of the buffer, the position of the
+     * buffer is moved to the limit.
+     */
+    public abstract void update(ByteBuffer buffer);
+
+    public abstract int getValue();
+
+    public abstract void reset();
+
+}
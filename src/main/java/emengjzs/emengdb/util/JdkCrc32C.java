@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Delegate to java.util.zip.CRC32C (Java 9+), the class is compiled
+ * against Java 8 so the ByteBuffer update is looked up by a MethodHandle.
+ */
+class JdkCrc32C extends Crc32C {
+
+    private static final MethodHandle UPDATE_BYTE_BUFFER = findUpdateByteBuffer();
+
+    private final Checksum checksum;
+
+    JdkCrc32C(Checksum checksum) {
+        this.checksum = checksum;
+    }
+
+    private static MethodHandle findUpdateByteBuffer() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void update(int b) {
+        checksum.update(b);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        checksum.update(b, off, len);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        try {
+            UPDATE_BYTE_BUFFER.invokeExact(checksum, buffer);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int getValue() {
+        return (int) checksum.getValue();
+    }
+
+    @Override
+    public void reset() {
+        checksum.reset();
+    }
+}
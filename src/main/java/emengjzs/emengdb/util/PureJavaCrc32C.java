@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table-driven CRC-32C using the slicing-by-8 algorithm, which
+ * consumes 8 bytes with 8 table lookups in each turn.
+ */
+class PureJavaCrc32C extends Crc32C {
+
+    // reversed polynomial of CRC-32C
+    private static final int POLY = 0x82F63B78;
+
+    // T[k * 256 + i] is the CRC of byte i followed by k zero bytes
+    private static final int[] T = new int[8 * 256];
+
+    private static final int T0 = 0;
+    private static final int T1 = 256;
+    private static final int T2 = 2 * 256;
+    private static final int T3 = 3 * 256;
+    private static final int T4 = 4 * 256;
+    private static final int T5 = 5 * 256;
+    private static final int T6 = 6 * 256;
+    private static final int T7 = 7 * 256;
+
+    static {
+        for (int i = 0; i < 256; i ++) {
+            int crc = i;
+            for (int j = 0; j < 8; j ++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            T[i] = crc;
+        }
+        for (int k = 1; k < 8; k ++) {
+            for (int i = 0; i < 256; i ++) {
+                int prev = T[(k - 1) * 256 + i];
+                T[k * 256 + i] = (prev >>> 8) ^ T[prev & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T[T0 + ((crc ^ b) & 0xFF)];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int localCrc = crc;
+        while (len > 7) {
+            int c0 = (b[off    ] ^  localCrc        ) & 0xFF;
+            int c1 = (b[off + 1] ^ (localCrc >>>  8)) & 0xFF;
+            int c2 = (b[off + 2] ^ (localCrc >>> 16)) & 0xFF;
+            int c3 = (b[off + 3] ^ (localCrc >>> 24)) & 0xFF;
+            localCrc = (T[T7 + c0] ^ T[T6 + c1]) ^ (T[T5 + c2] ^ T[T4 + c3]);
+
+            int c4 = b[off + 4] & 0xFF;
+            int c5 = b[off + 5] & 0xFF;
+            int c6 = b[off + 6] & 0xFF;
+            int c7 = b[off + 7] & 0xFF;
+            localCrc ^= (T[T3 + c4] ^ T[T2 + c5]) ^ (T[T1 + c6] ^ T[T0 + c7]);
+
+            off += 8;
+            len -= 8;
+        }
+        while (len -- > 0) {
+            localCrc = (localCrc >>> 8) ^ T[T0 + ((localCrc ^ b[off ++]) & 0xFF)];
+        }
+        crc = localCrc;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        int localCrc = crc;
+        int off = buffer.position();
+        int len = buffer.remaining();
+        while (len > 7) {
+            int c0 = (buffer.get(off    ) ^  localCrc        ) & 0xFF;
+            int c1 = (buffer.get(off + 1) ^ (localCrc >>>  8)) & 0xFF;
+            int c2 = (buffer.get(off + 2) ^ (localCrc >>> 16)) & 0xFF;
+            int c3 = (buffer.get(off + 3) ^ (localCrc >>> 24)) & 0xFF;
+            localCrc = (T[T7 + c0] ^ T[T6 + c1]) ^ (T[T5 + c2] ^ T[T4 + c3]);
+
+            int c4 = buffer.get(off + 4) & 0xFF;
+            int c5 = buffer.get(off + 5) & 0xFF;
+            int c6 = buffer.get(off + 6) & 0xFF;
+            int c7 = buffer.get(off + 7) & 0xFF;
+            localCrc ^= (T[T3 + c4] ^ T[T2 + c5]) ^ (T[T1 + c6] ^ T[T0 + c7]);
+
+            off += 8;
+            len -= 8;
+        }
+        while (len -- > 0) {
+            localCrc = (localCrc >>> 8) ^ T[T0 + ((localCrc ^ buffer.get(off ++)) & 0xFF)];
+        }
+        crc = localCrc;
+        buffer.position(buffer.limit());
+    }
+
+    @Override
+    public int getValue() {
+        return ~crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -4,8 +4,60 @@
 
 package emengjzs.emengdb.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by emengjzs on 2016/12/20.
+ *
+ * Unsigned varint of an int, 7 bits a byte from the lowest, the high bit
+ * of a byte is set if more bytes follow. A length under 128 takes 1 byte.
  */
 public class VarintCoder {
+
+    public static final int MAX_VARINT32_LENGTH = 5;
+
+    public static int varint32Length(int v) {
+        int length = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            length ++;
+        }
+        return length;
+    }
+
+    /**
+     * @return the offset after the varint.
+     */
+    public static int putVarint32(byte[] b, int off, int v) {
+        while ((v & ~0x7F) != 0) {
+            b[off ++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        b[off ++] = (byte) v;
+        return off;
+    }
+
+    public static void putVarint32(ByteBuffer bf, int v) {
+        while ((v & ~0x7F) != 0) {
+            bf.put((byte) (v | 0x80));
+            v >>>= 7;
+        }
+        bf.put((byte) v);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the varint is longer than 5 bytes.
+     * @throws java.nio.BufferUnderflowException if the buffer ends in the varint.
+     */
+    public static int getVarint32(ByteBuffer bf) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = bf.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Varint32 is too long.");
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+package emengjzs.emengdb.util.byt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a part of a ByteBuffer (heap, direct or mapped), no byte is copied.
+ * The position and the limit of the buffer are never touched, but the view
+ * changes if the bytes in the buffer change.
+ */
+public class BufferSlice extends Slice {
+
+    private static final int SERIALIZE_CHUNK_SIZE = 4096;
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int length;
+
+    BufferSlice(ByteBuffer buffer, int start, int length) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public byte get(int i) {
+        if (i >= length || i < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        return buffer.get(start + i);
+    }
+
+    @Override
+    protected byte get0(int i) {
+        return buffer.get(start + i);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the index of the slice in array()
+     */
+    @Override
+    public int start() {
+        return buffer.hasArray() ? buffer.arrayOffset() + start : 0;
+    }
+
+    /**
+     * @return the backing array of a heap buffer, or a copy of the slice
+     * for a direct buffer.
+     */
+    @Override
+    public byte[] array() {
+        return buffer.hasArray() ? buffer.array() : toBytes();
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] bytes = new byte[length];
+        toByteBuffer().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + length).position(start);
+        return view.slice();
+    }
+
+    @Override
+    public Slice subSlice(int start, int length) {
+        if (start < 0 || start > this.length) {
+            return new WrapSlice();
+        }
+        return new BufferSlice(buffer, this.start + start, Math.min(length, this.length - start));
+    }
+
+    /**
+     * A direct buffer is handed to the handler in chunks.
+     */
+    @Override
+    public void serialize(SliceByteStreamHandler handler) {
+        if (buffer.hasArray()) {
+            handler.handle(buffer.array(), buffer.arrayOffset() + start, length);
+            return;
+        }
+        ByteBuffer view = toByteBuffer();
+        byte[] chunk = new byte[Math.min(length, SERIALIZE_CHUNK_SIZE)];
+        while (view.hasRemaining()) {
+            int size = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, size);
+            handler.handle(chunk, 0, size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(toBytes(), WrapSlice.UTF8_CHARSET);
+    }
+}
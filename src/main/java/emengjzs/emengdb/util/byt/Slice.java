@@ -5,6 +5,7 @@ package emengjzs.emengdb.util.byt;
 
 import emengjzs.emengdb.db.ByteConsumer;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 public abstract class Slice {
@@ -25,6 +26,20 @@ public abstract class Slice {
         return s;
     }
 
+    /**
+     * @return a view of the remaining bytes of the buffer, no copy
+     */
+    public static Slice from(ByteBuffer buffer) {
+        return new BufferSlice(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * @return a view of the bytes of the buffer in [start, start + length), no copy
+     */
+    public static Slice from(ByteBuffer buffer, int start, int length) {
+        return new BufferSlice(buffer, start, length);
+    }
+
     public static CompositeSlice compose(Slice ...slices) {
         return new CompositeSlice(slices);
     }
@@ -46,6 +61,14 @@ public abstract class Slice {
     abstract public void serialize(SliceByteStreamHandler handler);
 
 
+    /**
+     * @return a ByteBuffer viewing the slice, whose position is 0 and
+     * limit is the length.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(array(), start(), length()).slice();
+    }
+
     public Slice subSlice(int start) {
         return subSlice(start, length() - start);
     }
@@ -57,7 +80,7 @@ public abstract class Slice {
     }
 
     public int compareTo(Slice o) {
-        int minLen = o.length() < length() ? length() : o.length();
+        int minLen = Math.min(length(), o.length());
         for (int i = 0; i < minLen; i++) {
             if (get0(i) - o.get0(i) != 0) {
                 return (0xFF & get0(i)) - (0xFF & o.get0(i));
@@ -21,6 +21,8 @@ public class BufferedWritableFile extends OutputStreamWrapWritableFile<BufferedO
 
     @Override
     public void sync() throws IOException {
+        // the buffered bytes first, or they are not in the file to be synced
+        out.flush();
         writableFile.sync();
     }
 
@@ -54,10 +54,9 @@ public class MmapWriterableFile extends WritableFile {
     }
 
     private void init(String fileName, long offset) throws IOException {
-        this.fileOffset = offset;
         rw = new RandomAccessFile(fileName, "rw");
         fileChannel = rw.getChannel();
-        offset = offset == -1 ? rw.length() : offset;
+        this.fileOffset = offset == -1 ? rw.length() : offset;
         mmapBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, fileOffset, 0);
         unMapWorker = new UmmapWorker();
         sliceWriteHandler = ByteStream.newSliceWriteHandler(this);
@@ -65,13 +64,17 @@ public class MmapWriterableFile extends WritableFile {
 
 
 
+    /**
+     * Force the current mapping, and the whole file if some mappings
+     * have been unmapped without being forced since the last sync.
+     */
     @Override
     public void sync() throws IOException {
+        mmapBuffer.force();
         if (! isLastMapSync) {
-            // this.rw.getFD().sync();
+            fileChannel.force(false);
             isLastMapSync = true;
         }
-        mmapBuffer.force();
     }
 
 
@@ -79,7 +82,7 @@ public class MmapWriterableFile extends WritableFile {
         // mmapBuffer.force();
         // asume gc will collect this.
         fileOffset += mmapBuffer.capacity();
-        isLastMapSync = true;
+        isLastMapSync = false;
         currentHandler.unMap(mmapBuffer);
         mmapBuffer = null;
     }
@@ -70,6 +70,7 @@ public class PrimitiveWritable extends WritableFile implements DataOutput {
     @Override
     public void writeLong(long v) throws IOException {
         byte writeBuffer[] = new byte[8];
+        writeBuffer[0] = (byte)(v >>> 56);
         writeBuffer[1] = (byte)(v >>> 48);
         writeBuffer[2] = (byte)(v >>> 40);
         writeBuffer[3] = (byte)(v >>> 32);
@@ -129,4 +130,14 @@ public class PrimitiveWritable extends WritableFile implements DataOutput {
     public void sync() throws IOException {
         writableFile.sync();
     }
+
+    @Override
+    public void flush() throws IOException {
+        writableFile.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writableFile.close();
+    }
 }
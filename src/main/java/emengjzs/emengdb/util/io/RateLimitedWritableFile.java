@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util.io;
+
+import java.io.IOException;
+
+/**
+ * Ask the RateLimiter before each write. Put it under a BufferedWritableFile,
+ * so it is asked once a buffer rather than once a byte.
+ */
+public class RateLimitedWritableFile extends WrapWritableFile {
+
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Priority priority;
+
+    public RateLimitedWritableFile(WritableFile out, RateLimiter rateLimiter, RateLimiter.Priority priority) {
+        super(out);
+        this.rateLimiter = rateLimiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public void write(byte val) throws IOException {
+        rateLimiter.request(1, priority);
+        out.write(val);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int len) throws IOException {
+        rateLimiter.request(len, priority);
+        out.write(b, offset, len);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+}
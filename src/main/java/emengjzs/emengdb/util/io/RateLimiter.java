@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util.io;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket shared by the background writers, refilled with a tenth
+ * of bytesPerSecond every 100ms, and never holding more than one refill,
+ * so the writes can not burst after an idle while.
+ *
+ * The requests wait in a queue of their priority, the queue of HIGH is
+ * always served before the one of LOW, and a queue is served in order. A
+ * request is granted once there is any token left, the tokens may go below
+ * zero then, and the requests after it wait for the refills to pay it back.
+ * A large request is split into requests of a refill at most, so the other
+ * writers get their turns between them.
+ *
+ * The rate can be changed at any time, 0 for no limit, in which case the
+ * bytes are still counted.
+ */
+public class RateLimiter {
+
+    public enum Priority {
+        // the flushes, the writes are stalled if they fall behind
+        HIGH,
+        // the compactions
+        LOW
+    }
+
+    static final long REFILL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+    private final ArrayDeque<Request>[] queues;
+
+    private volatile long bytesPerSecond;
+    private long available;
+    private long nextRefillNanos;
+
+    private final long[] totalBytes = new long[Priority.values().length];
+    // the bytes requested in the current second and the one before it
+    private long currentSecond;
+    private long bytesInCurrentSecond;
+    private long bytesInLastSecond;
+
+    /**
+     * @param bytesPerSecond 0 for no limit.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i ++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        long now = System.nanoTime();
+        this.available = refillBytes(this.bytesPerSecond);
+        this.nextRefillNanos = now + REFILL_PERIOD_NANOS;
+        this.currentSecond = now / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Block until the bytes can be written.
+     *
+     * @throws InterruptedIOException if interrupted while waiting, the
+     *                                interrupt status is kept.
+     */
+    public void request(long bytes, Priority priority) throws InterruptedIOException {
+        if (bytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            long left = bytes;
+            while (left > 0 && bytesPerSecond > 0) {
+                long chunk = Math.min(left, refillBytes(bytesPerSecond));
+                Request request = new Request(chunk);
+                ArrayDeque<Request> queue = queues[priority.ordinal()];
+                queue.addLast(request);
+                try {
+                    while (! request.granted) {
+                        long now = System.nanoTime();
+                        refillAndGrant(now);
+                        if (! request.granted) {
+                            granted.awaitNanos(nextRefillNanos - now);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    if (! request.granted) {
+                        queue.remove(request);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the rate limiter.");
+                }
+                left -= chunk;
+            }
+            totalBytes[priority.ordinal()] += bytes;
+            roll(System.nanoTime());
+            bytesInCurrentSecond += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Change the rate, the requests waiting are served at the new rate
+     * from the next refill.
+     *
+     * @param bytesPerSecond 0 for no limit.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        lock.lock();
+        try {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            available = Math.min(available, refillBytes(this.bytesPerSecond));
+            refillAndGrant(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes requested in the last whole second.
+     */
+    public long getThroughput() {
+        lock.lock();
+        try {
+            roll(System.nanoTime());
+            return bytesInLastSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes requested by the priority since created.
+     */
+    public long getTotalBytes(Priority priority) {
+        lock.lock();
+        try {
+            return totalBytes[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{bytesPerSecond=" + bytesPerSecond + ", throughput=" + getThroughput() + '}';
+    }
+
+    private static long refillBytes(long bytesPerSecond) {
+        return Math.max(1, bytesPerSecond * REFILL_PERIOD_NANOS / NANOS_PER_SECOND);
+    }
+
+    private void refillAndGrant(long now) {
+        if (bytesPerSecond <= 0) {
+            for (ArrayDeque<Request> queue : queues) {
+                while (! queue.isEmpty()) {
+                    queue.pollFirst().granted = true;
+                }
+            }
+            granted.signalAll();
+            return;
+        }
+        long refill = refillBytes(bytesPerSecond);
+        if (now - nextRefillNanos >= 0) {
+            long periods = (now - nextRefillNanos) / REFILL_PERIOD_NANOS + 1;
+            available = Math.min(refill, available + periods * refill);
+            nextRefillNanos += periods * REFILL_PERIOD_NANOS;
+        }
+        boolean any = false;
+        for (ArrayDeque<Request> queue : queues) {
+            while (available > 0 && ! queue.isEmpty()) {
+                Request request = queue.pollFirst();
+                available -= request.bytes;
+                request.granted = true;
+                any = true;
+            }
+            if (! queue.isEmpty()) {
+                // the lower priorities wait behind it
+                break;
+            }
+        }
+        if (any) {
+            granted.signalAll();
+        }
+    }
+
+    private void roll(long now) {
+        long second = now / NANOS_PER_SECOND;
+        if (second != currentSecond) {
+            bytesInLastSecond = second == currentSecond + 1 ? bytesInCurrentSecond : 0;
+            bytesInCurrentSecond = 0;
+            currentSecond = second;
+        }
+    }
+
+
+    private static class Request {
+        final long bytes;
+        boolean granted;
+
+        Request(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
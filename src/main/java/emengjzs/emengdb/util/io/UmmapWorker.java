@@ -22,13 +22,13 @@ public class UmmapWorker implements Closeable {
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-    void unMapAsync(ByteBuffer buffer) {
+    public void unMapAsync(ByteBuffer buffer) {
         service.submit(() -> {
             unmapMmaped0(buffer);
         });
     }
 
-    void unMapSync(ByteBuffer buffer) {
+    public void unMapSync(ByteBuffer buffer) {
 
         unmapMmaped0(buffer);
 
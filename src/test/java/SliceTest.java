@@ -42,6 +42,22 @@ public class SliceTest {
         log.debug(Slice.from(bf.array()).toByteString());
     }
 
+    @Test
+    public void testBufferSlice() {
+        ByteBuffer bf = ByteBuffer.allocateDirect(16);
+        bf.put("0123456789".getBytes());
+        bf.flip();
+        Slice s = Slice.from(bf, 2, 5);
+        Assertions.assertThat(s.toString()).isEqualTo("23456");
+        Assertions.assertThat(s.subSlice(1, 2).toString()).isEqualTo("34");
+        Assertions.assertThat(s.toByteBuffer().remaining()).isEqualTo(5);
+        Assertions.assertThat(s.compareTo(Slice.from("23456"))).isEqualTo(0);
+        // a view, not a copy
+        bf.put(2, (byte) 'x');
+        Assertions.assertThat(s.toString()).isEqualTo("x3456");
+        Assertions.assertThat(bf.position()).isEqualTo(0);
+    }
+
 
 
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb;
+
+import emengjzs.emengdb.db.CompactionStats;
+import emengjzs.emengdb.db.EmengdbImpt;
+import emengjzs.emengdb.db.Options;
+import emengjzs.emengdb.util.RandomBuilder;
+import emengjzs.emengdb.util.byt.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same ingest workload by the leveled and the universal compaction:
+ * random unique keys with 100 bytes values into a fresh db, then wait for
+ * the compactions to settle.
+ *
+ * The score is the time of the whole load, the write amplification of
+ * the tables (flushed + compacted bytes over flushed bytes) is logged
+ * after each iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactionStyleBenchmark {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Param({"LEVELED", "UNIVERSAL"})
+    Options.CompactionStyle style;
+
+    @Param({"500000"})
+    int entries;
+
+    final String dbPath = "emengdb-compaction-benchmark";
+
+    EmengdbImpt db;
+    Slice value;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        delete(new File(dbPath));
+        Options options = new Options();
+        options.setDbPath(dbPath);
+        options.setMemTableSize(4 << 20);
+        options.setMaxBytesForLevelBase(16 << 20);
+        options.setTargetFileSize(4 << 20);
+        options.setCompactionStyle(style);
+        db = new EmengdbImpt(options);
+        value = Slice.from(new RandomBuilder().getRandomBytes(100));
+    }
+
+    @Benchmark
+    public CompactionStats load() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < entries; i ++) {
+            db.put(Slice.from(String.format("%016x-%08d", random.nextLong(), i)), value);
+        }
+        long compactions;
+        do {
+            compactions = db.getCompactionStats().getCompactionCount();
+            Thread.sleep(500);
+        } while (compactions != db.getCompactionStats().getCompactionCount());
+        return db.getCompactionStats();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        log.info("{}: {}, {}", style, db.getCompactionStats(), db.getVersion());
+        db.close();
+        delete(new File(dbPath));
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompactionStyleBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb;
+
+import emengjzs.emengdb.db.EmengdbImpt;
+import emengjzs.emengdb.db.Options;
+import emengjzs.emengdb.db.Version;
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class CompactionTest extends MyTest {
+
+    final int keys = 20000;
+    final int rounds = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Options options(String dbPath) {
+        Options options = new Options();
+        options.setDbPath(dbPath);
+        options.setMemTableSize(1 << 16);
+        options.setLevel0CompactionTrigger(2);
+        options.setMaxBytesForLevelBase(1 << 18);
+        options.setLevelSizeMultiplier(4);
+        options.setTargetFileSize(1 << 16);
+        return options;
+    }
+
+    String key(int i) {
+        return String.format("key-%06d", i);
+    }
+
+    String get(EmengdbImpt db, String key) {
+        Slice value = db.get(Slice.from(key));
+        return value == null ? null : value.toString();
+    }
+
+    @Test
+    public void testCompactOverwritesAndDeletes() throws IOException, InterruptedException {
+        writeAndCheck(options(folder.newFolder("compact").getPath()));
+    }
+
+    @Test
+    public void testSubcompactions() throws IOException, InterruptedException {
+        Options options = options(folder.newFolder("subcompact").getPath());
+        options.setMaxSubcompactions(4);
+        writeAndCheck(options);
+    }
+
+    @Test
+    public void testUniversalCompaction() throws IOException, InterruptedException {
+        Options options = options(folder.newFolder("universal").getPath());
+        options.setCompactionStyle(Options.CompactionStyle.UNIVERSAL);
+        writeAndCheck(options);
+    }
+
+    void writeAndCheck(Options options) throws IOException, InterruptedException {
+        EmengdbImpt db = new EmengdbImpt(options);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int round = 0; round < rounds; round ++) {
+            for (int i = 0; i < keys; i ++) {
+                String key = key(random.nextInt(keys));
+                if (random.nextInt(10) == 0) {
+                    db.del(Slice.from(key));
+                    expected.remove(key);
+                }
+                else {
+                    String value = "value-" + round + "-" + i;
+                    db.put(Slice.from(key), Slice.from(value));
+                    expected.put(key, value);
+                }
+            }
+            // read while the compactions are running
+            for (int i = 0; i < keys; i += 7) {
+                Assert.that(get(db, key(i))).isEqualTo(expected.get(key(i)));
+            }
+        }
+        waitForCompactions(db);
+        Version version = db.getVersion();
+        Assert.that(version.getFileCount(0)).isLessThan(options.getLevel0CompactionTrigger());
+        int compactedFiles = 0;
+        for (int level = 1; level < Version.NUM_LEVELS; level ++) {
+            compactedFiles += version.getFileCount(level);
+        }
+        Assert.that(compactedFiles).isGreaterThan(0);
+        Assert.that(db.getCompactionStats().getWriteAmplification()).isGreaterThan(1.0);
+        for (int i = 0; i < keys; i ++) {
+            Assert.that(get(db, key(i))).isEqualTo(expected.get(key(i)));
+        }
+        db.close();
+
+        EmengdbImpt recovered = new EmengdbImpt(options);
+        for (int i = 0; i < keys; i ++) {
+            Assert.that(get(recovered, key(i))).isEqualTo(expected.get(key(i)));
+        }
+        recovered.close();
+    }
+
+    /**
+     * Wait until no compaction is done for a while.
+     */
+    static void waitForCompactions(EmengdbImpt db) throws InterruptedException {
+        long compactions;
+        do {
+            compactions = db.getCompactionStats().getCompactionCount();
+            Thread.sleep(500);
+        } while (compactions != db.getCompactionStats().getCompactionCount());
+    }
+}
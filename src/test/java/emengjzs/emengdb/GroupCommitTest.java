@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb;
+
+import emengjzs.emengdb.db.EmengdbImpt;
+import emengjzs.emengdb.db.Options;
+import emengjzs.emengdb.db.WriteBatch;
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupCommitTest extends MyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    EmengdbImpt db;
+
+    final int threadCount = 64;
+    final int turns = 200;
+
+    @Before
+    public void open() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder().getPath());
+        db = new EmengdbImpt(options);
+    }
+
+    @After
+    public void close() throws IOException {
+        db.close();
+    }
+
+    @Test
+    public void testConcurrentWrite() throws InterruptedException {
+        CountDownLatch count = new CountDownLatch(threadCount);
+        AtomicInteger failures = new AtomicInteger();
+
+        for (int t = 0; t < threadCount; t ++) {
+            final int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < turns; i ++) {
+                    WriteBatch writeBatch = new WriteBatch();
+                    writeBatch.add(Slice.from(thread + "-" + i), Slice.from("value-" + i));
+                    writeBatch.add(Slice.from(thread + "-" + i + "-deleted"), Slice.from("value-" + i));
+                    writeBatch.delete(Slice.from(thread + "-" + i + "-deleted"));
+                    if (! db.write(writeBatch).isSuccess()) {
+                        failures.incrementAndGet();
+                    }
+                }
+                count.countDown();
+            }).start();
+        }
+        count.await();
+
+        Assert.that(failures.get()).isEqualTo(0);
+        for (int t = 0; t < threadCount; t ++) {
+            for (int i = 0; i < turns; i ++) {
+                Assert.that(db.get(Slice.from(t + "-" + i)).toString()).isEqualTo("value-" + i);
+                Assert.that((Object) db.get(Slice.from(t + "-" + i + "-deleted"))).isNull();
+            }
+        }
+    }
+
+}
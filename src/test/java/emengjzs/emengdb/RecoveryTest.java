@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb;
+
+import emengjzs.emengdb.api.PrimitiveEmengAdapter;
+import emengjzs.emengdb.db.EmengdbImpt;
+import emengjzs.emengdb.db.Options;
+import emengjzs.emengdb.test.core.MyTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class RecoveryTest extends MyTest {
+
+    final int turns = 3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverFromLog() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder("log").getPath());
+        PrimitiveEmengAdapter adapter = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        for (int i = 0; i < turns; i ++) {
+            adapter.put("recover-" + i, "value-" + i);
+            if (i % 3 == 0) {
+                adapter.del("recover-" + i);
+            }
+        }
+        // close does not flush the memtable, its writes are recovered from the log
+        adapter.close();
+
+        PrimitiveEmengAdapter recovered = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        for (int i = 0; i < turns; i ++) {
+            if (i % 3 == 0) {
+                Assert.that((Object) recovered.get("recover-" + i)).isNull();
+            }
+            else {
+                Assert.that(recovered.getString("recover-" + i)).isEqualTo("value-" + i);
+            }
+        }
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoverInParallel() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder("parallel").getPath());
+        options.setRecoveryThreads(4);
+        PrimitiveEmengAdapter adapter = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        // large enough a log to be split into segments
+        String padding = new String(new char[1000]).replace('\0', 'x');
+        for (int i = 0; i < turns; i ++) {
+            adapter.put("parallel-" + i, padding + i);
+        }
+        adapter.close();
+
+        PrimitiveEmengAdapter recovered = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        for (int i = 0; i < turns; i ++) {
+            Assert.that(recovered.getString("parallel-" + i)).isEqualTo(padding + i);
+        }
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoverFromSwitchedLogs() throws IOException {
+        Options options = new Options();
+        File dir = folder.newFolder("switch");
+        options.setDbPath(dir.getPath());
+        options.setMemTableSize(1 << 14);
+        EmengdbImpt db = new EmengdbImpt(options);
+        PrimitiveEmengAdapter adapter = new PrimitiveEmengAdapter(db);
+        for (int i = 0; i < turns; i ++) {
+            adapter.put("switch-" + i, "value-" + i);
+        }
+        // the data in the immutable memtables is still readable
+        for (int i = 0; i < turns; i ++) {
+            Assert.that(adapter.getString("switch-" + i)).isEqualTo("value-" + i);
+        }
+        db.close();
+        Assert.that(dir.list().length).isGreaterThan(1);
+
+        PrimitiveEmengAdapter recovered = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        for (int i = 0; i < turns; i ++) {
+            Assert.that(recovered.getString("switch-" + i)).isEqualTo("value-" + i);
+        }
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoverFromTables() throws IOException, InterruptedException {
+        Options options = new Options();
+        File dir = folder.newFolder("flush");
+        options.setDbPath(dir.getPath());
+        options.setMemTableSize(1 << 14);
+        EmengdbImpt db = new EmengdbImpt(options);
+        PrimitiveEmengAdapter adapter = new PrimitiveEmengAdapter(db);
+        for (int i = 0; i < turns; i ++) {
+            adapter.put("flush-" + i, "value-" + i);
+            if (i % 3 == 0) {
+                adapter.del("flush-" + i);
+            }
+        }
+        // give the flush thread a while
+        Thread.sleep(1000);
+        db.close();
+        Assert.that(dir.list((parent, name) -> name.endsWith(".sst")).length).isGreaterThan(0);
+
+        PrimitiveEmengAdapter recovered = new PrimitiveEmengAdapter(new EmengdbImpt(options));
+        for (int i = 0; i < turns; i ++) {
+            if (i % 3 == 0) {
+                Assert.that((Object) recovered.get("flush-" + i)).isNull();
+            }
+            else {
+                Assert.that(recovered.getString("flush-" + i)).isEqualTo("value-" + i);
+            }
+        }
+        recovered.close();
+    }
+
+}
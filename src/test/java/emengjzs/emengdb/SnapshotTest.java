@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb;
+
+import emengjzs.emengdb.api.ReadOptions;
+import emengjzs.emengdb.api.Snapshot;
+import emengjzs.emengdb.db.EmengdbImpt;
+import emengjzs.emengdb.db.Options;
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SnapshotTest extends MyTest {
+
+    final int keys = 20000;
+    final int rounds = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String key(int i) {
+        return String.format("key-%06d", i);
+    }
+
+    Options options() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder().getPath());
+        options.setMemTableSize(1 << 16);
+        options.setLevel0CompactionTrigger(2);
+        return options;
+    }
+
+    void writeRound(EmengdbImpt db, int round) {
+        for (int i = 0; i < keys; i ++) {
+            db.put(Slice.from(key(i)), Slice.from("value-" + round + "-" + i));
+        }
+    }
+
+    String get(EmengdbImpt db, Snapshot snapshot, String key) {
+        Slice value = db.get(new ReadOptions(snapshot), Slice.from(key));
+        return value == null ? null : value.toString();
+    }
+
+    @Test
+    public void testReadSnapshotsAcrossCompactions() throws IOException, InterruptedException {
+        Options options = options();
+        options.setMaxBytesForLevelBase(1 << 18);
+        options.setTargetFileSize(1 << 16);
+        EmengdbImpt db = new EmengdbImpt(options);
+
+        // a snapshot taken after each round, with what it should see
+        List<Snapshot> snapshots = new ArrayList<>();
+        List<Map<String, String>> views = new ArrayList<>();
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int round = 0; round < rounds; round ++) {
+            for (int i = 0; i < keys; i ++) {
+                String key = key(random.nextInt(keys));
+                if (random.nextInt(10) == 0) {
+                    db.del(Slice.from(key));
+                    expected.remove(key);
+                }
+                else {
+                    String value = "value-" + round + "-" + i;
+                    db.put(Slice.from(key), Slice.from(value));
+                    expected.put(key, value);
+                }
+            }
+            snapshots.add(db.getSnapshot());
+            views.add(new HashMap<>(expected));
+        }
+        // release one in the middle, the others still see their versions
+        db.releaseSnapshot(snapshots.remove(2));
+        views.remove(2);
+        CompactionTest.waitForCompactions(db);
+        Assert.that(db.getCompactionStats().getCompactionCount()).isGreaterThan(0L);
+        for (int s = 0; s < snapshots.size(); s ++) {
+            for (int i = 0; i < keys; i ++) {
+                Assert.that(get(db, snapshots.get(s), key(i))).isEqualTo(views.get(s).get(key(i)));
+            }
+        }
+        for (int i = 0; i < keys; i ++) {
+            Assert.that(get(db, null, key(i))).isEqualTo(expected.get(key(i)));
+        }
+        for (Snapshot snapshot : snapshots) {
+            db.releaseSnapshot(snapshot);
+        }
+        db.close();
+    }
+
+    /**
+     * Each flush makes the universal style merge all the runs into one, so
+     * the tables have a version of each key for each stripe.
+     */
+    @Test
+    public void testDropOnceReleased() throws IOException, InterruptedException {
+        Options options = options();
+        options.setCompactionStyle(Options.CompactionStyle.UNIVERSAL);
+        options.setUniversalMaxSizeAmplificationPercent(0);
+        EmengdbImpt db = new EmengdbImpt(options);
+
+        writeRound(db, 0);
+        Snapshot snapshot = db.getSnapshot();
+        for (int round = 1; round < rounds; round ++) {
+            writeRound(db, round);
+        }
+        CompactionTest.waitForCompactions(db);
+        Assert.that(db.getCompactionStats().getCompactionCount()).isGreaterThan(0L);
+        for (int i = 0; i < keys; i ++) {
+            Assert.that(get(db, snapshot, key(i))).isEqualTo("value-0-" + i);
+        }
+        long dropped = db.getCompactionStats().getCompactionEntriesDropped();
+
+        // the versions of round 0 are dropped by the next merge, with the
+        // ones the round overwrites, while a held snapshot keeps them
+        db.releaseSnapshot(snapshot);
+        writeRound(db, rounds);
+        CompactionTest.waitForCompactions(db);
+        Assert.that(db.getCompactionStats().getCompactionEntriesDropped() - dropped)
+                .isGreaterThan(keys * 3L / 2);
+        for (int i = 0; i < keys; i ++) {
+            Assert.that(get(db, null, key(i))).isEqualTo("value-" + rounds + "-" + i);
+        }
+        db.close();
+    }
+
+    /**
+     * The keys are never deleted, a read without a snapshot always finds one
+     * of their versions while the writes flush and compact the older ones away.
+     */
+    @Test
+    public void testReadWhileCompacting() throws IOException, InterruptedException {
+        Options options = options();
+        options.setMaxBytesForLevelBase(1 << 18);
+        options.setTargetFileSize(1 << 16);
+        EmengdbImpt db = new EmengdbImpt(options);
+        final int count = 200;
+        for (int i = 0; i < count; i ++) {
+            db.put(Slice.from(key(i)), Slice.from("value-0-" + i));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> missing = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 32; r ++) {
+            Random random = new Random(r);
+            Thread reader = new Thread(() -> {
+                while (!done.get() && missing.get() == null) {
+                    String key = key(random.nextInt(count));
+                    if (get(db, null, key) == null) {
+                        missing.compareAndSet(null, key);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int round = 1; round < 4000 && missing.get() == null; round ++) {
+            for (int i = 0; i < count; i ++) {
+                db.put(Slice.from(key(i)), Slice.from("value-" + round + "-" + i));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Assert.that(missing.get()).isNull();
+        Assert.that(db.getCompactionStats().getCompactionEntriesDropped()).isGreaterThan(0L);
+        db.close();
+    }
+
+    @Test
+    public void testReleaseTwice() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder("release").getPath());
+        EmengdbImpt db = new EmengdbImpt(options);
+        db.put(Slice.from("a"), Slice.from("1"));
+        Snapshot snapshot = db.getSnapshot();
+        db.put(Slice.from("a"), Slice.from("2"));
+        Assert.that(get(db, snapshot, "a")).isEqualTo("1");
+        Assert.that(get(db, null, "a")).isEqualTo("2");
+        db.releaseSnapshot(snapshot);
+        assertThatThrownBy(() -> db.releaseSnapshot(snapshot)).isInstanceOf(IllegalArgumentException.class);
+        db.close();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Test;
+
+import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ArenaMemTableTest extends MyTest {
+
+    // small chunks to switch chunks often
+    MemTable arenaTable = new ArenaMemTable(new InternalKeyComparator(), 1 << 16);
+    MemTable skipListTable = new SkipListMemTable(new InternalKeyComparator());
+
+    final int threadCount = 8;
+    final int turns = 10000;
+    final int keyRange = 3000;
+
+    AtomicLong seq = new AtomicLong(1);
+
+    @Test
+    public void testDuplicateSequenceRejected() {
+        arenaTable.add(1, ValueType.VALUE, "key".getBytes(), "value".getBytes());
+        assertThatThrownBy(() -> arenaTable.add(1, ValueType.VALUE, "key".getBytes(), "other".getBytes()))
+                .isInstanceOf(IllegalStateException.class);
+        MemTableGetResult result = arenaTable.get(new LookupKey(Slice.from("key"), 1));
+        Assert.that(result.value.toString()).isEqualTo("value");
+    }
+
+    @Test
+    public void testSameAsSkipListMemTable() throws InterruptedException {
+        CountDownLatch count = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t ++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < turns; i ++) {
+                    byte[] key = ("key-" + random.nextInt(keyRange)).getBytes();
+                    ValueType type = random.nextInt(5) == 0 ? ValueType.DELETE : ValueType.VALUE;
+                    // some values are larger than a quarter of the chunk
+                    byte[] value = new byte[type == ValueType.DELETE ? 0
+                            : random.nextInt(10) == 0 ? 20000 : random.nextInt(100)];
+                    random.nextBytes(value);
+                    long s = seq.getAndIncrement();
+                    arenaTable.add(s, type, key, value);
+                    synchronized (skipListTable) {
+                        skipListTable.add(s, type, key, value);
+                    }
+                }
+                count.countDown();
+            }).start();
+        }
+        count.await();
+
+        ListIterator<Entry<InternalKey, Slice>> arenaItr = arenaTable.getIterator();
+        ListIterator<Entry<InternalKey, Slice>> skipListItr = skipListTable.getIterator();
+        while (skipListItr.hasNext()) {
+            Assert.that(arenaItr.hasNext()).isTrue();
+            Entry<InternalKey, Slice> expected = skipListItr.next();
+            Entry<InternalKey, Slice> actual = arenaItr.next();
+            Assert.that(actual.getKey().getUserKey()).isEqualTo(expected.getKey().getUserKey());
+            Assert.that(actual.getKey().getSeqFlag()).isEqualTo(expected.getKey().getSeqFlag());
+            Assert.that(actual.getValue()).isEqualTo(expected.getValue());
+        }
+        Assert.that(arenaItr.hasNext()).isFalse();
+
+        Random random = new Random();
+        for (int i = 0; i < turns; i ++) {
+            LookupKey lookupKey = new LookupKey(
+                    Slice.from("key-" + random.nextInt(keyRange + 100)), random.nextInt((int) seq.get()));
+            MemTableGetResult expected = skipListTable.get(lookupKey);
+            MemTableGetResult actual = arenaTable.get(lookupKey);
+            Assert.that(actual.status).isEqualTo(expected.status);
+            Assert.that(actual.value).isEqualTo(expected.value);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.test.core.MyTest;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SequenceNumberTest extends MyTest {
+
+    SequenceNumber sequence = new SequenceNumber();
+
+    final int threadCount = 16;
+    final int turns = 2000;
+
+    @Test
+    public void testPublishInOrder() throws InterruptedException {
+        CountDownLatch count = new CountDownLatch(threadCount);
+        AtomicInteger allocated = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        Set<Long> firsts = ConcurrentHashMap.newKeySet();
+
+        for (int t = 0; t < threadCount; t ++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < turns; i ++) {
+                    int records = random.nextInt(4) + 1;
+                    long first = sequence.allocate(records);
+                    allocated.addAndGet(records);
+                    if (! firsts.add(first)) {
+                        failures.incrementAndGet();
+                    }
+                    // a range allocated later is never visible before this one
+                    if (sequence.getLastVisible() >= first) {
+                        failures.incrementAndGet();
+                    }
+                    if (random.nextInt(16) == 0) {
+                        Thread.yield();
+                    }
+                    sequence.publish(first, records);
+                    if (sequence.getLastVisible() < first + records - 1) {
+                        failures.incrementAndGet();
+                    }
+                }
+                count.countDown();
+            }).start();
+        }
+        count.await();
+
+        Assert.that(failures.get()).isEqualTo(0);
+        Assert.that(sequence.getLastVisible()).isEqualTo((long) allocated.get());
+    }
+
+    @Test
+    public void testAdvanceOnRecovery() {
+        sequence.advanceTo(100);
+        sequence.advanceTo(50);
+        Assert.that(sequence.getLastVisible()).isEqualTo(100L);
+        long first = sequence.allocate(3);
+        Assert.that(first).isEqualTo(101L);
+        sequence.publish(first, 3);
+        Assert.that(sequence.getLastVisible()).isEqualTo(103L);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+public class SyncPolicyTest extends MyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    EmengdbImpt open(Options.SyncPolicy policy) throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder().getPath());
+        options.setSyncPolicy(policy);
+        options.setSyncIntervalMillis(50);
+        return new EmengdbImpt(options);
+    }
+
+    WriteBatch batch(String key) {
+        WriteBatch writeBatch = new WriteBatch();
+        writeBatch.add(Slice.from(key), Slice.from("value"));
+        return writeBatch;
+    }
+
+    @Test
+    public void testWriteOptionsOverride() throws IOException {
+        WriteOptions defaults = new WriteOptions();
+        Assert.that(defaults.isSync(Options.SyncPolicy.EVERY_WRITE)).isTrue();
+        Assert.that(defaults.isSync(Options.SyncPolicy.GROUP)).isTrue();
+        Assert.that(defaults.isSync(Options.SyncPolicy.INTERVAL)).isFalse();
+        Assert.that(defaults.isSync(Options.SyncPolicy.NONE)).isFalse();
+        Assert.that(new WriteOptions(true).isSync(Options.SyncPolicy.NONE)).isTrue();
+        Assert.that(new WriteOptions(false).isSync(Options.SyncPolicy.EVERY_WRITE)).isFalse();
+
+        EmengdbImpt db = open(Options.SyncPolicy.NONE);
+        db.write(batch("a"));
+        Assert.that(db.getLogSyncCount()).isEqualTo(0L);
+        db.write(new WriteOptions(true), batch("b"));
+        Assert.that(db.getLogSyncCount()).isEqualTo(1L);
+        db.close();
+
+        db = open(Options.SyncPolicy.EVERY_WRITE);
+        db.write(batch("a"));
+        Assert.that(db.getLogSyncCount()).isEqualTo(1L);
+        db.write(new WriteOptions(false), batch("b"));
+        Assert.that(db.getLogSyncCount()).isEqualTo(1L);
+        db.close();
+    }
+
+    @Test
+    public void testGroupSyncedIfAnyAsks() {
+        EmengdbImpt.WriteTask first = new EmengdbImpt.WriteTask(batch("a"), false);
+        EmengdbImpt.WriteTask second = new EmengdbImpt.WriteTask(batch("b"), true);
+        EmengdbImpt.WriteTask third = new EmengdbImpt.WriteTask(batch("c"), false);
+        Queue<EmengdbImpt.WriteTask> queue = new ArrayDeque<>();
+        queue.add(first);
+        queue.add(second);
+        queue.add(third);
+
+        Assert.that(EmengdbImpt.lastOfWriteGroup(queue, Options.SyncPolicy.GROUP)).isSameAs(third);
+        Assert.that(EmengdbImpt.isGroupSync(queue, third)).isTrue();
+        Assert.that(EmengdbImpt.isGroupSync(queue, first)).isFalse();
+    }
+
+    @Test
+    public void testEveryWriteGroupsOnlyNoSync() {
+        EmengdbImpt.WriteTask first = new EmengdbImpt.WriteTask(batch("a"), false);
+        EmengdbImpt.WriteTask second = new EmengdbImpt.WriteTask(batch("b"), false);
+        EmengdbImpt.WriteTask third = new EmengdbImpt.WriteTask(batch("c"), true);
+        Queue<EmengdbImpt.WriteTask> queue = new ArrayDeque<>();
+        queue.add(first);
+        queue.add(second);
+        queue.add(third);
+
+        // the batches set not to sync are grouped, up to the one to be synced
+        Assert.that(EmengdbImpt.lastOfWriteGroup(queue, Options.SyncPolicy.EVERY_WRITE)).isSameAs(second);
+        queue.poll();
+        queue.poll();
+        queue.add(new EmengdbImpt.WriteTask(batch("d"), false));
+        // the one to be synced is written alone
+        Assert.that(EmengdbImpt.lastOfWriteGroup(queue, Options.SyncPolicy.EVERY_WRITE)).isSameAs(third);
+    }
+
+    @Test
+    public void testIntervalSyncsDirtyLog() throws IOException, InterruptedException {
+        EmengdbImpt db = open(Options.SyncPolicy.INTERVAL);
+        Assert.that(db.write(batch("a")).isSuccess()).isTrue();
+        // synced by the syncer, not by the write
+        Thread.sleep(500);
+        long syncs = db.getLogSyncCount();
+        Assert.that(syncs).isEqualTo(1L);
+        // nothing is written, the clean log is not synced again
+        Thread.sleep(500);
+        Assert.that(db.getLogSyncCount()).isEqualTo(syncs);
+
+        db.write(batch("b"));
+        Thread.sleep(500);
+        Assert.that(db.getLogSyncCount()).isEqualTo(syncs + 1);
+        db.close();
+    }
+}
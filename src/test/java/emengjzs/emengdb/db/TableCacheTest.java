@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.table.TableBuilder;
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TableCacheTest extends MyTest {
+
+    final String dbPath = "emengdb-table-cache";
+    final int tableCount = 10;
+    final TableKeyComparator cmp = new TableKeyComparator(Slice::compareTo);
+
+    TableCache cache;
+
+    @Before
+    public void init() throws IOException {
+        new File(dbPath).mkdirs();
+        for (int number = 1; number <= tableCount; number ++) {
+            TableBuilder builder = new TableBuilder(new BufferedWritableFile(
+                    new DiskWritableFile(FileName.tableFileName(dbPath, number))), cmp);
+            builder.add(key(number), Slice.from("value-" + number));
+            builder.finish();
+        }
+        cache = new TableCache(dbPath, 3, cmp, null, null);
+    }
+
+    @After
+    public void clean() {
+        cache.close();
+        for (int number = 1; number <= tableCount; number ++) {
+            new File(FileName.tableFileName(dbPath, number)).delete();
+        }
+        new File(dbPath).delete();
+    }
+
+    Slice key(int number) {
+        return TableKeyComparator.encode(Slice.from("key-" + number), 1L << 8 | ValueType.VALUE.toByte());
+    }
+
+    String read(int number) throws IOException {
+        TableCache.Handle handle = cache.get(number);
+        try {
+            Entry<Slice, Slice> entry = handle.getReader().get(key(number));
+            return entry.getValue().toString();
+        } finally {
+            handle.release();
+        }
+    }
+
+    @Test
+    public void testOpenFilesLimited() throws IOException {
+        for (int round = 0; round < 3; round ++) {
+            for (int number = 1; number <= tableCount; number ++) {
+                assertThat(read(number)).isEqualTo("value-" + number);
+                assertThat(cache.getOpenCount()).isLessThanOrEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClosed() throws IOException {
+        TableCache.Handle first = cache.get(1);
+        first.release();
+        for (int number = 2; number <= 4; number ++) {
+            read(number);
+        }
+        // the first one is closed
+        assertThatThrownBy(() -> first.getReader().get(key(1))).isInstanceOf(IOException.class);
+        assertThat(cache.get(1)).isNotSameAs(first);
+    }
+
+    @Test
+    public void testPinnedNotClosed() throws IOException {
+        TableCache.Handle pinned = cache.get(1);
+        for (int number = 2; number <= tableCount; number ++) {
+            read(number);
+        }
+        assertThat(pinned.getReader().get(key(1)).getValue().toString()).isEqualTo("value-1");
+        pinned.release();
+        assertThat(cache.getOpenCount()).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    public void testEvictPinned() throws IOException {
+        TableCache.Handle pinned = cache.get(1);
+        cache.evict(1);
+        assertThat(cache.getOpenCount()).isEqualTo(0);
+        // still readable until released
+        assertThat(pinned.getReader().get(key(1)).getValue().toString()).isEqualTo("value-1");
+        pinned.release();
+        assertThatThrownBy(() -> pinned.getReader().get(key(1))).isInstanceOf(IOException.class);
+    }
+}
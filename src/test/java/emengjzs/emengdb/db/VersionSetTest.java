@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VersionSetTest extends MyTest {
+
+    final String dbPath = "emengdb-version-set";
+    final TableKeyComparator cmp = new TableKeyComparator(Slice::compareTo);
+
+    @Before
+    public void init() {
+        clean();
+        new File(dbPath).mkdirs();
+    }
+
+    @After
+    public void clean() {
+        File[] files = new File(dbPath).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(dbPath).delete();
+    }
+
+    VersionSet open() throws IOException {
+        VersionSet versionSet = new VersionSet(dbPath, cmp, new AtomicLong(1), new SequenceNumber());
+        versionSet.recover();
+        return versionSet;
+    }
+
+    FileMetaData file(long number, String smallest, String largest) {
+        return new FileMetaData(number, 100, TableKeyComparator.encode(Slice.from(smallest), 1L << 8),
+                TableKeyComparator.encode(Slice.from(largest), 1L << 8));
+    }
+
+    @Test
+    public void testCoder() {
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(1, file(7, "a", "c"));
+        edit.deleteFile(0, 5);
+        edit.setLogNumber(3);
+        edit.setLastSequence(100);
+        VersionEdit decoded = new VersionEditCoder().decode(new VersionEditCoder().encode(edit));
+        assertThat(decoded.getLogNumber()).isEqualTo(3);
+        assertThat(decoded.getNextFileNumber()).isEqualTo(-1);
+        assertThat(decoded.getLastSequence()).isEqualTo(100);
+        assertThat(decoded.getDeletedFiles()).containsEntry(5L, 0);
+        assertThat(decoded.getNewFiles()).hasSize(1);
+        FileMetaData file = decoded.getNewFiles().get(0).getFile();
+        assertThat(decoded.getNewFiles().get(0).getLevel()).isEqualTo(1);
+        assertThat(file.getNumber()).isEqualTo(7);
+        assertThat(file.getSmallest()).isEqualTo(edit.getNewFiles().get(0).getFile().getSmallest());
+        assertThat(file.getLargest()).isEqualTo(edit.getNewFiles().get(0).getFile().getLargest());
+    }
+
+    @Test
+    public void testRecoverFromManifest() throws IOException {
+        VersionSet versionSet = open();
+        versionSet.createManifest(1);
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(0, file(10, "a", "b"));
+        edit.setLogNumber(2);
+        versionSet.logAndApply(edit);
+        edit = new VersionEdit();
+        edit.deleteFile(0, 10);
+        edit.addFile(1, file(11, "a", "b"));
+        versionSet.logAndApply(edit);
+        versionSet.close();
+
+        // a torn edit at the tail
+        String manifest = new String(Files.readAllBytes(Paths.get(FileName.currentFileName(dbPath)))).trim();
+        Files.write(Paths.get(dbPath, manifest), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, StandardOpenOption.APPEND);
+
+        VersionSet recovered = open();
+        assertThat(recovered.getCurrent().getFileCount(0)).isEqualTo(0);
+        assertThat(recovered.getCurrent().getFileCount(1)).isEqualTo(1);
+        assertThat(recovered.isLive(11)).isTrue();
+        assertThat(recovered.isLive(10)).isFalse();
+        assertThat(recovered.getLogNumber()).isEqualTo(2);
+        recovered.close();
+    }
+
+    @Test
+    public void testPinnedVersionKeepsFiles() throws IOException {
+        VersionSet versionSet = open();
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(0, file(10, "a", "b"));
+        versionSet.logAndApply(edit);
+
+        Version pinned = versionSet.pin();
+        edit = new VersionEdit();
+        edit.deleteFile(0, 10);
+        edit.addFile(1, file(11, "a", "b"));
+        versionSet.logAndApply(edit);
+        assertThat(versionSet.getCurrent()).isNotSameAs(pinned);
+        assertThat(versionSet.isLive(10)).isTrue();
+        assertThat(versionSet.pollObsoleteFile()).isNull();
+
+        pinned.unref();
+        assertThat(versionSet.isLive(10)).isFalse();
+        assertThat(versionSet.pollObsoleteFile()).isEqualTo(10L);
+        assertThat(versionSet.pollObsoleteFile()).isNull();
+        // a released version can not be pinned again
+        assertThat(pinned.tryRef()).isFalse();
+        versionSet.close();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.db;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class WriteControllerTest extends MyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPressure() {
+        Options options = new Options();
+        options.setMemTableSlowdownWritesTrigger(3);
+        options.setMemTableStopWritesTrigger(5);
+        options.setLevel0SlowdownWritesTrigger(8);
+        options.setLevel0StopWritesTrigger(12);
+        options.setSoftPendingCompactionBytesLimit(100);
+        options.setHardPendingCompactionBytesLimit(0);
+        WriteController controller = new WriteController(options);
+
+        Assert.that(controller.getPressure(2, 7, 99)).isEqualTo(0.0);
+        Assert.that(controller.getPressure(3, 0, 0)).isBetween(0.0, 1.0).isNotEqualTo(0.0);
+        Assert.that(controller.getPressure(4, 0, 0)).isGreaterThan(controller.getPressure(3, 0, 0));
+        Assert.that(controller.getPressure(5, 0, 0)).isEqualTo(1.0);
+        Assert.that(controller.getPressure(0, 11, 0)).isLessThan(1.0);
+        Assert.that(controller.getPressure(0, 12, 0)).isEqualTo(1.0);
+        // no hard limit, the writes are never stopped by the bytes
+        Assert.that(controller.getPressure(0, 0, Long.MAX_VALUE)).isLessThan(1.0).isGreaterThan(0.0);
+        Assert.that(controller.getPressure(0, 0, 99)).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testDelayAddsUp() {
+        Options options = new Options();
+        options.setDelayedWriteRate(1 << 20);
+        WriteController controller = new WriteController(options);
+        long delay = 0;
+        for (int i = 0; i < 10; i ++) {
+            delay = controller.getDelayNanos(1 << 10, 0.5);
+        }
+        // 10KB at 512KB/s
+        Assert.that(TimeUnit.NANOSECONDS.toMillis(delay)).isBetween(15L, 20L);
+    }
+
+    @Test
+    public void testStallWhenBackgroundFallsBehind() throws IOException {
+        Options options = new Options();
+        options.setDbPath(folder.newFolder().getPath());
+        options.setMemTableSize(1 << 16);
+        options.setLevel0CompactionTrigger(2);
+        options.setMaxBytesForLevelBase(1 << 18);
+        options.setTargetFileSize(1 << 16);
+        options.setMemTableSlowdownWritesTrigger(2);
+        options.setMemTableStopWritesTrigger(3);
+        options.setLevel0SlowdownWritesTrigger(3);
+        options.setLevel0StopWritesTrigger(5);
+        options.setDelayedWriteRate(1 << 20);
+        // the flushes and the compactions can not keep up
+        options.setRateLimitBytesPerSecond(1 << 20);
+
+        EmengdbImpt db = new EmengdbImpt(options);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 30000; i ++) {
+            String key = String.format("key-%06d", random.nextInt(10000));
+            String value = "value-" + i;
+            db.put(Slice.from(key), Slice.from(value));
+            expected.put(key, value);
+            // the memtables waiting may still be flushed while the writes are stopped
+            Assert.that(db.getVersion().getFileCount(0)).isLessThan(
+                    options.getLevel0StopWritesTrigger() + options.getMemTableStopWritesTrigger());
+        }
+        Assert.that(db.getWriteController().getDelayedWriteCount()).isGreaterThan(0L);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Assert.that(db.get(Slice.from(entry.getKey())).toString()).isEqualTo(entry.getValue());
+        }
+        db.close();
+    }
+}
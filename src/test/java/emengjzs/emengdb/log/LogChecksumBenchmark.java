@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.log;
+
+import com.google.common.io.ByteStreams;
+import emengjzs.emengdb.util.Crc32C;
+import emengjzs.emengdb.util.RandomBuilder;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.OutputStreamWrapWritableFile;
+import emengjzs.emengdb.util.io.WritableFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the checksum on the write path of the log.
+ *
+ * - serialize:  hand the data to a file which drops everything, the baseline
+ * - checksum:   masked CRC32C of a record, on heap and direct data
+ * - addData:    LogWriter.addData, header + checksum + data
+ *
+ * Run with different JVMs to compare java.util.zip.CRC32C (9+) with the
+ * slicing-by-8 fallback (8).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogChecksumBenchmark {
+
+    @Param({"64", "512", "4096", "32000"})
+    int recordSize;
+
+    Slice data;
+    ByteBuffer directData;
+    Crc32C crc;
+    WritableFile nullFile;
+    LogWriter writer;
+
+    @Setup
+    public void setUp() {
+        LogFormat.K_BLOCK_SIZE = 32768;
+        data = Slice.from(new RandomBuilder().getRandomBytes(recordSize));
+        directData = ByteBuffer.allocateDirect(recordSize);
+        directData.put(data.array());
+        crc = Crc32C.create();
+        nullFile = new OutputStreamWrapWritableFile<>(ByteStreams.nullOutputStream());
+        writer = new LogWriter(nullFile);
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        nullFile.write(data);
+    }
+
+    @Benchmark
+    public int checksum() {
+        crc.reset();
+        crc.update(RecordType.FULL_TYPE.id);
+        crc.update(data.array(), data.start(), data.length());
+        return Crc32C.mask(crc.getValue());
+    }
+
+    @Benchmark
+    public int checksumDirect() {
+        crc.reset();
+        crc.update(RecordType.FULL_TYPE.id);
+        directData.clear();
+        crc.update(directData);
+        return Crc32C.mask(crc.getValue());
+    }
+
+    @Benchmark
+    public void addData() throws IOException {
+        writer.addData(data);
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LogChecksumBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
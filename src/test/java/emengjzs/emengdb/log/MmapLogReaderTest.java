@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.log;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.MmapWriterableFile;
+import emengjzs.emengdb.util.io.WritableFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MmapLogReaderTest extends MyTest {
+
+    final String fileName = "testMmapLog.log";
+    final int turns = 2000;
+    final int lengthRange = 3000;
+
+    Random random = new Random();
+    List<String> dataSet;
+    WritableFile file;
+    LogWriter writer;
+
+    @Before
+    public void init() throws IOException {
+        LogFormat.K_BLOCK_SIZE = 1024;
+        dataSet = new ArrayList<>(turns);
+        file = new MmapWriterableFile(fileName, 0);
+        writer = new LogWriter(file);
+    }
+
+    String getRandomString(int size) {
+        char ch[] = new char[size];
+        for (int i = 0; i < size; i ++) {
+            ch[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(ch);
+    }
+
+    @Test
+    public void testReadAcrossWindows() throws IOException, LogFileException {
+        for (int i = 0; i < turns; i ++) {
+            String str = getRandomString(random.nextInt(lengthRange) + 1);
+            dataSet.add(str);
+            writer.addData(Slice.from(str));
+        }
+        writer.close();
+
+        // a small window to remap many times
+        try (RandomAccessFile r = new RandomAccessFile(fileName, "r");
+             LogReader reader = new MmapLogReader(r, 0, 16 * 1024)) {
+            for (String str : dataSet) {
+                assertThat(reader.readNextData().toString()).isEqualTo(str);
+            }
+            assertThat(reader.readNextData()).isNull();
+        }
+    }
+
+    @Test
+    public void testTailing() throws IOException, LogFileException {
+        try (RandomAccessFile r = new RandomAccessFile(fileName, "r");
+             LogReader mmapReader = new MmapLogReader(r, 0, 16 * 1024);
+             LogReader reader = new LogReader(r, 0)) {
+            int read = 0;
+            for (int i = 0; i < turns; i ++) {
+                String str = getRandomString(random.nextInt(lengthRange) + 1);
+                dataSet.add(str);
+                writer.addData(Slice.from(str));
+                if (i % 7 == 0) {
+                    for (; read < dataSet.size(); read ++) {
+                        assertThat(mmapReader.readNextData().toString()).isEqualTo(dataSet.get(read));
+                        assertThat(reader.readNextData().toString()).isEqualTo(dataSet.get(read));
+                    }
+                    assertThat(mmapReader.readNextData()).isNull();
+                    assertThat(reader.readNextData()).isNull();
+                }
+            }
+        }
+        writer.close();
+    }
+
+    @After
+    public void clearFile() {
+        assertThat(new File(fileName).delete()).isTrue();
+    }
+
+}
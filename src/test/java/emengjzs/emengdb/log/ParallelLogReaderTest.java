@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.log;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.MmapWriterableFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ParallelLogReaderTest extends MyTest {
+
+    final String fileName = "testParallelLog.log";
+    final long logSize = 8 * ParallelLogReader.MIN_SEGMENT_SIZE;
+
+    Random random = new Random();
+    List<String> dataSet;
+
+    @Before
+    public void init() throws IOException {
+        LogFormat.K_BLOCK_SIZE = 1024;
+        dataSet = new ArrayList<>();
+        LogWriter writer = new LogWriter(new MmapWriterableFile(fileName, 0));
+        long size = 0;
+        while (size < logSize) {
+            // some data is fragmented across several blocks, or even segments
+            int length = random.nextInt(10) == 0 ? random.nextInt(1 << 18) + 1 : random.nextInt(3000) + 1;
+            char ch[] = new char[length];
+            for (int i = 0; i < length; i ++) {
+                ch[i] = (char) ('a' + random.nextInt(26));
+            }
+            String str = new String(ch);
+            dataSet.add(str);
+            writer.addData(Slice.from(str));
+            size += length;
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testReplayInOrder() throws IOException, LogFileException {
+        for (boolean mmap : new boolean[] {true, false}) {
+            List<String> replayed = new ArrayList<>();
+            try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+                ParallelLogReader reader = new ParallelLogReader(file, 4, mmap);
+                reader.replay(Slice::toString, replayed::add);
+                assertThat(reader.getLastDataEndOffset()).isEqualTo(sequentialEndOffset());
+            }
+            assertThat(replayed).isEqualTo(dataSet);
+        }
+    }
+
+    @Test
+    public void testReplayAgain() throws IOException, LogFileException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            ParallelLogReader reader = new ParallelLogReader(file, 4, false);
+            for (int i = 0; i < 2; i ++) {
+                List<String> replayed = new ArrayList<>();
+                reader.replay(Slice::toString, replayed::add);
+                assertThat(replayed).isEqualTo(dataSet);
+            }
+        }
+    }
+
+    @Test
+    public void testStopAtBrokenRecord() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            // the data of the record at the head of a block in the middle
+            long offset = file.length() / 2;
+            offset += LogFormat.K_HEADER_SIZE - offset % LogFormat.K_BLOCK_SIZE;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0x01);
+        }
+        long sequentialEnd = sequentialEndOffset();
+
+        List<String> replayed = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            ParallelLogReader reader = new ParallelLogReader(file, 4, false);
+            try {
+                reader.replay(Slice::toString, replayed::add);
+                fail("the broken record is not found");
+            } catch (LogFileException e) {
+                assertThat(reader.getLastDataEndOffset()).isEqualTo(sequentialEnd);
+            }
+        }
+        assertThat(replayed).isEqualTo(dataSet.subList(0, replayed.size()));
+    }
+
+    private long sequentialEndOffset() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             LogReader reader = new LogReader(file, 0)) {
+            try {
+                while (reader.readNextData() != null) {
+                }
+            } catch (LogFileException e) {
+                // the end of the good data
+            }
+            return reader.getLastDataEndOffset();
+        }
+    }
+
+    @After
+    public void clearFile() {
+        assertThat(new File(fileName).delete()).isTrue();
+    }
+
+}
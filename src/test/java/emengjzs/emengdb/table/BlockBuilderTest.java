@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.VarintCoder;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ListIterator;
+import java.util.Map.Entry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlockBuilderTest extends MyTest {
+
+    final int turns = 1000;
+
+    String key(int i) {
+        return String.format("user-profile-%08d", i);
+    }
+
+    TableBlock build(int restartInterval) {
+        BlockBuilder builder = new BlockBuilder(restartInterval);
+        for (int i = 0; i < turns; i ++) {
+            builder.add(Slice.from(key(i)), Slice.from("value-" + i));
+        }
+        byte[] block = builder.finish();
+        assertThat(block.length).isEqualTo(builder.currentSizeEstimate());
+        return new TableBlock(block);
+    }
+
+    @Test
+    public void testReadBack() {
+        for (int restartInterval : new int[] {1, 2, 16, turns + 1}) {
+            TableBlock block = build(restartInterval);
+            assertThat(block.getNumOfRestarts()).isEqualTo((turns - 1) / restartInterval + 1);
+            ListIterator<Entry<Slice, Slice>> itr = block.iterator(Slice::compareTo);
+            for (int i = 0; i < turns; i ++) {
+                assertThat(itr.hasNext()).isTrue();
+                Entry<Slice, Slice> entry = itr.next();
+                assertThat(entry.getKey().toString()).isEqualTo(key(i));
+                assertThat(entry.getValue().toString()).isEqualTo("value-" + i);
+            }
+            assertThat(itr.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    public void testSharedPrefix() {
+        int rawSize = 0;
+        for (int i = 0; i < turns; i ++) {
+            rawSize += key(i).length() + ("value-" + i).length();
+        }
+        BlockBuilder builder = new BlockBuilder();
+        for (int i = 0; i < turns; i ++) {
+            builder.add(Slice.from(key(i)), Slice.from("value-" + i));
+        }
+        assertThat(builder.currentSizeEstimate()).isLessThan(rawSize * 2 / 3);
+    }
+
+    @Test
+    public void testEmptyBlock() {
+        BlockBuilder builder = new BlockBuilder();
+        assertThat(builder.isEmpty()).isTrue();
+        assertThat(new TableBlock(builder.finish()).iterator(Slice::compareTo).hasNext()).isFalse();
+    }
+
+    @Test
+    public void testVarint() {
+        ByteBuffer bf = ByteBuffer.allocate(VarintCoder.MAX_VARINT32_LENGTH);
+        for (int v : new int[] {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1}) {
+            bf.clear();
+            VarintCoder.putVarint32(bf, v);
+            assertThat(bf.position()).isEqualTo(VarintCoder.varint32Length(v));
+            bf.flip();
+            assertThat(VarintCoder.getVarint32(bf)).isEqualTo(v);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.Bits;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlockCacheTest extends MyTest {
+
+    /**
+     * @return an empty block of the size, charged by the size.
+     */
+    TableBlock block(int size) {
+        byte[] block = new byte[size];
+        // one restart point
+        Bits.putInt(block, size - Integer.BYTES, 1);
+        return new TableBlock(block);
+    }
+
+    @Test
+    public void testLruEviction() {
+        // one shard, room for 10 blocks
+        BlockCache cache = new LruBlockCache(1000, 0);
+        for (int i = 0; i < 10; i ++) {
+            cache.insert(1, i, block(100)).release();
+        }
+        // touch block 0, so block 1 is the oldest
+        cache.lookup(1, 0).release();
+        cache.insert(1, 10, block(100)).release();
+
+        assertThat(cache.getUsage()).isEqualTo(1000);
+        assertThat(cache.lookup(1, 1)).isNull();
+        BlockCache.Handle handle = cache.lookup(1, 0);
+        assertThat(handle.getBlock().size()).isEqualTo(100);
+        handle.release();
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPinnedNotEvicted() {
+        BlockCache cache = new LruBlockCache(1000, 0);
+        BlockCache.Handle pinned = cache.insert(1, 0, block(600));
+        cache.insert(1, 1, block(600)).release();
+        // the unpinned one is evicted, the pinned one stays over the capacity
+        assertThat(cache.lookup(1, 1)).isNull();
+        assertThat(cache.getUsage()).isEqualTo(600);
+
+        cache.erase(1, 0);
+        assertThat(cache.lookup(1, 0)).isNull();
+        // still valid after erased
+        assertThat(pinned.getBlock().size()).isEqualTo(600);
+        pinned.release();
+        assertThat(cache.getUsage()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        BlockCache cache = new LruBlockCache(100 * 100);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t ++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 100000; i ++) {
+                    long offset = random.nextInt(1000);
+                    BlockCache.Handle handle = cache.lookup(2, offset);
+                    if (handle == null) {
+                        handle = cache.insert(2, offset, block(100));
+                    }
+                    handle.release();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(8 * 100000);
+        // each shard may be a block over its part of the capacity
+        assertThat(cache.getUsage()).isLessThanOrEqualTo(100 * 100 + 16 * 100);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BloomFilterPolicyTest extends MyTest {
+
+    final String fileName = "testFilterTable.sst";
+    final int turns = 10000;
+    final BloomFilterPolicy policy = new BloomFilterPolicy(10);
+
+    @After
+    public void clean() {
+        new File(fileName).delete();
+    }
+
+    @Test
+    public void testNoFalseNegative() {
+        FilterPolicy.FilterBuilder builder = policy.newBuilder();
+        for (int i = 0; i < turns; i ++) {
+            builder.addKey(Slice.from("key-" + i));
+        }
+        Slice filter = Slice.from(builder.finish());
+        int falsePositives = 0;
+        for (int i = 0; i < turns; i ++) {
+            assertThat(policy.keyMayMatch(Slice.from("key-" + i), filter)).isTrue();
+            if (policy.keyMayMatch(Slice.from("absent-" + i), filter)) {
+                falsePositives ++;
+            }
+        }
+        // about 1% for 10 bits per key
+        assertThat(falsePositives).isLessThan(turns / 50);
+    }
+
+    @Test
+    public void testEmptyFilter() {
+        Slice filter = Slice.from(policy.newBuilder().finish());
+        assertThat(policy.keyMayMatch(Slice.from("key"), filter)).isFalse();
+    }
+
+    @Test
+    public void testTableFilter() throws IOException {
+        TableBuilder builder = new TableBuilder(new BufferedWritableFile(new DiskWritableFile(fileName)),
+                Slice::compareTo, 1024, 16, policy);
+        for (int i = 0; i < turns; i ++) {
+            builder.add(Slice.from(String.format("key-%08d", i * 2)), Slice.from("value-" + i));
+        }
+        builder.finish();
+
+        try (TableReader reader = TableReader.open(fileName, Slice::compareTo, policy)) {
+            int passed = 0;
+            for (int i = 0; i < turns; i ++) {
+                assertThat(reader.get(Slice.from(String.format("key-%08d", i * 2)))).isNotNull();
+                if (reader.mayContain(Slice.from(String.format("key-%08d", i * 2 + 1)))) {
+                    passed ++;
+                }
+            }
+            assertThat(passed).isLessThan(turns / 50);
+        }
+        // a reader without the policy does not filter
+        try (TableReader reader = TableReader.open(fileName, Slice::compareTo)) {
+            assertThat(reader.mayContain(Slice.from("absent"))).isTrue();
+        }
+    }
+}
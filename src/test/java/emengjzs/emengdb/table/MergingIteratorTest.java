@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergingIteratorTest extends MyTest {
+
+    Iterator<Entry<Slice, Slice>> source(String value, int... keys) {
+        List<Entry<Slice, Slice>> entries = new ArrayList<>();
+        for (int key : keys) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                    Slice.from(String.format("key-%04d", key)), Slice.from(value)));
+        }
+        return entries.iterator();
+    }
+
+    @Test
+    public void testMergeInOrder() {
+        MergingIterator itr = new MergingIterator(Arrays.asList(
+                source("a", 1, 4, 7, 10),
+                source("b", 2, 5, 8),
+                source("c"),
+                source("d", 3, 6, 9)), Slice::compareTo);
+        for (int i = 1; i <= 10; i ++) {
+            assertThat(itr.hasNext()).isTrue();
+            assertThat(itr.next().getKey().toString()).isEqualTo(String.format("key-%04d", i));
+        }
+        assertThat(itr.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testSameKeyInOrderOfSources() {
+        MergingIterator itr = new MergingIterator(Arrays.asList(
+                source("newer", 1, 2), source("older", 1, 2)), Slice::compareTo);
+        assertThat(itr.next().getValue().toString()).isEqualTo("newer");
+        assertThat(itr.next().getValue().toString()).isEqualTo("older");
+        assertThat(itr.next().getValue().toString()).isEqualTo("newer");
+        assertThat(itr.next().getValue().toString()).isEqualTo("older");
+        assertThat(itr.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testNoSource() {
+        MergingIterator itr = new MergingIterator(Collections.emptyList(), Slice::compareTo);
+        assertThat(itr.hasNext()).isFalse();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapBlockCacheTest extends MyTest {
+
+    TableBlock block;
+
+    @Before
+    public void init() {
+        BlockBuilder builder = new BlockBuilder();
+        for (int i = 0; i < 100; i ++) {
+            builder.add(Slice.from(String.format("key-%05d", i)), Slice.from("value-" + i));
+        }
+        block = new TableBlock(builder.finish());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        assertThat(OffHeapBlockCache.classOf(1)).isEqualTo(0);
+        assertThat(OffHeapBlockCache.classOf(OffHeapBlockCache.CLASS_SIZES[0] + 1)).isEqualTo(1);
+        assertThat(OffHeapBlockCache.classOf(OffHeapBlockCache.PAGE_SIZE))
+                .isEqualTo(OffHeapBlockCache.CLASS_SIZES.length - 1);
+        assertThat(OffHeapBlockCache.classOf(OffHeapBlockCache.PAGE_SIZE + 1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testReadFromOffHeap() {
+        OffHeapBlockCache cache = new OffHeapBlockCache(2 * OffHeapBlockCache.PAGE_SIZE, 0);
+        cache.insert(1, 0, block).release();
+        BlockCache.Handle handle = cache.lookup(1, 0);
+        assertThat(handle.getBlock()).isNotSameAs(block);
+        TableBlock.TableIterator itr = handle.getBlock().iterator(Slice::compareTo);
+        itr.seek(Slice.from("key-00050"));
+        assertThat(itr.next().getValue().toString()).isEqualTo("value-50");
+        handle.release();
+    }
+
+    @Test
+    public void testEvictWithinCapacity() {
+        OffHeapBlockCache cache = new OffHeapBlockCache(2 * OffHeapBlockCache.PAGE_SIZE, 0);
+        BlockCache.Handle pinned = cache.insert(1, 0, block);
+        for (int i = 1; i < 10000; i ++) {
+            cache.insert(1, i, block).release();
+        }
+        assertThat(cache.getUsage()).isLessThanOrEqualTo(cache.getCapacity());
+        // the newest is kept, the oldest unpinned one is evicted
+        assertThat(cache.lookup(1, 1)).isNull();
+        BlockCache.Handle newest = cache.lookup(1, 9999);
+        assertThat(newest).isNotNull();
+        newest.release();
+        // the pinned one is not overwritten
+        assertThat(pinned.getBlock().iterator(Slice::compareTo).next().getKey().toString()).isEqualTo("key-00000");
+        pinned.release();
+    }
+
+    @Test
+    public void testTooLargeNotCached() {
+        OffHeapBlockCache cache = new OffHeapBlockCache(2 * OffHeapBlockCache.PAGE_SIZE, 0);
+        BlockBuilder builder = new BlockBuilder();
+        Random random = new Random(1);
+        for (int i = 0; i < 3; i ++) {
+            byte[] value = new byte[OffHeapBlockCache.PAGE_SIZE / 2];
+            random.nextBytes(value);
+            builder.add(Slice.from(String.format("key-%05d", i)), Slice.from(value));
+        }
+        TableBlock large = new TableBlock(builder.finish());
+        // no size class holds it
+        assertThat(large.size()).isGreaterThan(OffHeapBlockCache.PAGE_SIZE);
+        BlockCache.Handle handle = cache.insert(2, 0, large);
+        assertThat(handle.getBlock()).isSameAs(large);
+        handle.release();
+        assertThat(cache.lookup(2, 0)).isNull();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TableBlockTest extends MyTest {
+
+    final int turns = 1000;
+
+    TableBlock block;
+
+    String key(int i) {
+        return String.format("key-%08d", i);
+    }
+
+    @Before
+    public void init() {
+        BlockBuilder builder = new BlockBuilder(16);
+        // the even keys only
+        for (int i = 0; i < turns; i ++) {
+            builder.add(Slice.from(key(i * 2)), Slice.from("value-" + i));
+        }
+        block = new TableBlock(builder.finish());
+    }
+
+    @Test
+    public void testSeek() {
+        TableBlock.TableIterator itr = block.iterator(Slice::compareTo);
+        for (int i = 0; i < turns; i ++) {
+            itr.seek(Slice.from(key(i * 2)));
+            Entry<Slice, Slice> entry = itr.next();
+            assertThat(entry.getKey().toString()).isEqualTo(key(i * 2));
+            assertThat(entry.getValue().toString()).isEqualTo("value-" + i);
+
+            // a missing key is positioned before the next one
+            itr.seek(Slice.from(key(i * 2 - 1)));
+            assertThat(itr.next().getKey().toString()).isEqualTo(key(i * 2));
+        }
+        itr.seek(Slice.from(key(turns * 2)));
+        assertThat(itr.hasNext()).isFalse();
+        assertThat(itr.previous().getKey().toString()).isEqualTo(key(turns * 2 - 2));
+    }
+
+    @Test
+    public void testReverse() {
+        TableBlock.TableIterator itr = block.iterator(Slice::compareTo);
+        itr.seekToLast();
+        for (int i = turns - 1; i >= 0; i --) {
+            assertThat(itr.hasPrevious()).isTrue();
+            assertThat(itr.previous().getKey().toString()).isEqualTo(key(i * 2));
+        }
+        assertThat(itr.hasPrevious()).isFalse();
+        assertThatThrownBy(itr::previous).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    public void testChangeDirection() {
+        TableBlock.TableIterator itr = block.iterator(Slice::compareTo);
+        itr.seek(Slice.from(key(100)));
+        // as ListIterator, next() then previous() returns the same one
+        assertThat(itr.next().getKey().toString()).isEqualTo(key(100));
+        assertThat(itr.previous().getKey().toString()).isEqualTo(key(100));
+        assertThat(itr.previous().getKey().toString()).isEqualTo(key(98));
+        assertThat(itr.next().getKey().toString()).isEqualTo(key(98));
+        assertThat(itr.next().getKey().toString()).isEqualTo(key(100));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.table;
+
+import emengjzs.emengdb.test.core.MyTest;
+import emengjzs.emengdb.util.byt.Slice;
+import emengjzs.emengdb.util.io.BufferedWritableFile;
+import emengjzs.emengdb.util.io.DiskWritableFile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TableTest extends MyTest {
+
+    final String fileName = "testTable.sst";
+    final int turns = 5000;
+    final Comparator<Slice> cmp = Slice::compareTo;
+
+    @After
+    public void clean() {
+        new File(fileName).delete();
+    }
+
+    String key(int i) {
+        return String.format("key-%08d", i);
+    }
+
+    void buildTable() throws IOException {
+        TableBuilder builder = new TableBuilder(new BufferedWritableFile(new DiskWritableFile(fileName)), cmp, 1024);
+        for (int i = 0; i < turns; i ++) {
+            builder.add(Slice.from(key(i * 2)), Slice.from("value-" + i));
+        }
+        builder.setProperty("test.property", 42);
+        assertThat(builder.finish()).isEqualTo(new File(fileName).length());
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        buildTable();
+        try (TableReader reader = TableReader.open(fileName, cmp)) {
+            for (int i = 0; i < turns; i ++) {
+                Entry<Slice, Slice> entry = reader.seek(Slice.from(key(i * 2)));
+                assertThat(entry.getKey().toString()).isEqualTo(key(i * 2));
+                assertThat(entry.getValue().toString()).isEqualTo("value-" + i);
+                // a missing key finds the next one
+                entry = reader.seek(Slice.from(key(i * 2 - 1)));
+                assertThat(entry.getKey().toString()).isEqualTo(key(i * 2));
+            }
+            assertThat(reader.seek(Slice.from(key(turns * 2)))).isNull();
+        }
+    }
+
+    @Test
+    public void testIterator() throws IOException {
+        buildTable();
+        try (TableReader reader = TableReader.open(fileName, cmp)) {
+            Iterator<Entry<Slice, Slice>> itr = reader.iterator();
+            for (int i = 0; i < turns; i ++) {
+                assertThat(itr.hasNext()).isTrue();
+                assertThat(itr.next().getKey().toString()).isEqualTo(key(i * 2));
+            }
+            assertThat(itr.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    public void testTruncatedTable() throws IOException {
+        buildTable();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertThatThrownBy(() -> TableReader.open(fileName, cmp)).isInstanceOf(TableFormatException.class);
+    }
+
+    @Test
+    public void testProperties() throws IOException {
+        buildTable();
+        try (TableReader reader = TableReader.open(fileName, cmp)) {
+            TableProperties properties = reader.getProperties();
+            assertThat(properties.getNumEntries()).isEqualTo(turns);
+            assertThat(properties.getNumDataBlocks()).isGreaterThan(1);
+            assertThat(properties.getSmallestKey().toString()).isEqualTo(key(0));
+            assertThat(properties.getLargestKey().toString()).isEqualTo(key(turns * 2 - 2));
+            assertThat(properties.getLong("test.property")).isEqualTo(42);
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        buildTable();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            // a byte in the first data block
+            file.seek(100);
+            int b = file.read();
+            file.seek(100);
+            file.write(b ^ 1);
+        }
+        try (TableReader reader = TableReader.open(fileName, cmp)) {
+            assertThatThrownBy(() -> reader.seek(Slice.from(key(0)))).isInstanceOf(TableFormatException.class);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util;
+
+import emengjzs.emengdb.test.core.MyTest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Crc32CTest extends MyTest {
+
+    RandomBuilder randomBuilder = new RandomBuilder();
+
+    private int crcOf(Crc32C crc, byte[] bytes) {
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    @Test
+    public void testStandardResults() {
+        // from RFC 3720, section B.4.
+        byte[] bytes = new byte[32];
+        Assert.that(crcOf(new PureJavaCrc32C(), bytes)).isEqualTo(0x8a9136aa);
+        Assert.that(crcOf(Crc32C.create(), bytes)).isEqualTo(0x8a9136aa);
+
+        Arrays.fill(bytes, (byte) 0xff);
+        Assert.that(crcOf(new PureJavaCrc32C(), bytes)).isEqualTo(0x62a8ab43);
+        Assert.that(crcOf(Crc32C.create(), bytes)).isEqualTo(0x62a8ab43);
+
+        Assert.that(crcOf(new PureJavaCrc32C(), "123456789".getBytes())).isEqualTo(0xe3069283);
+    }
+
+    @Test
+    public void testSameAsJdk() {
+        for (int i = 0; i < 1000; i ++) {
+            byte[] bytes = randomBuilder.getRandomBytes(randomBuilder.getRandomInt(1000));
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            direct.flip();
+
+            Crc32C pure = new PureJavaCrc32C();
+            pure.update(direct);
+            Assert.that(direct.remaining()).isEqualTo(0);
+
+            Assert.that(pure.getValue()).isEqualTo(crcOf(new PureJavaCrc32C(), bytes));
+            Assert.that(pure.getValue()).isEqualTo(crcOf(Crc32C.create(), bytes));
+        }
+    }
+
+    @Test
+    public void testMask() {
+        int crc = crcOf(Crc32C.create(), "foo".getBytes());
+        Assert.that(Crc32C.mask(crc)).isNotEqualTo(crc);
+        Assert.that(Crc32C.mask(Crc32C.mask(crc))).isNotEqualTo(crc);
+        Assert.that(Crc32C.unmask(Crc32C.mask(crc))).isEqualTo(crc);
+        Assert.that(Crc32C.unmask(Crc32C.unmask(Crc32C.mask(Crc32C.mask(crc))))).isEqualTo(crc);
+    }
+
+}
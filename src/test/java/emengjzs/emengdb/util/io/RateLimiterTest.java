@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017. emengjzs. All rights reserved.
+ */
+
+package emengjzs.emengdb.util.io;
+
+import emengjzs.emengdb.test.core.MyTest;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest extends MyTest {
+
+    @Test
+    public void testRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(1 << 20);
+        long start = System.nanoTime();
+        // a refill is there at the start, the rest takes 0.4s at least
+        for (int i = 0; i < 16; i ++) {
+            limiter.request(32 << 10, RateLimiter.Priority.LOW);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.that(millis).isGreaterThanOrEqualTo(350L);
+        Assert.that(limiter.getTotalBytes(RateLimiter.Priority.LOW)).isEqualTo(16L << 15);
+        Assert.that(limiter.getTotalBytes(RateLimiter.Priority.HIGH)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+        RateLimiter limiter = new RateLimiter(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i ++) {
+            limiter.request(1 << 20, RateLimiter.Priority.LOW);
+        }
+        Assert.that(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000L);
+        Assert.that(limiter.getTotalBytes(RateLimiter.Priority.LOW)).isEqualTo(1000L << 20);
+    }
+
+    @Test
+    public void testHighPriorityFirst() throws Exception {
+        // 1KB a refill, the first one is taken by the request below
+        RateLimiter limiter = new RateLimiter(10 << 10);
+        limiter.request(1 << 10, RateLimiter.Priority.LOW);
+        List<RateLimiter.Priority> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(8);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i ++) {
+            RateLimiter.Priority priority = i < 4 ? RateLimiter.Priority.LOW : RateLimiter.Priority.HIGH;
+            threads.add(new Thread(() -> {
+                try {
+                    limiter.request(1 << 10, priority);
+                    order.add(priority);
+                } catch (InterruptedIOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        // the low ones queue up first
+        for (Thread thread : threads.subList(0, 4)) {
+            thread.start();
+        }
+        Thread.sleep(20);
+        for (Thread thread : threads.subList(4, 8)) {
+            thread.start();
+        }
+        Assert.that(done.await(5, TimeUnit.SECONDS)).isTrue();
+        // a low one may be granted by the refill before the high ones queue
+        Assert.that(order.subList(order.size() - 3, order.size()))
+                .containsOnly(RateLimiter.Priority.LOW);
+    }
+
+    @Test
+    public void testChangeRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(1 << 10);
+        limiter.request(1 << 10, RateLimiter.Priority.LOW);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                // 100s at the rate given
+                limiter.request(100 << 10, RateLimiter.Priority.LOW);
+            } catch (InterruptedIOException e) {
+                throw new RuntimeException(e);
+            }
+            done.countDown();
+        });
+        thread.start();
+        Thread.sleep(200);
+        Assert.that(done.getCount()).isEqualTo(1L);
+        limiter.setBytesPerSecond(0);
+        Assert.that(done.await(1, TimeUnit.SECONDS)).isTrue();
+        Assert.that(limiter.getBytesPerSecond()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        RateLimiter limiter = new RateLimiter(1 << 20);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2500);
+        while (System.nanoTime() < end) {
+            limiter.request(16 << 10, RateLimiter.Priority.HIGH);
+        }
+        // a whole second between the first and the last request
+        Assert.that(limiter.getThroughput()).isBetween(800L << 10, 1200L << 10);
+    }
+}